@@ -0,0 +1,44 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seleciona as imagens de treinamento (src/main/resources/training/images) utilizadas pelos benchmarks.
+ */
+final class BenchmarkImages {
+
+    /**
+     * Quantidade de imagens de cada {@link TriangleTypes} utilizadas por iteração dos benchmarks.
+     */
+    static final int IMAGES_PER_TYPE = 10;
+    static final int TOTAL_IMAGES = IMAGES_PER_TYPE * 3;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * @return as primeiras {@link #IMAGES_PER_TYPE} imagens (em ordem de nome) de cada tipo de triangulo
+     */
+    static Map<TriangleTypes, List<File>> trainingImagesByType() {
+        Map<TriangleTypes, List<File>> res = new EnumMap<>(TriangleTypes.class);
+        for (TriangleTypes t : TriangleTypes.values()) {
+            File[] files = ResourceLoader.getResources(Application.TRAINING_IMAGES_PATH + "/" + t.name().toLowerCase());
+            Arrays.sort(files);
+            res.put(t, Arrays.asList(files).subList(0, Math.min(IMAGES_PER_TYPE, files.length)));
+        }
+        return res;
+    }
+
+    static List<File> trainingImages() {
+        List<File> res = new ArrayList<>();
+        for (List<File> files : trainingImagesByType().values()) {
+            res.addAll(files);
+        }
+        return res;
+    }
+}
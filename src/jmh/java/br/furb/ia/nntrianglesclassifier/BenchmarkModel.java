@@ -0,0 +1,62 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Fornece o modelo e os exemplos de classificação utilizados pelos benchmarks de inferência. Os benchmarks são
+ * executados a partir de build/jmh, por isso os arquivos da raiz do projeto são procurados nos diretórios acima.
+ */
+final class BenchmarkModel {
+
+    private BenchmarkModel() {
+    }
+
+    /**
+     * @return o arquivo informado, relativo ao diretório atual ou a algum de seus diretórios pai
+     */
+    static File projectFile(File relative) {
+        for (File dir = new File("").getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+            File f = new File(dir, relative.getPath());
+            if (f.exists()) {
+                return f;
+            }
+        }
+        throw new IllegalStateException("Arquivo " + relative + " não encontrado");
+    }
+
+    /**
+     * @return o modelo salvo em {@link Application#MODEL_FILE} ou, caso não exista, um modelo treinado com
+     * {@link Application#TRAINING_CSV}
+     */
+    static NeuralNetwork trainedNetwork() {
+        File model = new File(projectFile(Application.TRAINING_CSV).getParentFile(), Application.MODEL_FILE.getPath());
+        if (model.exists()) {
+            return NeuralNetwork.load(model);
+        }
+        NeuralNetwork nn = new NeuralNetwork();
+        nn.train(projectFile(Application.TRAINING_CSV));
+        return nn;
+    }
+
+    /**
+     * @return as coordenadas (p1x, p1y, p2x, p2y, p3x, p3y) de cada linha do CSV informado, que não possui cabeçalho
+     */
+    static double[][] readFeatures(File csv) {
+        try {
+            List<String> lines = Files.readAllLines(csv.toPath());
+            double[][] res = new double[lines.size()][6];
+            for (int i = 0; i < res.length; i++) {
+                String[] values = lines.get(i).split(",");
+                for (int j = 0; j < 6; j++) {
+                    res[i][j] = Double.parseDouble(values[j]);
+                }
+            }
+            return res;
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler " + csv.getAbsolutePath(), e);
+        }
+    }
+}
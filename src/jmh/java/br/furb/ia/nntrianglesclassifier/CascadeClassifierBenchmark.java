@@ -0,0 +1,65 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latência por exemplo de cada caminho da {@link CascadeClassifier}, sobre os exemplos de
+ * {@link Application#CLASSIFICATION_CSV}: somente o {@link GeometricClassifier}, somente a rede neural (um exemplo por
+ * chamada, como em uma requisição isolada) e a cascata completa.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CascadeClassifierBenchmark {
+
+    private NeuralNetwork nn;
+    private GeometricClassifier geometric;
+    private CascadeClassifier cascade;
+    private List<List<TrianglePrincipalPoints>> examples;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        nn = BenchmarkModel.trainedNetwork();
+        geometric = new GeometricClassifier();
+        cascade = new CascadeClassifier(geometric, 0);
+        examples = new ArrayList<>();
+        for (double[] f : BenchmarkModel.readFeatures(BenchmarkModel.projectFile(Application.CLASSIFICATION_CSV))) {
+            examples.add(Collections.singletonList(new TrianglePrincipalPoints(new Pixel((int) f[0], (int) f[1], 255),
+                    new Pixel((int) f[2], (int) f[3], 255), new Pixel((int) f[4], (int) f[5], 255))));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println(cascade);
+    }
+
+    private List<TrianglePrincipalPoints> nextExample() {
+        next = (next + 1) % examples.size();
+        return examples.get(next);
+    }
+
+    @Benchmark
+    public GeometricClassifier.Result geometric() {
+        return geometric.classify(nextExample().get(0));
+    }
+
+    @Benchmark
+    public TriangleTypes[] network() {
+        return nn.predictBatch(nextExample());
+    }
+
+    @Benchmark
+    public TriangleTypes[] cascade() {
+        return cascade.classify(nextExample(), nn);
+    }
+}
@@ -0,0 +1,92 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Teste de carga local do {@link ClassificationServer}: várias threads enviam concorrentemente as imagens de
+ * {@link BenchmarkImages} para {@code /classify}. O modo SampleTime reporta os percentis de latência vistos pelos
+ * clientes e, ao final de cada configuração, as estatísticas de {@code /stats} (tamanho médio dos lotes, fila) são
+ * impressas.
+ */
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassificationServerBenchmark {
+
+    @Param({"0", "5"})
+    public long maxWaitMillis;
+
+    private ClassificationServer server;
+    private URL classifyUrl;
+    private final List<byte[]> images = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new ClassificationServer(BenchmarkModel.trainedNetwork(), 0, 8, Application.SERVER_MAX_BATCH_SIZE, maxWaitMillis);
+        server.start();
+        classifyUrl = new URL("http://localhost:" + server.getPort() + "/classify");
+        for (File f : BenchmarkImages.trainingImages()) {
+            images.add(Files.readAllBytes(f.toPath()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println(new String(get(new URL("http://localhost:" + server.getPort() + "/stats")), "UTF-8"));
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ImageIndex {
+        private int next;
+
+        int next(int size) {
+            int i = next;
+            next = (next + 1) % size;
+            return i;
+        }
+    }
+
+    @Benchmark
+    public byte[] classify(ImageIndex index) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) classifyUrl.openConnection();
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        try (OutputStream out = con.getOutputStream()) {
+            out.write(images.get(index.next(images.size())));
+        }
+        return read(con);
+    }
+
+    private static byte[] get(URL url) throws IOException {
+        return read((HttpURLConnection) url.openConnection());
+    }
+
+    private static byte[] read(HttpURLConnection con) throws IOException {
+        int status = con.getResponseCode();
+        try (InputStream in = status < 400 ? con.getInputStream() : con.getErrorStream()) {
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                res.write(buffer, 0, n);
+            }
+            return res.toByteArray();
+        }
+    }
+}
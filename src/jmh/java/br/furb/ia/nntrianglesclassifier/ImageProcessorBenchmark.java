@@ -0,0 +1,136 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import ij.ImagePlus;
+import ij.process.ImageConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mede cada etapa do {@link ImageProcessor} isoladamente. Cada operação corresponde ao processamento de uma imagem,
+ * portanto o modo AverageTime reporta a latência por imagem e o modo Throughput a quantidade de imagens por segundo.
+ * As etapas que alteram os pixels recebem, a cada invocação, uma cópia da imagem no estado anterior à etapa.
+ * {@link #processImageReference} e {@link #processImageFused} comparam o processamento completo de uma imagem pelas
+ * etapas do ImageJ e pelo {@link FusedImageKernel}.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageProcessorBenchmark {
+
+    private final ImageProcessor processor = new ImageProcessor();
+    private final ImageProcessor reference = new ImageProcessor();
+    private final List<File> files = new ArrayList<>();
+    //estado de cada imagem logo após o carregamento, após a conversão para edges e após o crop
+    private final List<ij.process.ImageProcessor> loaded = new ArrayList<>();
+    private final List<ij.process.ImageProcessor> edges = new ArrayList<>();
+    private final List<ImageFeatureContext> cropped = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void loadImages() {
+        reference.setReferenceImplementation(true);
+        for (File f : BenchmarkImages.trainingImages()) {
+            ImagePlus imgP = processor.openImage(f);
+            ImageFeatureContext ctx = new ImageFeatureContext(imgP.getProcessor());
+            loaded.add(ctx.getProcessor().duplicate());
+            processor.convertTo8BitGrayScale(new ImageConverter(imgP));
+            processor.binarize(ctx);
+            processor.convertToEdges(ctx);
+            edges.add(ctx.getProcessor().duplicate());
+            if (processor.cropToBBox(ctx, f.getName())) {
+                files.add(f);
+                cropped.add(ctx);
+            } else {
+                loaded.remove(loaded.size() - 1);
+                edges.remove(edges.size() - 1);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ImageIndex {
+        private int next;
+
+        int next(int size) {
+            int i = next;
+            next = (next + 1) % size;
+            return i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LoadedImage {
+        ImagePlus image;
+        ImageFeatureContext ctx;
+
+        @Setup(Level.Invocation)
+        public void prepare(ImageProcessorBenchmark b, ImageIndex index) {
+            int i = index.next(b.loaded.size());
+            image = new ImagePlus(b.files.get(i).getName(), b.loaded.get(i).duplicate());
+            ctx = new ImageFeatureContext(image.getProcessor(), EdgePixels.forCurrentThread());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EdgesImage {
+        ImageFeatureContext ctx;
+        String name;
+
+        @Setup(Level.Invocation)
+        public void prepare(ImageProcessorBenchmark b, ImageIndex index) {
+            int i = index.next(b.edges.size());
+            ctx = new ImageFeatureContext(b.edges.get(i).duplicate(), EdgePixels.forCurrentThread());
+            name = b.files.get(i).getName();
+        }
+    }
+
+    @Benchmark
+    public ImagePlus load(ImageIndex index) {
+        return processor.openImage(files.get(index.next(files.size())));
+    }
+
+    @Benchmark
+    public ImagePlus convertTo8BitGrayScale(LoadedImage in) {
+        processor.convertTo8BitGrayScale(new ImageConverter(in.image));
+        return in.image;
+    }
+
+    @Benchmark
+    public ImageFeatureContext binarize(LoadedImage in) {
+        processor.binarize(in.ctx);
+        return in.ctx;
+    }
+
+    @Benchmark
+    public ImageFeatureContext convertToEdges(LoadedImage in) {
+        processor.convertToEdges(in.ctx);
+        return in.ctx;
+    }
+
+    @Benchmark
+    public boolean cropToBBox(EdgesImage in) {
+        return processor.cropToBBox(in.ctx, in.name);
+    }
+
+    @Benchmark
+    public TrianglePrincipalPoints getPrincipalPoints(ImageIndex index) {
+        int i = index.next(cropped.size());
+        return processor.extractPrincipalPoints(cropped.get(i), files.get(i).getName(), false);
+    }
+
+    @Benchmark
+    public TrianglePrincipalPoints processImageReference(ImageIndex index) {
+        return reference.processImage(files.get(index.next(files.size())), null, false);
+    }
+
+    @Benchmark
+    public TrianglePrincipalPoints processImageFused(ImageIndex index) {
+        return processor.processImage(files.get(index.next(files.size())), null, false);
+    }
+}
@@ -0,0 +1,96 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.MLRegression;
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.basic.BasicMLData;
+import org.encog.ml.data.versatile.NormalizationHelper;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latência por exemplo do cálculo da rede pelo Encog ({@code MLRegression.compute}, que aloca os vetores a cada
+ * chamada), pelo {@link InferenceKernel} exportado do mesmo modelo e pela sua cópia com pesos quantizados em 8 bits
+ * ({@link QuantizedKernel}), sobre os exemplos de {@link Application#CLASSIFICATION_CSV}. Antes da medição confere se
+ * as saídas do Encog e do kernel são idênticas bit a bit para todos os exemplos.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InferenceKernelBenchmark {
+
+    private MLRegression method;
+    private NormalizationHelper helper;
+    private FeatureSet featureSet;
+    private InferenceKernel kernel;
+    private QuantizedKernel quantized;
+    private double[][] features;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        NeuralNetwork nn = BenchmarkModel.trainedNetwork();
+        method = nn.getBestMethod();
+        helper = nn.getHelper();
+        featureSet = nn.getFeatureSet();
+        kernel = nn.exportKernel();
+        if (kernel == null) {
+            throw new IllegalStateException("O modelo não pode ser exportado para o kernel de inferência");
+        }
+        quantized = kernel.quantize();
+        features = BenchmarkModel.readFeatures(BenchmarkModel.projectFile(Application.CLASSIFICATION_CSV));
+
+        double[] output = new double[kernel.getOutputCount()];
+        for (double[] f : features) {
+            double[] expected = encog(f).getData();
+            kernel.compute(f, output);
+            for (int i = 0; i < output.length; i++) {
+                if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(output[i])) {
+                    throw new IllegalStateException("Saída do kernel diferente do Encog para " + Arrays.toString(f));
+                }
+            }
+        }
+    }
+
+    private double[] nextExample() {
+        next = (next + 1) % features.length;
+        return features[next];
+    }
+
+    /**
+     * Mesma normalização de {@link NeuralNetwork#predict(java.io.File)}, seguida de {@code MLRegression.compute}.
+     */
+    private MLData encog(double[] points) {
+        List<ColumnDefinition> inputColumns = helper.getInputColumns();
+        NormalizationStrategy strategy = helper.getNormStrategy();
+        double[] values = featureSet.extract(points);
+        MLData input = new BasicMLData(helper.calculateNormalizedInputCount());
+        int index = 0;
+        for (int col = 0; col < inputColumns.size(); col++) {
+            index = strategy.normalizeColumn(inputColumns.get(col), false, values[col], input.getData(), index);
+        }
+        return method.compute(input);
+    }
+
+    @Benchmark
+    public String encog() {
+        return helper.getNormStrategy().denormalizeColumn(helper.getOutputColumns().get(0), false, encog(nextExample()), 0);
+    }
+
+    @Benchmark
+    public TriangleTypes kernel() {
+        return kernel.classify(nextExample());
+    }
+
+    @Benchmark
+    public TriangleTypes quantized() {
+        return quantized.classify(nextExample());
+    }
+}
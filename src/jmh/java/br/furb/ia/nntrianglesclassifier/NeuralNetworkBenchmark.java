@@ -0,0 +1,59 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara a classificação linha a linha de {@link NeuralNetwork#predict(File)}, que normaliza cada linha a partir do
+ * texto do CSV e imprime o resultado, com {@link NeuralNetwork#predictBatch(double[][])}. Cada operação classifica
+ * todas as linhas de {@link Application#CLASSIFICATION_CSV}; a saída de predict(File) é descartada durante a medição.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NeuralNetworkBenchmark {
+
+    private NeuralNetwork nn;
+    private File classificationCsv;
+    private double[][] features;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        nn = BenchmarkModel.trainedNetwork();
+        classificationCsv = BenchmarkModel.projectFile(Application.CLASSIFICATION_CSV);
+        features = BenchmarkModel.readFeatures(classificationCsv);
+        originalOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public void predictFile() {
+        nn.predict(classificationCsv);
+    }
+
+    @Benchmark
+    public TriangleTypes[] predictBatch() {
+        return nn.predictBatch(features);
+    }
+}
@@ -0,0 +1,40 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mede o caminho completo de {@link TrainingDataProvider#processAndGetExamples(Map, boolean)}, do carregamento das
+ * imagens até a extração dos pontos principais, com {@link BenchmarkImages#TOTAL_IMAGES} imagens por invocação.
+ * Os resultados são reportados por imagem (latência média e imagens por segundo).
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrainingDataProviderBenchmark {
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Map<TriangleTypes, List<File>> images;
+    private TrainingDataProvider provider;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        images = BenchmarkImages.trainingImagesByType();
+        provider = new TrainingDataProvider(new ImageProcessor(), parallelism);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkImages.TOTAL_IMAGES)
+    public Map<TriangleTypes, List<TrianglePrincipalPoints>> processAndGetExamples() {
+        return provider.processAndGetExamples(images, false);
+    }
+}
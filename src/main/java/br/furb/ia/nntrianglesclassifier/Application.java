@@ -2,13 +2,21 @@ package br.furb.ia.nntrianglesclassifier;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 // - A pasta main/java/resources/images contém as imagens exemplo origem. Para adicionar novas imagens basta copiá-las
 //para o subdiretorio respectivo (equilateral, etc..).
@@ -40,16 +48,132 @@ public class Application {
 
     public static final File TRAINING_CSV = new File("training.csv");
     public static final File CLASSIFICATION_CSV = new File("classification.csv");
+    public static final File TRAINING_FEATURES = new File("training" + FeatureDataFile.EXTENSION);
+    public static final File CLASSIFICATION_FEATURES = new File("classification" + FeatureDataFile.EXTENSION);
+    public static final File MODEL_FILE = new File("model.bin");
+    /**
+     * Checkpoint do treinamento incremental ("learn"), que substitui {@link #MODEL_FILE} somente ao término do
+     * treinamento.
+     */
+    public static final File LEARN_CHECKPOINT_FILE = new File("model.learn.bin");
+    public static final File FEATURE_CACHE_FILE = new File("features.cache");
+    public static final File LEADERBOARD_CSV = new File("leaderboard.csv");
+    public static final File SYNTHETIC_FEATURES = new File("synthetic" + FeatureDataFile.EXTENSION);
+    public static final long SYNTHETIC_SEED = 1001;
+    public static final int SYNTHETIC_PREDICT_BATCH_SIZE = 4096;
+    /**
+     * Colunas de entrada e arquitetura utilizadas no treinamento. Com os valores invariantes bastam 5 neurônios ocultos,
+     * contra os 10 sugeridos pelo Encog para as coordenadas, e a acurácia nos exemplos de classificação sobe de 0,38
+     * para 0,75.
+     */
+    public static final FeatureSet TRAINING_FEATURE_SET = FeatureSet.INVARIANT;
+    public static final String TRAINING_ARCHITECTURE = "?:B->TANH->5:B->TANH->?";
 
+    public static final int SERVER_DEFAULT_PORT = 8080;
+    public static final int SERVER_MAX_BATCH_SIZE = 32;
+    public static final long SERVER_DEFAULT_MAX_WAIT_MILLIS = 5;
+    public static final File METRICS_SNAPSHOT_CSV = new File("metrics.csv");
+    public static final long METRICS_SNAPSHOT_PERIOD_MILLIS = 10_000;
+    public static final File SHARDS_DIR = new File("shards");
+    public static final int SHARD_MAX_ATTEMPTS = 3;
+    public static final int LEARN_BATCH_SIZE = 32;
+    public static final int LEARN_CHECKPOINT_INTERVAL = 50;
+    public static final long LEARN_SEED = 1001;
+    public static final int BULK_QUEUE_CAPACITY = 64;
+    public static final int BULK_BATCH_SIZE = 256;
+
+    //imagens selecionadas no modo diagnóstico, null quando desabilitado
+    private static Set<String> diagnosticImages;
+
+    /**
+     * Sem argumentos classifica {@link #CLASSIFICATION_CSV} utilizando o modelo salvo em {@link #MODEL_FILE} (que é
+     * treinado e salvo caso ainda não exista). Com o argumento "train" somente treina e salva o modelo. Com o argumento
+     * "serve [[endereço:]porta] [espera máxima do lote em ms] [confiança mínima]" inicia o
+     * {@link ClassificationServer}, somente para conexões locais caso o endereço não seja informado (e.g.:
+     * "0.0.0.0:8080" para todas as interfaces), em modo cascata ({@link CascadeClassifier}) caso a confiança mínima do
+     * caminho geométrico seja informada. Com o argumento "search [acurácia alvo]" executa a busca de hiperparâmetros e
+     * grava o leaderboard em {@link #LEADERBOARD_CSV}.
+     * Com o argumento "convert" converte os arquivos CSV para o formato binário ({@link FeatureDataFile}), que passa a
+     * ser utilizado no lugar deles. Com o argumento "generate quantidade [diretório]" gera imagens sintéticas
+     * ({@link SyntheticTriangleGenerator}) e as grava no diretório informado ou, sem diretório, as processa em memória
+     * e grava os pontos extraídos em {@link #SYNTHETIC_FEATURES}. Com o argumento "quantize" compara a classificação
+     * do modelo com pesos em double ({@link InferenceKernel}) e quantizados em 8 bits ({@link QuantizedKernel}) nos
+     * exemplos de classificação. Com o argumento "distribute [workers] [shards]" gera os arquivos CSV e binários dos
+     * exemplos distribuindo a extração dos pontos entre processos worker ({@link ShardCoordinator}), que são iniciados
+     * com o argumento "worker". Com o argumento "learn arquivo [taxa de aprendizado]" continua o treinamento do modelo
+     * salvo em {@link #MODEL_FILE} com os exemplos do arquivo (CSV ou binário), sem retreinar do zero
+     * ({@link IncrementalTrainer}). Com o argumento "bulk diretório saída.csv|saída.jsonl [threads de extração]"
+     * classifica todas as imagens do diretório e dos seus subdiretórios ({@link BulkClassificationJob}), continuando do
+     * último checkpoint caso a execução anterior com a mesma saída tenha sido interrompida.
+     * <p>
+     * Com o argumento "metrics" antes de qualquer um dos anteriores habilita as métricas de cada etapa
+     * ({@link Metrics}), expostas via JMX e gravadas em {@link #METRICS_SNAPSHOT_CSV} a cada
+     * {@link #METRICS_SNAPSHOT_PERIOD_MILLIS} ms e ao término da execução. Com os argumentos
+     * "diagnostics imagem1.jpg,imagem2.jpg" antes de qualquer um dos anteriores habilita o modo diagnóstico: o
+     * {@link ImageProcessor} passa a logar cada etapa em nível debug e o ascii art dos pontos principais somente das
+     * imagens informadas ({@link ImageProcessor#setDiagnosticImages(Collection)}).
+     */
     public static void main(String[] args) {
+        if (args.length > 1 && "diagnostics".equals(args[0])) {
+            diagnosticImages = new HashSet<>(Arrays.asList(args[1].split(",")));
+            Configurator.setLevel(ImageProcessor.class.getName(), Level.DEBUG);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length > 0 && "metrics".equals(args[0])) {
+            Metrics.enable(METRICS_SNAPSHOT_CSV, METRICS_SNAPSHOT_PERIOD_MILLIS);
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length > 1 && "generate".equals(args[0])) {
+            generate(Long.parseLong(args[1]), args.length > 2 ? new File(args[2]) : null);
+            return;
+        }
+        if (args.length > 0 && "convert".equals(args[0])) {
+            FeatureDataFile.fromCSV(TRAINING_CSV, true, TRAINING_FEATURES);
+            FeatureDataFile.fromCSV(CLASSIFICATION_CSV, false, CLASSIFICATION_FEATURES);
+            return;
+        }
+        if (args.length > 0 && "serve".equals(args[0])) {
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && "quantize".equals(args[0])) {
+            quantize();
+            return;
+        }
+        if (args.length > 3 && "worker".equals(args[0])) {
+            ShardCoordinator.runWorker(new File(args[1]), new File(args[2]), new File(args[3]));
+            return;
+        }
+        if (args.length > 0 && "distribute".equals(args[0])) {
+            int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            distribute(workers, args.length > 2 ? Integer.parseInt(args[2]) : workers * 4);
+            return;
+        }
+        if (args.length > 2 && "bulk".equals(args[0])) {
+            int extractors = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            NeuralNetwork nn = MODEL_FILE.exists() ? NeuralNetwork.load(MODEL_FILE) : trainAndSave();
+            new BulkClassificationJob(nn, newImageProcessor(), extractors, BULK_QUEUE_CAPACITY, BULK_BATCH_SIZE)
+                    .run(new File(args[1]), new File(args[2]));
+            return;
+        }
+        if (args.length > 1 && "learn".equals(args[0])) {
+            learn(new File(args[1]), args.length > 2 ? Double.parseDouble(args[2]) : null);
+            return;
+        }
+        if (args.length > 0 && "search".equals(args[0])) {
+            search(args);
+            return;
+        }
         long init = System.currentTimeMillis();
         LOGGER.info("Iniciando execução...");
 
 //        createCSVFiles();  linha comentada pq os arquivos CSV de treinamento já estão criados
 
-        try (NeuralNetwork nn = new NeuralNetwork()) {
-            nn.train(TRAINING_CSV);
-            nn.predict(CLASSIFICATION_CSV);
+        boolean trainOnly = args.length > 0 && "train".equals(args[0]);
+        try (NeuralNetwork nn = trainOnly || !MODEL_FILE.exists() ? trainAndSave() : NeuralNetwork.load(MODEL_FILE)) {
+            if (!trainOnly) {
+                nn.predict(CLASSIFICATION_FEATURES.exists() ? CLASSIFICATION_FEATURES : CLASSIFICATION_CSV);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -59,37 +183,293 @@ public class Application {
         LOGGER.info("Tempo de execução total: " + elapsed + " segundos.");
     }
 
+    /**
+     * @return {@link #TRAINING_FEATURES} caso já tenha sido gerado, senão {@link #TRAINING_CSV}
+     */
+    private static File trainingData() {
+        return TRAINING_FEATURES.exists() ? TRAINING_FEATURES : TRAINING_CSV;
+    }
+
+    private static NeuralNetwork trainAndSave() {
+        File trainingData = trainingData();
+        LOGGER.info("Treinando a rede neural com " + trainingData);
+        NeuralNetwork nn = new NeuralNetwork();
+        //os folds da validação cruzada são treinados em paralelo, uma thread por core
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            nn.train(trainingData, TRAINING_FEATURE_SET, executor, TRAINING_ARCHITECTURE);
+        } finally {
+            executor.shutdownNow();
+        }
+        nn.save(MODEL_FILE);
+        LOGGER.info("Modelo salvo em " + MODEL_FILE.getAbsolutePath());
+        return nn;
+    }
+
+    private static void serve(String[] args) {
+        String bind = args.length > 1 ? args[1] : String.valueOf(SERVER_DEFAULT_PORT);
+        int separator = bind.lastIndexOf(':');
+        int port = Integer.parseInt(bind.substring(separator + 1));
+        InetSocketAddress address = separator < 0 ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(bind.substring(0, separator), port);
+        long maxWaitMillis = args.length > 2 ? Long.parseLong(args[2]) : SERVER_DEFAULT_MAX_WAIT_MILLIS;
+        CascadeClassifier cascade = args.length > 3 ? new CascadeClassifier(new GeometricClassifier(), Double.parseDouble(args[3])) : null;
+        NeuralNetwork nn = MODEL_FILE.exists() ? NeuralNetwork.load(MODEL_FILE) : trainAndSave();
+        try {
+            //as threads ficam bloqueadas aguardando o lote, por isso são mais threads que cores
+            ClassificationServer server = new ClassificationServer(nn, address, Runtime.getRuntime().availableProcessors() * 4,
+                    SERVER_MAX_BATCH_SIZE, maxWaitMillis, cascade);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            server.start();
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível iniciar o serviço de classificação em " + bind, e);
+        }
+    }
+
+    private static void search(String[] args) {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Leaderboard leaderboard = new HyperparameterSearch(trainingData(), executor, 1001)
+                    .successiveHalving(SearchSpace.defaultCandidates(), 25, 3);
+            leaderboard.log();
+            leaderboard.writeToCSV(LEADERBOARD_CSV);
+            LOGGER.info("Leaderboard salvo em " + LEADERBOARD_CSV.getAbsolutePath());
+            if (args.length > 1) {
+                double target = Double.parseDouble(args[1]);
+                LOGGER.info("Modelo mais rápido com acurácia de pelo menos " + target + ": " + leaderboard.fastestWithAccuracy(target));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Treina o modelo salvo com os exemplos do arquivo, em ordem aleatória e em mini-lotes de {@link #LEARN_BATCH_SIZE}
+     * exemplos ({@link IncrementalTrainer}), salvando o modelo em {@link #LEARN_CHECKPOINT_FILE} a cada
+     * {@link #LEARN_CHECKPOINT_INTERVAL} lotes. O arquivo CSV pode ou não ter o nome das colunas na primeira linha.
+     * <p>
+     * {@link #MODEL_FILE} só é substituído ao término do treinamento, portanto uma execução interrompida não altera o
+     * modelo utilizado pelos demais comandos. Caso {@link #CLASSIFICATION_FEATURES} exista, loga a acurácia antes e
+     * depois do treinamento e, caso ela tenha diminuído, mantém o modelo anterior e somente o checkpoint.
+     *
+     * @param learningRate taxa de aprendizado, ou null para a padrão do {@link IncrementalTrainer}
+     */
+    private static void learn(File data, Double learningRate) {
+        NeuralNetwork nn = NeuralNetwork.load(MODEL_FILE);
+        if (!FeatureDataFile.isFeatureFile(data)) {
+            File features = new File(data.getPath() + FeatureDataFile.EXTENSION);
+            FeatureDataFile.fromCSV(data, FeatureDataFile.hasHeader(data), features);
+            data = features;
+        }
+        FeatureDataFile examples = FeatureDataFile.open(data);
+        FeatureDataFile classification = CLASSIFICATION_FEATURES.exists() ? FeatureDataFile.open(CLASSIFICATION_FEATURES) : null;
+        double before = 0;
+        if (classification != null) {
+            before = accuracy(nn, classification);
+            LOGGER.info("Acurácia antes do treinamento: " + before);
+        }
+
+        long init = System.currentTimeMillis();
+        IncrementalTrainer trainer = new IncrementalTrainer(nn, LEARN_CHECKPOINT_FILE);
+        trainer.setBatchSize(LEARN_BATCH_SIZE);
+        trainer.setCheckpointInterval(LEARN_CHECKPOINT_INTERVAL);
+        if (learningRate != null) {
+            trainer.setLearningRate(learningRate);
+        }
+        //os arquivos de exemplos são agrupados por tipo, ver IncrementalTrainer
+        double[][] points = examples.features(0, examples.size());
+        List<Integer> order = new ArrayList<>();
+        for (int row = 0; row < points.length; row++) {
+            order.add(row);
+        }
+        Collections.shuffle(order, new Random(LEARN_SEED));
+        for (int row : order) {
+            trainer.add(points[row], TriangleTypes.fromCharValue(examples.getLabel(row).charAt(0)));
+        }
+        trainer.flush();
+        LOGGER.info(trainer.getSamples() + " exemplos treinados em " + trainer.getBatches() + " lotes ("
+                + trainer.getRangeUpdates() + " ampliações da normalização) em "
+                + (System.currentTimeMillis() - init) / 1000d + " segundos");
+        if (classification != null) {
+            double after = accuracy(nn, classification);
+            LOGGER.info("Acurácia após o treinamento: " + after);
+            if (after < before) {
+                LOGGER.warn("A acurácia diminuiu, " + MODEL_FILE + " não foi substituído. O modelo treinado está em "
+                        + LEARN_CHECKPOINT_FILE);
+                return;
+            }
+        }
+        try {
+            Files.move(LEARN_CHECKPOINT_FILE.toPath(), MODEL_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível substituir " + MODEL_FILE.getAbsolutePath(), e);
+        }
+        LOGGER.info("Modelo treinado salvo em " + MODEL_FILE);
+    }
+
+    private static double accuracy(NeuralNetwork nn, FeatureDataFile data) {
+        TriangleTypes[] predicted = nn.predictBatch(data.features(0, data.size()));
+        int correct = 0;
+        for (int row = 0; row < predicted.length; row++) {
+            correct += data.getLabel(row).equals(String.valueOf(predicted[row].getCharValue())) ? 1 : 0;
+        }
+        return (double) correct / predicted.length;
+    }
+
+    /**
+     * Loga a acurácia, a concordância, o tamanho dos pesos e o tempo por exemplo dos kernels double e int8 nos exemplos
+     * de {@link #CLASSIFICATION_FEATURES}, que é gerado a partir de {@link #CLASSIFICATION_CSV} caso não exista.
+     */
+    private static void quantize() {
+        NeuralNetwork nn = MODEL_FILE.exists() ? NeuralNetwork.load(MODEL_FILE) : trainAndSave();
+        InferenceKernel kernel = nn.exportKernel();
+        if (kernel == null) {
+            throw new IllegalStateException("O modelo salvo em " + MODEL_FILE + " não pode ser quantizado.");
+        }
+        QuantizedKernel quantized = kernel.quantize();
+        if (!CLASSIFICATION_FEATURES.exists()) {
+            FeatureDataFile.fromCSV(CLASSIFICATION_CSV, false, CLASSIFICATION_FEATURES);
+        }
+        FeatureDataFile data = FeatureDataFile.open(CLASSIFICATION_FEATURES);
+        double[][] points = data.features(0, data.size());
+
+        TriangleTypes[] expected = kernel.classify(points);
+        TriangleTypes[] actual = quantized.classify(points);
+        int correct = 0;
+        int quantizedCorrect = 0;
+        int agree = 0;
+        for (int row = 0; row < points.length; row++) {
+            String label = data.getLabel(row);
+            correct += label.equals(String.valueOf(expected[row].getCharValue())) ? 1 : 0;
+            quantizedCorrect += label.equals(String.valueOf(actual[row].getCharValue())) ? 1 : 0;
+            agree += expected[row] == actual[row] ? 1 : 0;
+        }
+        LOGGER.info("Acurácia em " + points.length + " exemplos: double " + (double) correct / points.length + ", int8 "
+                + (double) quantizedCorrect / points.length + " (mesma classe em " + (double) agree / points.length
+                + " dos exemplos)");
+        LOGGER.info("Pesos: double " + kernel.getWeightBytes() + " bytes, int8 " + quantized.getWeightBytes() + " bytes");
+
+        //algumas passadas de aquecimento antes de medir
+        for (int i = 0; i < 20; i++) {
+            kernel.classify(points);
+            quantized.classify(points);
+        }
+        long init = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            kernel.classify(points);
+        }
+        long kernelNanos = System.nanoTime() - init;
+        init = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            quantized.classify(points);
+        }
+        long quantizedNanos = System.nanoTime() - init;
+        LOGGER.info("Tempo por exemplo: double " + kernelNanos / (20 * points.length) + " ns, int8 "
+                + quantizedNanos / (20 * points.length) + " ns");
+    }
+
+    /**
+     * @param dir diretório onde as imagens devem ser gravadas, ou null para processá-las em memória. Nesse caso, se
+     *            existir um modelo salvo, também loga a acurácia da classificação dos pontos extraídos.
+     */
+    private static void generate(long count, File dir) {
+        SyntheticTriangleGenerator generator = new SyntheticTriangleGenerator(SYNTHETIC_SEED);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (dir != null) {
+            generator.writeImages(dir, count, parallelism);
+            return;
+        }
+        TrainingDataProvider tp = new TrainingDataProvider(newImageProcessor(), parallelism);
+        //os pontos são gravados à medida que são extraídos, sem manter todos os exemplos em memória
+        try (FeatureDataFile.Writer writer = FeatureDataFile.writer(SYNTHETIC_FEATURES)) {
+            tp.processExamples(generator, count, diagnosticImages != null, writer::add);
+        }
+        if (MODEL_FILE.exists()) {
+            NeuralNetwork nn = NeuralNetwork.load(MODEL_FILE);
+            FeatureDataFile data = FeatureDataFile.open(SYNTHETIC_FEATURES);
+            Map<TriangleTypes, int[]> results = new EnumMap<>(TriangleTypes.class);
+            for (int from = 0; from < data.size(); from += SYNTHETIC_PREDICT_BATCH_SIZE) {
+                int to = Math.min(data.size(), from + SYNTHETIC_PREDICT_BATCH_SIZE);
+                TriangleTypes[] predicted = nn.predictBatch(data.features(from, to));
+                for (int row = from; row < to; row++) {
+                    TriangleTypes expected = TriangleTypes.fromCharValue(data.getLabel(row).charAt(0));
+                    //acertos e total de cada tipo
+                    int[] r = results.computeIfAbsent(expected, t -> new int[2]);
+                    r[0] += predicted[row - from] == expected ? 1 : 0;
+                    r[1]++;
+                }
+            }
+            for (Map.Entry<TriangleTypes, int[]> e : results.entrySet()) {
+                LOGGER.info("Acurácia em " + e.getValue()[1] + " triangulos sintéticos do tipo " + e.getKey() + ": "
+                        + (double) e.getValue()[0] / e.getValue()[1]);
+            }
+        }
+    }
+
     private enum DataType {
         TRAINING, CLASSIFICATION
     }
 
+    /**
+     * Gera os arquivos CSV e os arquivos binários equivalentes a partir das imagens. Somente as imagens novas ou
+     * alteradas desde a última execução são processadas, os pontos das demais são lidos de {@link #FEATURE_CACHE_FILE}.
+     */
     private static void createCSVFiles() {
-        Map<TriangleTypes, List<TrianglePrincipalPoints>> trainingData = loadData(DataType.TRAINING);
+        FeatureCache cache = FeatureCache.load(FEATURE_CACHE_FILE, newImageProcessor().getConfiguration());
+        Map<TriangleTypes, List<TrianglePrincipalPoints>> trainingData = loadData(DataType.TRAINING, cache);
         writeToCSV(trainingData, TRAINING_CSV);
+        writeFeatures(trainingData, TRAINING_FEATURES);
 
-        Map<TriangleTypes, List<TrianglePrincipalPoints>> classificationData = loadData(DataType.CLASSIFICATION);
+        Map<TriangleTypes, List<TrianglePrincipalPoints>> classificationData = loadData(DataType.CLASSIFICATION, cache);
         writeToCSV(classificationData, CLASSIFICATION_CSV);
+        writeFeatures(classificationData, CLASSIFICATION_FEATURES);
+        cache.save();
     }
 
 
-    private static Map<TriangleTypes, List<TrianglePrincipalPoints>> loadData(DataType dt) {
-        TrainingDataProvider tp = new TrainingDataProvider(new ImageProcessor());
-
-        List<File> eqTriangles = new ArrayList<>();
-        List<File> isoTriangles = new ArrayList<>();
-        List<File> scaTriangles = new ArrayList<>();
+    /**
+     * Gera os mesmos arquivos que {@link #createCSVFiles()}, mas a extração dos pontos é distribuída entre até
+     * {@code workers} processos, um shard de imagens por vez em cada processo. As listas e os resultados de cada shard
+     * ficam em {@link #SHARDS_DIR}, portanto uma execução interrompida pode ser retomada a partir dos shards restantes.
+     */
+    private static void distribute(int workers, int shards) {
+        FeatureCache cache = FeatureCache.load(FEATURE_CACHE_FILE, newImageProcessor().getConfiguration());
+        for (DataType dt : DataType.values()) {
+            ShardCoordinator coordinator = new ShardCoordinator(new File(SHARDS_DIR, dt.name().toLowerCase()), workers,
+                    shards, SHARD_MAX_ATTEMPTS);
+            Map<TriangleTypes, List<TrianglePrincipalPoints>> data = coordinator.processAndGetExamples(imageFiles(dt), cache);
+            writeToCSV(data, dt == DataType.TRAINING ? TRAINING_CSV : CLASSIFICATION_CSV);
+            writeFeatures(data, dt == DataType.TRAINING ? TRAINING_FEATURES : CLASSIFICATION_FEATURES);
+        }
+        cache.save();
+    }
 
-        //carrega todos os arquivos presentes nas pastas de imagens e adiciona em sua respectiva colecao
-        eqTriangles.addAll(Arrays.asList(ResourceLoader.getResources(getTriangleImageOriginDirByType(TriangleTypes.EQUILATERAL, dt))));
-        isoTriangles.addAll(Arrays.asList(ResourceLoader.getResources(getTriangleImageOriginDirByType(TriangleTypes.ISOSCELES, dt))));
-        scaTriangles.addAll(Arrays.asList(ResourceLoader.getResources(getTriangleImageOriginDirByType(TriangleTypes.SCALENE, dt))));
+    private static Map<TriangleTypes, List<TrianglePrincipalPoints>> loadData(DataType dt, FeatureCache cache) {
+        //cada imagem passa por todas as etapas do ImageProcessor de forma independente, uma thread por core
+        TrainingDataProvider tp = new TrainingDataProvider(newImageProcessor(), Runtime.getRuntime().availableProcessors(), cache);
+        return tp.processAndGetExamples(imageFiles(dt), true /*loga ascii art representando os três pontos extraídos das imagens do modo diagnóstico*/);
+    }
 
-        Map<TriangleTypes, List<File>> trainintFiles = new HashMap<>();
-        trainintFiles.put(TriangleTypes.EQUILATERAL, eqTriangles);
-        trainintFiles.put(TriangleTypes.ISOSCELES, isoTriangles);
-        trainintFiles.put(TriangleTypes.SCALENE, scaTriangles);
+    /**
+     * @return todos os arquivos presentes nas pastas de imagens, por tipo, sempre na mesma ordem
+     */
+    private static Map<TriangleTypes, List<File>> imageFiles(DataType dt) {
+        Map<TriangleTypes, List<File>> files = new EnumMap<>(TriangleTypes.class);
+        for (TriangleTypes t : TriangleTypes.values()) {
+            //listFiles não garante nenhuma ordem
+            File[] images = ResourceLoader.getResources(getTriangleImageOriginDirByType(t, dt));
+            Arrays.sort(images);
+            files.put(t, new ArrayList<>(Arrays.asList(images)));
+        }
+        return files;
+    }
 
-        return tp.processAndGetExamples(trainintFiles, true /*loga ascii art representando os três pontos extraídos de cada uma das imagens*/);
+    private static ImageProcessor newImageProcessor() {
+        ImageProcessor processor = new ImageProcessor();
+        //fora do modo diagnóstico nenhuma imagem é selecionada, mesmo que o nível debug seja habilitado no log4j2.xml
+        processor.setDiagnosticImages(diagnosticImages != null ? diagnosticImages : Collections.emptySet());
+        return processor;
     }
 
     public static final File getTriangleImageOutputDirByType(TriangleTypes t) {
@@ -118,6 +498,14 @@ public class Application {
         }
     }
 
+    /**
+     * Grava os exemplos no formato binário lido por {@link NeuralNetwork#train(File)} e {@link NeuralNetwork#predict(File)}
+     * sem conversão de texto, ver {@link FeatureDataFile}.
+     */
+    public static void writeFeatures(Map<TriangleTypes, List<TrianglePrincipalPoints>> data, File dest) {
+        FeatureDataFile.write(data, dest);
+    }
+
     public static void writeToCSV(Map<TriangleTypes, List<TrianglePrincipalPoints>> trainData, File csvDestPath) {
         String[] csvHeaders = new String[]{"p1x", "p1y", "p2x", "p2y", "p3x", "p3y", "type"};
 
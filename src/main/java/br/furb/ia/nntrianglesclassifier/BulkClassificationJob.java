@@ -0,0 +1,513 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Classificação de todas as imagens de um diretório (e dos seus subdiretórios, e.g.:
+ * {@code classification/images}), em estágios ligados por filas limitadas:
+ * <ol>
+ * <li>leitura: uma thread lista os arquivos e lê o conteúdo de cada um para a memória;</li>
+ * <li>extração: um pool de threads extrai os pontos principais de cada imagem
+ * ({@link ImageProcessor#processImage(String, byte[], boolean)});</li>
+ * <li>classificação: uma thread classifica os pontos em lotes ({@link NeuralNetwork#predictBatch(List)}, que não é
+ * thread-safe);</li>
+ * <li>gravação: uma thread grava o resultado de cada imagem em CSV ou, caso o arquivo de saída termine em
+ * {@value #JSONL_EXTENSION}, em JSON (um objeto por linha). Nos dois formatos o tipo é gravado como
+ * {@link TriangleTypes#getCharValue()}, o mesmo valor dos arquivos CSV de treinamento.</li>
+ * </ol>
+ * Quando um estágio fica para trás a fila antes dele enche e o estágio anterior fica bloqueado até ela ter espaço, por
+ * isso a memória utilizada é limitada pela capacidade das filas, independente da quantidade de imagens. As imagens são
+ * gravadas na ordem em que terminam de ser classificadas.
+ * <p>
+ * A cada {@link #CHECKPOINT_INTERVAL} imagens o arquivo de saída é descarregado em disco e o seu tamanho é gravado no
+ * checkpoint ({@code saída.checkpoint}). Caso o job seja interrompido, a próxima execução com o mesmo arquivo de saída
+ * descarta o que foi gravado após o último checkpoint e continua a partir dele, sem processar novamente as imagens já
+ * gravadas. O checkpoint é removido ao término do job. Durante a execução a vazão e a ocupação das filas são logadas
+ * a cada {@link #setReportIntervalMillis(long)}.
+ */
+public class BulkClassificationJob {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    public static final String JSONL_EXTENSION = ".jsonl";
+    public static final int CHECKPOINT_INTERVAL = 500;
+    private static final String[] CSV_HEADERS = {"file", "type", "p1x", "p1y", "p2x", "p2y", "p3x", "p3y"};
+    private static final String JSON_FILE_PREFIX = "{\"file\":\"";
+
+    private final NeuralNetwork nn;
+    private final ImageProcessor imgProcessor;
+    private final int extractors;
+    private final int queueCapacity;
+    private final int batchSize;
+    private long reportIntervalMillis = 5_000;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong extracted = new AtomicLong();
+    private final AtomicLong classified = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Throwable error;
+    private volatile Thread writer;
+
+    /**
+     * Imagem em processamento, repassada de um estágio para o próximo.
+     */
+    private static final class Item {
+        //marca o fim dos itens na fila
+        static final Item END = new Item(null, null);
+
+        final String name;
+        byte[] data;
+        TrianglePrincipalPoints points;
+        TriangleTypes type;
+
+        Item(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * @param extractors    quantidade de threads que extraem os pontos principais das imagens
+     * @param queueCapacity capacidade de cada fila entre os estágios
+     * @param batchSize     quantidade máxima de imagens classificadas em um mesmo lote
+     */
+    public BulkClassificationJob(NeuralNetwork nn, ImageProcessor imgProcessor, int extractors, int queueCapacity, int batchSize) {
+        this.nn = nn;
+        this.imgProcessor = imgProcessor;
+        this.extractors = extractors;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+    }
+
+    public void setReportIntervalMillis(long reportIntervalMillis) {
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    /**
+     * Classifica as imagens do diretório que ainda não constam no arquivo de saída, ver {@link BulkClassificationJob}.
+     *
+     * @return quantidade de imagens classificadas nesta execução, incluindo as que não puderam ser classificadas
+     */
+    public long run(File inputDir, File output) {
+        File checkpoint = new File(output.getAbsolutePath() + ".checkpoint");
+        boolean json = output.getName().endsWith(JSONL_EXTENSION);
+        long offset = resume(output, checkpoint);
+        Set<String> done = offset > 0 ? readDone(output, offset, json) : new HashSet<>();
+        List<Path> files = listFiles(inputDir.toPath(), done);
+        LOGGER.info(files.size() + " imagens a classificar em " + inputDir.getAbsolutePath()
+                + (done.isEmpty() ? "" : " (" + done.size() + " já classificadas)"));
+
+        BlockingQueue<Item> toExtract = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> toClassify = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> toWrite = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger runningExtractors = new AtomicInteger(extractors);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> stage(() -> produce(inputDir.toPath(), files, toExtract)), "bulk-reader"));
+        for (int i = 0; i < extractors; i++) {
+            threads.add(new Thread(() -> stage(() -> extract(toExtract, toClassify, runningExtractors)), "bulk-extractor-" + i));
+        }
+        threads.add(new Thread(() -> stage(() -> classify(toClassify, toWrite)), "bulk-classifier"));
+        writer = new Thread(() -> stage(() -> write(toWrite, output, checkpoint, offset, json)), "bulk-writer");
+        threads.add(writer);
+
+        long init = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulk-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] last = {System.nanoTime(), 0};
+        reporter.scheduleAtFixedRate(() -> report(files.size(), init, last, toExtract, toClassify, toWrite),
+                reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+        try {
+            for (Thread t : threads) {
+                t.start();
+            }
+            writer.join();
+            //o gravador só termina antes dos demais estágios em caso de erro
+            for (Thread t : threads) {
+                t.interrupt();
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Thread t : threads) {
+                t.interrupt();
+            }
+            throw new RuntimeException("Classificação das imagens interrompida, execute novamente para continuar do último checkpoint", e);
+        } finally {
+            reporter.shutdownNow();
+        }
+        if (error != null) {
+            throw new RuntimeException("Classificação das imagens interrompida, execute novamente para continuar do último checkpoint", error);
+        }
+        double seconds = (System.nanoTime() - init) / 1e9;
+        LOGGER.info(String.format(Locale.ROOT, "%d imagens classificadas (%d falhas) em %.1f segundos, %.1f imagens/s. "
+                + "Resultado gravado em %s", written.get(), failures.get(), seconds, written.get() / seconds, output.getAbsolutePath()));
+        return written.get();
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException, IOException;
+    }
+
+    /**
+     * Executa o estágio. Caso ele falhe, interrompe o gravador, que interrompe os demais estágios.
+     */
+    private void stage(Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException | Error e) {
+            LOGGER.error("Falha na thread " + Thread.currentThread().getName(), e);
+            if (error == null) {
+                error = e;
+            }
+            writer.interrupt();
+        }
+    }
+
+    private void produce(Path root, List<Path> files, BlockingQueue<Item> toExtract) throws InterruptedException {
+        for (Path f : files) {
+            if (error != null) {
+                return;
+            }
+            String name = root.relativize(f).toString().replace(File.separatorChar, '/');
+            byte[] data;
+            try {
+                data = Files.readAllBytes(f);
+            } catch (IOException e) {
+                LOGGER.warn("Não foi possível ler a imagem {}: {}", f, e.getMessage());
+                data = null;
+            }
+            read.incrementAndGet();
+            //bloqueia enquanto a fila estiver cheia
+            toExtract.put(new Item(name, data));
+        }
+        for (int i = 0; i < extractors; i++) {
+            toExtract.put(Item.END);
+        }
+    }
+
+    private void extract(BlockingQueue<Item> toExtract, BlockingQueue<Item> toClassify, AtomicInteger running) throws InterruptedException {
+        for (Item item = toExtract.take(); item != Item.END; item = toExtract.take()) {
+            if (item.data != null) {
+                try {
+                    item.points = imgProcessor.processImage(item.name, item.data, false);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Não foi possível processar a imagem {}: {}", item.name, e.getMessage());
+                }
+                //o conteúdo da imagem não é mais necessário
+                item.data = null;
+            }
+            extracted.incrementAndGet();
+            toClassify.put(item);
+        }
+        if (running.decrementAndGet() == 0) {
+            toClassify.put(Item.END);
+        }
+    }
+
+    private void classify(BlockingQueue<Item> toClassify, BlockingQueue<Item> toWrite) throws InterruptedException {
+        List<Item> batch = new ArrayList<>(batchSize);
+        List<TrianglePrincipalPoints> points = new ArrayList<>(batchSize);
+        boolean end = false;
+        while (!end) {
+            //aguarda o primeiro item e classifica junto os que já estiverem na fila
+            batch.add(toClassify.take());
+            toClassify.drainTo(batch, batchSize - 1);
+            if (batch.get(batch.size() - 1) == Item.END) {
+                batch.remove(batch.size() - 1);
+                end = true;
+            }
+            for (Item item : batch) {
+                if (item.points != null) {
+                    points.add(item.points);
+                }
+            }
+            TriangleTypes[] types = points.isEmpty() ? new TriangleTypes[0] : nn.predictBatch(points);
+            int t = 0;
+            for (Item item : batch) {
+                if (item.points != null) {
+                    item.type = types[t++];
+                }
+                classified.incrementAndGet();
+                toWrite.put(item);
+            }
+            batch.clear();
+            points.clear();
+        }
+        toWrite.put(Item.END);
+    }
+
+    private void write(BlockingQueue<Item> toWrite, File output, File checkpoint, long offset, boolean json)
+            throws InterruptedException, IOException {
+        try (FileOutputStream out = new FileOutputStream(output, offset > 0);
+             Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            CSVPrinter csv = json ? null : new CSVPrinter(w, offset > 0 ? CSVFormat.DEFAULT : CSVFormat.DEFAULT.withHeader(CSV_HEADERS));
+            for (Item item = toWrite.take(); item != Item.END; item = toWrite.take()) {
+                if (item.type == null) {
+                    failures.incrementAndGet();
+                }
+                if (json) {
+                    w.write(toJson(item));
+                    w.write('\n');
+                } else {
+                    csv.printRecord(toRecord(item));
+                }
+                if (written.incrementAndGet() % CHECKPOINT_INTERVAL == 0) {
+                    checkpoint(w, out, checkpoint);
+                }
+                if (error != null) {
+                    return;
+                }
+            }
+            w.flush();
+        }
+        Files.deleteIfExists(checkpoint.toPath());
+    }
+
+    /**
+     * Descarrega o arquivo de saída em disco e grava o seu tamanho no checkpoint.
+     */
+    private void checkpoint(Writer w, FileOutputStream out, File checkpoint) throws IOException {
+        w.flush();
+        out.getFD().sync();
+        File tmp = new File(checkpoint.getAbsolutePath() + ".tmp");
+        Files.write(tmp.toPath(), String.valueOf(out.getChannel().position()).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return o tamanho do arquivo de saída no último checkpoint, já truncado para esse tamanho, ou 0 caso não exista
+     * checkpoint (o arquivo de saída é então substituído)
+     */
+    private static long resume(File output, File checkpoint) {
+        if (!checkpoint.exists() || !output.exists()) {
+            return 0;
+        }
+        try {
+            long offset = Long.parseLong(new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8).trim());
+            try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+            }
+            LOGGER.info("Continuando a partir do checkpoint de " + output.getAbsolutePath() + " (" + offset + " bytes)");
+            return offset;
+        } catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("Não foi possível ler o checkpoint " + checkpoint.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return o nome das imagens gravadas nos primeiros {@code offset} bytes do arquivo de saída, lidos linha a linha
+     */
+    private static Set<String> readDone(File output, long offset, boolean json) {
+        Set<String> done = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new BoundedInputStream(Files.newInputStream(output.toPath()), offset), StandardCharsets.UTF_8))) {
+            if (json) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    if (line.startsWith(JSON_FILE_PREFIX)) {
+                        done.add(readJsonString(line, JSON_FILE_PREFIX.length()));
+                    }
+                }
+            } else {
+                try (CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
+                    for (CSVRecord record : parser) {
+                        done.add(record.get(CSV_HEADERS[0]));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler as imagens já classificadas de " + output.getAbsolutePath(), e);
+        }
+        return done;
+    }
+
+    private static List<Path> listFiles(Path root, Set<String> done) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> !done.contains(root.relativize(p).toString().replace(File.separatorChar, '/')))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível listar as imagens de " + root.toAbsolutePath(), e);
+        }
+    }
+
+    private void report(int total, long init, long[] last, BlockingQueue<Item> toExtract, BlockingQueue<Item> toClassify,
+                        BlockingQueue<Item> toWrite) {
+        long now = System.nanoTime();
+        long count = written.get();
+        double rate = (count - last[1]) / ((now - last[0]) / 1e9);
+        double overall = count / ((now - init) / 1e9);
+        last[0] = now;
+        last[1] = count;
+        //uma fila cheia indica que o estágio seguinte é o gargalo
+        LOGGER.info(String.format(Locale.ROOT, "%d de %d imagens classificadas (%.1f%%), %.1f imagens/s (%.1f desde o início). "
+                        + "Lidas %d, extraídas %d, classificadas %d, falhas %d. Filas: extração %d/%d, classificação %d/%d, gravação %d/%d",
+                count, total, total == 0 ? 100d : 100d * count / total, rate, overall, read.get(), extracted.get(),
+                classified.get(), failures.get(), toExtract.size(), queueCapacity, toClassify.size(), queueCapacity,
+                toWrite.size(), queueCapacity));
+    }
+
+    private static List<String> toRecord(Item item) {
+        List<String> record = new ArrayList<>(CSV_HEADERS.length);
+        record.add(item.name);
+        record.add(item.type == null ? "" : String.valueOf(item.type.getCharValue()));
+        if (item.points != null) {
+            for (Pixel p : item.points.pixels()) {
+                record.add(String.valueOf(p.x));
+                record.add(String.valueOf(p.y));
+            }
+        }
+        while (record.size() < CSV_HEADERS.length) {
+            record.add("");
+        }
+        return record;
+    }
+
+    private static String toJson(Item item) {
+        StringBuilder json = new StringBuilder(JSON_FILE_PREFIX);
+        appendJsonString(json, item.name);
+        json.append("\",\"type\":").append(item.type == null ? "null" : "\"" + item.type.getCharValue() + "\"");
+        if (item.points != null) {
+            json.append(",\"points\":[");
+            for (Pixel p : item.points.pixels()) {
+                if (json.charAt(json.length() - 1) != '[') {
+                    json.append(',');
+                }
+                json.append('[').append(p.x).append(',').append(p.y).append(']');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+    }
+
+    /**
+     * Lê a string escrita por {@link #appendJsonString(StringBuilder, String)} a partir da posição informada, até as
+     * aspas que a encerram.
+     */
+    private static String readJsonString(String line, int from) {
+        StringBuilder s = new StringBuilder();
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                break;
+            }
+            if (c == '\\') {
+                c = line.charAt(++i);
+                if (c == 'u') {
+                    c = (char) Integer.parseInt(line.substring(i + 1, i + 5), 16);
+                    i += 4;
+                }
+            }
+            s.append(c);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Lê somente os primeiros bytes do stream, até o limite informado.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
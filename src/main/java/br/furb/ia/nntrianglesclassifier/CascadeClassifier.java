@@ -0,0 +1,125 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classificação em cascata: o {@link GeometricClassifier} responde os triangulos que classifica com pelo menos a
+ * confiança mínima configurada e somente os demais são classificados pela {@link NeuralNetwork}. Mantém a quantidade
+ * de exemplos e o tempo gasto em cada caminho, de onde é estimada a economia em relação a classificar todos os
+ * exemplos pela rede neural.
+ */
+public class CascadeClassifier {
+
+    private final GeometricClassifier geometric;
+    private final double minConfidence;
+    private final AtomicLong geometricCount = new AtomicLong();
+    private final AtomicLong geometricNanos = new AtomicLong();
+    private final AtomicLong networkCount = new AtomicLong();
+    private final AtomicLong networkNanos = new AtomicLong();
+
+    /**
+     * @param minConfidence confiança mínima (ver {@link GeometricClassifier.Result#getConfidence()}) para que a
+     *                      classificação geométrica seja aceita. Com 0 qualquer triangulo não ambíguo é aceito.
+     */
+    public CascadeClassifier(GeometricClassifier geometric, double minConfidence) {
+        this.geometric = geometric;
+        this.minConfidence = minConfidence;
+    }
+
+    /**
+     * Tenta classificar o triangulo pelo caminho geométrico. Pode ser chamado concorrentemente por várias threads.
+     *
+     * @return o tipo do triangulo, ou null caso ele deva ser classificado pela rede neural
+     */
+    public TriangleTypes classifyGeometric(TrianglePrincipalPoints points) {
+        long init = System.nanoTime();
+        GeometricClassifier.Result result = geometric.classify(points);
+        long elapsed = System.nanoTime() - init;
+        if (result.getType() == null || result.getConfidence() < minConfidence) {
+            //o tempo gasto no caminho geométrico também faz parte do caminho da rede neural
+            networkNanos.addAndGet(elapsed);
+            return null;
+        }
+        geometricCount.incrementAndGet();
+        geometricNanos.addAndGet(elapsed);
+        return result.getType();
+    }
+
+    /**
+     * Registra exemplos classificados pela rede neural fora desta classe, e.g.: pelo {@link MicroBatcher}.
+     */
+    public void recordNetwork(int count, long nanos) {
+        networkCount.addAndGet(count);
+        networkNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Classifica o lote, enviando para {@link NeuralNetwork#predictBatch(List)} somente os triangulos que não foram
+     * classificados pelo caminho geométrico. Não é thread-safe, assim como a rede neural.
+     */
+    public TriangleTypes[] classify(List<TrianglePrincipalPoints> points, NeuralNetwork nn) {
+        TriangleTypes[] res = new TriangleTypes[points.size()];
+        List<TrianglePrincipalPoints> pending = new ArrayList<>();
+        List<Integer> pendingIndexes = new ArrayList<>();
+        for (int i = 0; i < res.length; i++) {
+            res[i] = classifyGeometric(points.get(i));
+            if (res[i] == null) {
+                pending.add(points.get(i));
+                pendingIndexes.add(i);
+            }
+        }
+        if (!pending.isEmpty()) {
+            long init = System.nanoTime();
+            TriangleTypes[] predicted = nn.predictBatch(pending);
+            recordNetwork(predicted.length, System.nanoTime() - init);
+            for (int i = 0; i < predicted.length; i++) {
+                res[pendingIndexes.get(i)] = predicted[i];
+            }
+        }
+        return res;
+    }
+
+    public long getGeometricCount() {
+        return geometricCount.get();
+    }
+
+    public long getNetworkCount() {
+        return networkCount.get();
+    }
+
+    /**
+     * @return tempo médio por exemplo do caminho geométrico, em nanossegundos
+     */
+    public double getGeometricNanosPerExample() {
+        long count = geometricCount.get();
+        return count == 0 ? 0 : (double) geometricNanos.get() / count;
+    }
+
+    /**
+     * @return tempo médio por exemplo do caminho da rede neural (incluindo a tentativa geométrica), em nanossegundos
+     */
+    public double getNetworkNanosPerExample() {
+        long count = networkCount.get();
+        return count == 0 ? 0 : (double) networkNanos.get() / count;
+    }
+
+    /**
+     * @return estimativa do tempo economizado pelos exemplos classificados pelo caminho geométrico, em nanossegundos
+     */
+    public double getEstimatedSavingNanos() {
+        return geometricCount.get() * Math.max(0, getNetworkNanosPerExample() - getGeometricNanosPerExample());
+    }
+
+    @Override
+    public String toString() {
+        long geometric = getGeometricCount();
+        long network = getNetworkCount();
+        long total = geometric + network;
+        return "Cascata: " + geometric + " exemplos pelo caminho geométrico (" + (total == 0 ? 0 : 100 * geometric / total)
+                + "%, " + String.format("%.0f", getGeometricNanosPerExample()) + " ns/exemplo), " + network
+                + " pela rede neural (" + String.format("%.0f", getNetworkNanosPerExample()) + " ns/exemplo), economia estimada de "
+                + String.format("%.3f", getEstimatedSavingNanos() / 1_000_000d) + " ms";
+    }
+}
@@ -0,0 +1,253 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ij.ImagePlus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serviço HTTP de classificação de imagens de triangulos, baseado no servidor HTTP embutido na JDK.
+ * <ul>
+ * <li>{@code POST /classify}: o corpo da requisição é a imagem (jpeg, gif ou png), com no máximo
+ * {@link #MAX_REQUEST_BYTES} bytes. A imagem passa pelas etapas do {@link ImageProcessor} e os pontos principais
+ * extraídos são classificados pelo {@link MicroBatcher}, que agrupa as requisições concorrentes em lotes. Responde um
+ * JSON com o tipo do triangulo e os pontos principais.</li>
+ * <li>{@code GET /stats}: JSON com os percentis de latência das classificações desde o início do serviço
+ * ({@link StageMetrics}), a quantidade de exemplos aguardando classificação e o tamanho médio dos lotes. No modo
+ * cascata também a quantidade de exemplos e a latência de cada caminho e a economia de latência estimada.</li>
+ * </ul>
+ * No modo cascata os pontos principais passam antes pelo {@link CascadeClassifier}, e somente os triangulos ambíguos
+ * aguardam o lote da rede neural.
+ */
+public class ClassificationServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * Tamanho máximo do corpo das requisições, requisições maiores são respondidas com 413 sem serem lidas por
+     * completo.
+     */
+    public static final int MAX_REQUEST_BYTES = 8 * 1024 * 1024;
+    /**
+     * Tempo máximo de espera pela classificação do lote, após o qual a requisição é respondida com 503.
+     */
+    public static final long CLASSIFY_TIMEOUT_MILLIS = 10_000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MicroBatcher batcher;
+    private final ImageProcessor imgProcessor = new ImageProcessor();
+    //mesmo histograma das etapas do pré-processamento, as falhas são contadas em latencies
+    private final StageMetrics latencies = new StageMetrics();
+    private final CascadeClassifier cascade;
+    private final StageMetrics geometricLatencies = new StageMetrics();
+    private final StageMetrics networkLatencies = new StageMetrics();
+
+    /**
+     * Aceita somente conexões locais (loopback), ver
+     * {@link #ClassificationServer(NeuralNetwork, InetSocketAddress, int, int, long, CascadeClassifier)} para
+     * aceitar conexões de outras máquinas.
+     *
+     * @param port          porta HTTP, 0 para utilizar uma porta livre qualquer
+     * @param threads       quantidade de threads que processam as requisições (e as imagens)
+     * @param maxBatchSize  ver {@link MicroBatcher#MicroBatcher(NeuralNetwork, int, long)}
+     * @param maxWaitMillis ver {@link MicroBatcher#MicroBatcher(NeuralNetwork, int, long)}
+     */
+    public ClassificationServer(NeuralNetwork nn, int port, int threads, int maxBatchSize, long maxWaitMillis) throws IOException {
+        this(nn, port, threads, maxBatchSize, maxWaitMillis, null);
+    }
+
+    /**
+     * Aceita somente conexões locais (loopback).
+     *
+     * @param cascade classificador em cascata, ou null para classificar todos os exemplos pela rede neural
+     */
+    public ClassificationServer(NeuralNetwork nn, int port, int threads, int maxBatchSize, long maxWaitMillis,
+                                CascadeClassifier cascade) throws IOException {
+        this(nn, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads, maxBatchSize, maxWaitMillis, cascade);
+    }
+
+    /**
+     * @param address endereço e porta em que o serviço aceita conexões, e.g.: {@code new InetSocketAddress(8080)} para
+     *                todas as interfaces de rede
+     */
+    public ClassificationServer(NeuralNetwork nn, InetSocketAddress address, int threads, int maxBatchSize,
+                                long maxWaitMillis, CascadeClassifier cascade) throws IOException {
+        this.cascade = cascade;
+        this.batcher = new MicroBatcher(nn, maxBatchSize, maxWaitMillis);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/classify", this::handleClassify);
+        this.server.createContext("/stats", this::handleStats);
+    }
+
+    public void start() {
+        server.start();
+        InetSocketAddress address = server.getAddress();
+        LOGGER.info("Serviço de classificação disponível em http://" + address.getAddress().getHostAddress() + ":"
+                + address.getPort() + "/classify");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleClassify(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "{\"error\":\"Utilize POST com a imagem no corpo da requisição\"}");
+            return;
+        }
+        long init = System.nanoTime();
+        try {
+            String imageName = "requisicao-" + exchange.getRemoteAddress();
+            byte[] data;
+            try (InputStream in = exchange.getRequestBody()) {
+                data = contentLength(exchange) > MAX_REQUEST_BYTES ? null : readFully(in, MAX_REQUEST_BYTES);
+            }
+            if (data == null) {
+                latencies.failure();
+                respond(exchange, 413, "{\"error\":\"Imagem maior que " + MAX_REQUEST_BYTES + " bytes\"}");
+                return;
+            }
+            ImagePlus img = imgProcessor.openImage(imageName, data);
+            if (img == null) {
+                latencies.failure();
+                respond(exchange, 400, "{\"error\":\"Formato de imagem não suportado\"}");
+                return;
+            }
+            TrianglePrincipalPoints points = imgProcessor.processImage(img, imageName, null, false);
+            if (points == null) {
+                latencies.failure();
+                respond(exchange, 422, "{\"error\":\"Não foi possível extrair os pontos principais da imagem\"}");
+                return;
+            }
+            TriangleTypes type = cascade != null ? cascade.classifyGeometric(points) : null;
+            if (type != null) {
+                geometricLatencies.record(System.nanoTime() - init);
+            } else {
+                long networkInit = System.nanoTime();
+                CompletableFuture<TriangleTypes> result = batcher.submit(points);
+                try {
+                    type = result.get(CLASSIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    //o exemplo ainda pode ser classificado, mas o resultado é descartado
+                    result.cancel(false);
+                    LOGGER.warn("Classificação não concluída em " + CLASSIFY_TIMEOUT_MILLIS + " ms, "
+                            + batcher.getQueueDepth() + " exemplos aguardando classificação");
+                    latencies.failure();
+                    respond(exchange, 503, "{\"error\":\"Classificação não concluída a tempo\"}");
+                    return;
+                }
+                if (cascade != null) {
+                    cascade.recordNetwork(1, System.nanoTime() - networkInit);
+                    networkLatencies.record(System.nanoTime() - init);
+                }
+            }
+            latencies.record(System.nanoTime() - init);
+            respond(exchange, 200, toJson(type, points));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            latencies.failure();
+            respond(exchange, 503, "{\"error\":\"Classificação interrompida\"}");
+        } catch (ExecutionException | RuntimeException e) {
+            LOGGER.error("Não foi possível classificar a imagem recebida", e);
+            latencies.failure();
+            respond(exchange, 500, "{\"error\":\"Não foi possível classificar a imagem\"}");
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        long batches = batcher.getBatchCount();
+        String json = String.format(Locale.ROOT, "{\"classified\":%d,\"failures\":%d,\"queueDepth\":%d,\"batches\":%d,"
+                        + "\"averageBatchSize\":%.2f,\"latencyMillis\":{\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}}",
+                latencies.getCount(), latencies.getFailures(), batcher.getQueueDepth(), batches,
+                batches == 0 ? 0d : (double) batcher.getClassifiedCount() / batches, latencies.getP50Millis(),
+                latencies.getP90Millis(), latencies.getP99Millis(), latencies.getMaxMillis());
+        if (cascade != null) {
+            //cada exemplo do caminho geométrico economiza a diferença entre as latências médias dos dois caminhos
+            double saving = geometricLatencies.getCount()
+                    * Math.max(0, networkLatencies.getMeanMillis() - geometricLatencies.getMeanMillis());
+            json = json.substring(0, json.length() - 1) + String.format(Locale.ROOT, ",\"cascade\":{\"geometric\":%d,"
+                            + "\"network\":%d,\"geometricLatencyMillis\":{\"p50\":%.3f,\"p99\":%.3f},"
+                            + "\"networkLatencyMillis\":{\"p50\":%.3f,\"p99\":%.3f},\"estimatedSavingMillis\":%.3f}}",
+                    geometricLatencies.getCount(), networkLatencies.getCount(), geometricLatencies.getP50Millis(),
+                    geometricLatencies.getP99Millis(), networkLatencies.getP50Millis(), networkLatencies.getP99Millis(),
+                    saving);
+        }
+        respond(exchange, 200, json);
+    }
+
+    /**
+     * @return o valor do cabeçalho Content-Length, ou -1 caso não tenha sido informado (e.g.: chunked) ou seja inválido
+     */
+    private static long contentLength(HttpExchange exchange) {
+        String value = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return o conteúdo lido, ou null caso ultrapasse {@code maxBytes}; o Content-Length não é confiável, portanto os
+     * bytes são contados durante a leitura
+     */
+    private static byte[] readFully(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            if (res.size() + n > maxBytes) {
+                return null;
+            }
+            res.write(buffer, 0, n);
+        }
+        return res.toByteArray();
+    }
+
+    private static String toJson(TriangleTypes type, TrianglePrincipalPoints points) {
+        StringBuilder json = new StringBuilder("{\"type\":\"").append(type).append("\",\"points\":[");
+        for (Pixel p : points.pixels()) {
+            if (json.charAt(json.length() - 1) != '[') {
+                json.append(',');
+            }
+            json.append('[').append(p.x).append(',').append(p.y).append(']');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        batcher.close();
+    }
+}
@@ -0,0 +1,148 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extrai os vertices candidatos do triangulo a partir dos pontos extremos calculados por {@link EdgePixels}: os
+ * pixels de menor/maior y nas colunas minX/maxX e de menor/maior x nas linhas minY/maxY. Como esses pontos já são
+ * obtidos durante a varredura da imagem, nenhuma lista de pixels precisa ser filtrada ou ordenada.
+ * <p>
+ * Em seguida os candidatos próximos entre si são unidos até restarem 3 pontos. A tolerância de distância começa em 3%
+ * das dimensões da imagem e cresce 1% por iteração; as iterações em que nenhum par de pontos está dentro da tolerância
+ * são puladas, de modo que só é feita uma passada sobre os pontos para cada remoção (no máximo 5, pois há no máximo 8
+ * candidatos).
+ */
+public class CornerExtractor {
+
+    private static final int WHITE_PIXEL_VAL = 255;
+    private static final double INITIAL_TOLERANCE_PERCENTAGE = 0.03;
+    private static final double TOLERANCE_PERCENTAGE_STEP = 0.01;
+
+    private CornerExtractor() {
+    }
+
+    /**
+     * @param edges  pixels de contorno da imagem
+     * @param width  largura da imagem
+     * @param height altura da imagem
+     * @return os pontos restantes após a união dos candidatos próximos, normalmente 3
+     * @throws ImageIncompatibleException caso a imagem não possua pixels de contorno
+     */
+    public static List<Pixel> extract(EdgePixels edges, int width, int height) {
+        BBox bbox = edges.getBoundingBox();
+        Set<Pixel> extractedPoints = new HashSet<>();
+        int tolerance = getDistanceTolerance(width, height, INITIAL_TOLERANCE_PERCENTAGE);
+
+        Pixel maxXmaxYPixel = new Pixel(bbox.getMaxX(), edges.getMaxXMaxY(), WHITE_PIXEL_VAL);
+        extractedPoints.add(maxXmaxYPixel);
+        Pixel maxXminYPixel = new Pixel(bbox.getMaxX(), edges.getMaxXMinY(), WHITE_PIXEL_VAL);
+        if (getDistance(maxXmaxYPixel, maxXminYPixel) > tolerance) {
+            extractedPoints.add(maxXminYPixel);
+        }
+
+        Pixel minXmaxYPixel = new Pixel(bbox.getMinX(), edges.getMinXMaxY(), WHITE_PIXEL_VAL);
+        extractedPoints.add(minXmaxYPixel);
+        Pixel minXminYPixel = new Pixel(bbox.getMinX(), edges.getMinXMinY(), WHITE_PIXEL_VAL);
+        if (getDistance(minXmaxYPixel, minXminYPixel) > tolerance) {
+            extractedPoints.add(minXminYPixel);
+        }
+
+        Pixel maxYmaxXPixel = new Pixel(edges.getMaxYMaxX(), bbox.getMaxY(), WHITE_PIXEL_VAL);
+        if (getDistance(maxYmaxXPixel, maxXmaxYPixel) > tolerance) {
+            extractedPoints.add(maxYmaxXPixel);
+        }
+        Pixel maxYminXPixel = new Pixel(edges.getMaxYMinX(), bbox.getMaxY(), WHITE_PIXEL_VAL);
+        if (getDistance(maxYmaxXPixel, maxYminXPixel) > tolerance && getDistance(minXmaxYPixel, maxYminXPixel) > tolerance) {
+            extractedPoints.add(maxYminXPixel);
+        }
+
+        Pixel minYmaxXPixel = new Pixel(edges.getMinYMaxX(), bbox.getMinY(), WHITE_PIXEL_VAL);
+        if (getDistance(minYmaxXPixel, maxXminYPixel) > tolerance) {
+            extractedPoints.add(minYmaxXPixel);
+        }
+        Pixel minYminXPixel = new Pixel(edges.getMinYMinX(), bbox.getMinY(), WHITE_PIXEL_VAL);
+        if (getDistance(minYmaxXPixel, minYminXPixel) > tolerance && getDistance(minYminXPixel, minXminYPixel) > tolerance) {
+            extractedPoints.add(minYminXPixel);
+        }
+
+        return mergeNearPoints(new ArrayList<>(extractedPoints), width, height);
+    }
+
+    /**
+     * Remove os pares proximos de pontos até restarem 3 pontos.
+     */
+    private static List<Pixel> mergeNearPoints(List<Pixel> points, int width, int height) {
+        int n = points.size();
+        if (n <= 3) {
+            return points;
+        }
+
+        int[][] distances = new int[n][n];
+        for (int u = 0; u < n; u++) {
+            for (int q = 0; q < n; q++) {
+                distances[u][q] = getDistance(points.get(u), points.get(q));
+            }
+        }
+
+        boolean[] removed = new boolean[n];
+        int remaining = n;
+        double tolerancePercentage = INITIAL_TOLERANCE_PERCENTAGE;
+        while (remaining > 3) {
+            //menor distancia de um ponto qualquer até um ponto ainda não removido
+            int minDistance = Integer.MAX_VALUE;
+            for (int u = 0; u < n; u++) {
+                for (int q = 0; q < n; q++) {
+                    if (u != q && !removed[q]) {
+                        minDistance = Math.min(minDistance, distances[u][q]);
+                    }
+                }
+            }
+
+            //pula as iterações em que nenhum ponto seria removido, mantendo a mesma sequencia de tolerancias
+            int tolerance = getDistanceTolerance(width, height, tolerancePercentage);
+            while (tolerance < minDistance) {
+                tolerancePercentage += TOLERANCE_PERCENTAGE_STEP;
+                tolerance = getDistanceTolerance(width, height, tolerancePercentage);
+            }
+
+            for (int u = 0; u < n && remaining > 3; u++) {
+                for (int q = 0; q < n && remaining > 3; q++) {
+                    if (u != q && !removed[q] && distances[u][q] <= tolerance) {
+                        removed[q] = true;
+                        remaining--;
+                    }
+                }
+            }
+
+            tolerancePercentage += TOLERANCE_PERCENTAGE_STEP;
+        }
+
+        List<Pixel> res = new ArrayList<>(remaining);
+        for (int i = 0; i < n; i++) {
+            if (!removed[i]) {
+                res.add(points.get(i));
+            }
+        }
+        return res;
+    }
+
+    private static int getDistanceTolerance(int width, int height, double tolerancePercentage) {
+        int toleranceX = (int) (width * tolerancePercentage);
+        int toleranceY = (int) (height * tolerancePercentage);
+        return toleranceX + toleranceY;
+    }
+
+    /**
+     * Calcula a distancia entre dois pixels
+     */
+    private static int getDistance(Pixel p1, Pixel p2) {
+        int dx = p1.x - p2.x;
+        int dy = p1.y - p2.y;
+        int distance = dx + dy;
+
+        return Math.abs(distance);
+    }
+}
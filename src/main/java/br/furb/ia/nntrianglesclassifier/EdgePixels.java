@@ -0,0 +1,242 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import ij.process.ByteProcessor;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto dos pixels de contorno (pixels brancos) de uma imagem, representado sem a criação de um objeto por pixel:
+ * as coordenadas ficam empacotadas ({@code x << 16 | y}) em um buffer {@code int[]} que é reaproveitado a cada nova
+ * varredura. Na mesma varredura (linha a linha, direto no array de pixels) também são calculados a bounding box e os
+ * pontos extremos usados na extração dos pontos principais do triangulo.
+ */
+public class EdgePixels {
+
+    private static final int WHITE_PIXEL_VAL = 255;
+    //(int) Math.sqrt(s) >= 255, sem a raiz
+    private static final int MIN_EDGE_MAGNITUDE_SQUARED = WHITE_PIXEL_VAL * WHITE_PIXEL_VAL;
+    private static final ThreadLocal<EdgePixels> PER_THREAD = ThreadLocal.withInitial(EdgePixels::new);
+
+    private int[] coords = new int[4096];
+    private int size;
+
+    private int minX;
+    private int maxX;
+    private int minY;
+    private int maxY;
+
+    //y minimo e maximo entre os pixels da coluna minX/maxX e x minimo e maximo entre os pixels da linha minY/maxY
+    private int minXMinY;
+    private int minXMaxY;
+    private int maxXMinY;
+    private int maxXMaxY;
+    private int minYMinX;
+    private int minYMaxX;
+    private int maxYMinX;
+    private int maxYMaxX;
+
+    /**
+     * @return a instância reaproveitada pela thread atual. Seu conteúdo é sobrescrito na próxima varredura feita pela
+     * mesma thread.
+     */
+    public static EdgePixels forCurrentThread() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * Varre a imagem e substitui o conteúdo desta instância pelos pixels de contorno encontrados.
+     *
+     * @return esta instância
+     */
+    public EdgePixels scan(ij.process.ImageProcessor p) {
+        size = 0;
+        int width = p.getWidth();
+        int height = p.getHeight();
+        if (p instanceof ByteProcessor) {
+            byte[] pixels = (byte[]) p.getPixels();
+            byte white = (byte) WHITE_PIXEL_VAL;
+            for (int y = 0, offset = 0; y < height; y++, offset += width) {
+                for (int x = 0; x < width; x++) {
+                    if (pixels[offset + x] == white) {
+                        add(x, y);
+                    }
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (p.get(x, y) == WHITE_PIXEL_VAL) {
+                        add(x, y);
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Mesmo resultado de {@link #scan(ij.process.ImageProcessor)} sobre a imagem resultante de
+     * {@code ImageProcessor.findEdges()}, mas calculado direto da imagem em tons de cinza e sem gerar a imagem de
+     * contornos: o filtro Sobel 3x3 do ImageJ é aplicado a cada pixel (com os pixels de fora da imagem substituídos pelos
+     * da borda mais próxima, como em {@code ByteProcessor.filterEdge}) e somente os pixels cuja magnitude satura em 255
+     * são adicionados.
+     *
+     * @param gray pixels 8-bit da imagem, linha a linha
+     * @return esta instância
+     */
+    public EdgePixels scanEdges(byte[] gray, int width, int height) {
+        size = 0;
+        for (int y = 0; y < height; y++) {
+            int up = (y > 0 ? y - 1 : y) * width;
+            int row = y * width;
+            int down = (y < height - 1 ? y + 1 : y) * width;
+            //colunas x - 1 (p1, p4, p7) e x (p2, p5, p8) da janela 3x3, começando com a borda replicada
+            int p1 = gray[up] & 0xff;
+            int p4 = gray[row] & 0xff;
+            int p7 = gray[down] & 0xff;
+            int p2 = p1;
+            int p5 = p4;
+            int p8 = p7;
+            for (int x = 0, last = width - 1; x <= last; x++) {
+                int right = x < last ? x + 1 : x;
+                int p3 = gray[up + right] & 0xff;
+                int p6 = gray[row + right] & 0xff;
+                int p9 = gray[down + right] & 0xff;
+                int sum1 = p1 + 2 * p2 + p3 - p7 - 2 * p8 - p9;
+                int sum2 = p1 + 2 * p4 + p7 - p3 - 2 * p6 - p9;
+                if (sum1 * sum1 + sum2 * sum2 >= MIN_EDGE_MAGNITUDE_SQUARED) {
+                    add(x, y);
+                }
+                p1 = p2;
+                p2 = p3;
+                p4 = p5;
+                p5 = p6;
+                p7 = p8;
+                p8 = p9;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Mantém somente os pixels contidos no retângulo informado, transladando-os para o sistema de coordenadas da imagem
+     * recortada, como se a imagem resultante de {@code ImageProcessor.crop()} tivesse sido varrida novamente.
+     *
+     * @return esta instância
+     */
+    public EdgePixels crop(int roiX, int roiY, int roiWidth, int roiHeight) {
+        int previousSize = size;
+        size = 0;
+        //a escrita (indice size) nunca ultrapassa a leitura (indice i), por isso o filtro pode ser feito no proprio buffer
+        for (int i = 0; i < previousSize; i++) {
+            int x = (coords[i] >>> 16) - roiX;
+            int y = (coords[i] & 0xFFFF) - roiY;
+            if (x >= 0 && y >= 0 && x < roiWidth && y < roiHeight) {
+                add(x, y);
+            }
+        }
+        return this;
+    }
+
+    private void add(int x, int y) {
+        if (size == coords.length) {
+            coords = Arrays.copyOf(coords, size * 2);
+        }
+        coords[size] = (x << 16) | y;
+
+        if (size++ == 0) {
+            minX = maxX = x;
+            minY = maxY = y;
+            minXMinY = minXMaxY = maxXMinY = maxXMaxY = y;
+            minYMinX = minYMaxX = maxYMinX = maxYMaxX = x;
+            return;
+        }
+
+        if (x < minX) {
+            minX = x;
+            minXMinY = minXMaxY = y;
+        } else if (x == minX) {
+            minXMinY = Math.min(minXMinY, y);
+            minXMaxY = Math.max(minXMaxY, y);
+        }
+        if (x > maxX) {
+            maxX = x;
+            maxXMinY = maxXMaxY = y;
+        } else if (x == maxX) {
+            maxXMinY = Math.min(maxXMinY, y);
+            maxXMaxY = Math.max(maxXMaxY, y);
+        }
+        if (y < minY) {
+            minY = y;
+            minYMinX = minYMaxX = x;
+        } else if (y == minY) {
+            minYMinX = Math.min(minYMinX, x);
+            minYMaxX = Math.max(minYMaxX, x);
+        }
+        if (y > maxY) {
+            maxY = y;
+            maxYMinX = maxYMaxX = x;
+        } else if (y == maxY) {
+            maxYMinX = Math.min(maxYMinX, x);
+            maxYMaxX = Math.max(maxYMaxX, x);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getX(int i) {
+        return coords[i] >>> 16;
+    }
+
+    public int getY(int i) {
+        return coords[i] & 0xFFFF;
+    }
+
+    /**
+     * @throws ImageIncompatibleException caso a imagem não possua pixels de contorno
+     */
+    public BBox getBoundingBox() {
+        if (size == 0) {
+            throw new ImageIncompatibleException();
+        }
+        return new BBox(maxX, minX, maxY, minY);
+    }
+
+    public int getMinXMinY() {
+        return minXMinY;
+    }
+
+    public int getMinXMaxY() {
+        return minXMaxY;
+    }
+
+    public int getMaxXMinY() {
+        return maxXMinY;
+    }
+
+    public int getMaxXMaxY() {
+        return maxXMaxY;
+    }
+
+    public int getMinYMinX() {
+        return minYMinX;
+    }
+
+    public int getMinYMaxX() {
+        return minYMaxX;
+    }
+
+    public int getMaxYMinX() {
+        return maxYMinX;
+    }
+
+    public int getMaxYMaxX() {
+        return maxYMaxX;
+    }
+}
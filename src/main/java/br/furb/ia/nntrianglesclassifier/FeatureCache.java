@@ -0,0 +1,237 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Cache em disco dos pontos principais extraídos de cada imagem, indexado pelo hash SHA-256 do conteúdo do arquivo.
+ * Permite que a geração dos arquivos CSV seja incremental: somente as imagens novas ou alteradas passam pelo
+ * {@link ImageProcessor}, as demais têm seus pontos lidos do cache. Imagens das quais não foi possível extrair os
+ * pontos também ficam registradas, para não serem processadas novamente.
+ * <p>
+ * O arquivo guarda a versão do pré-processamento ({@link ImageProcessor#FEATURES_VERSION}) e a configuração da
+ * decodificação das imagens ({@link ImageProcessor#getConfiguration()}); um cache gerado por outra versão ou com outra
+ * configuração (e.g.: imagens reduzidas por {@link ImageIOSource#setTargetWidth(int)}) é descartado por completo.
+ */
+public class FeatureCache {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    //NNFK, a versão anterior (NNFC) não guardava a configuração; NNFD é o FeatureDataFile
+    private static final int CACHE_FILE_MAGIC = 0x4E4E464B;
+    private static final int[] NO_POINTS = new int[0];
+
+    private final File file;
+    private final String configuration;
+    //x, y e val dos 3 pontos principais, ou NO_POINTS caso não tenha sido possível extraí-los
+    private final Map<String, int[]> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private FeatureCache(File file, String configuration) {
+        this.file = file;
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param configuration configuração do {@link ImageProcessor} que extrai os pontos das imagens, ver
+     *                      {@link ImageProcessor#getConfiguration()}
+     * @return o cache salvo no arquivo informado, ou um cache vazio caso o arquivo não exista ou tenha sido gerado por
+     * outra versão do pré-processamento ou com outra configuração
+     */
+    public static FeatureCache load(File file, String configuration) {
+        FeatureCache cache = new FeatureCache(file, configuration);
+        if (!file.exists()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CACHE_FILE_MAGIC || in.readInt() != ImageProcessor.FEATURES_VERSION) {
+                LOGGER.info("Cache de características " + file + " gerado por outra versão do pré-processamento, descartando...");
+                return cache;
+            }
+            String fileConfiguration = in.readUTF();
+            if (!configuration.equals(fileConfiguration)) {
+                LOGGER.info("Cache de características " + file + " gerado com outra configuração (" + fileConfiguration
+                        + ", atual " + configuration + "), descartando...");
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String hash = in.readUTF();
+                int[] values = new int[in.readUnsignedByte()];
+                for (int v = 0; v < values.length; v++) {
+                    values[v] = in.readInt();
+                }
+                cache.entries.put(hash, values.length == 0 ? NO_POINTS : values);
+            }
+            LOGGER.info(count + " imagens carregadas do cache de características " + file);
+        } catch (IOException e) {
+            LOGGER.warn("Não foi possível ler o cache de características " + file + ", todas as imagens serão processadas", e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Retorna os pontos principais da imagem presentes no cache ou, caso a imagem não esteja no cache, os extrai
+     * através do extrator informado e os adiciona ao cache. Pode ser chamado concorrentemente por várias threads.
+     * <p>
+     * O arquivo é lido uma única vez: o conteúdo utilizado no hash é o mesmo entregue ao extrator, e.g.:
+     * {@link ImageProcessor#processImage(String, byte[], File, boolean)}.
+     *
+     * @param extractor extrai os pontos principais do conteúdo da imagem (nome do arquivo e conteúdo), retornando null
+     *                  caso não seja possível
+     */
+    public TrianglePrincipalPoints getOrExtract(File image, BiFunction<String, byte[], TrianglePrincipalPoints> extractor) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(image.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler o arquivo " + image.getAbsolutePath(), e);
+        }
+        return getOrExtract(hash(data), () -> extractor.apply(image.getName(), data));
+    }
+
+    /**
+     * Mesmo que {@link #getOrExtract(File, BiFunction)} para uma imagem cujo hash já foi calculado
+     * ({@link #hash(byte[])}), e.g.: a partir do conteúdo já lido em memória.
+     */
+    public TrianglePrincipalPoints getOrExtract(String hash, Supplier<TrianglePrincipalPoints> extractor) {
+        int[] values = entries.get(hash);
+        if (values != null) {
+            hits.incrementAndGet();
+            return toPrincipalPoints(values);
+        }
+        misses.incrementAndGet();
+        TrianglePrincipalPoints points = extractor.get();
+        entries.put(hash, toValues(points));
+        return points;
+    }
+
+    /**
+     * @return true caso a imagem com o hash informado esteja no cache, inclusive as imagens das quais não foi possível
+     * extrair os pontos
+     */
+    public boolean contains(String hash) {
+        return entries.containsKey(hash);
+    }
+
+    /**
+     * @return os pontos principais da imagem com o hash informado, ou null caso a imagem não esteja no cache ou não
+     * tenha sido possível extraí-los, ver {@link #contains(String)}
+     */
+    public TrianglePrincipalPoints get(String hash) {
+        int[] values = entries.get(hash);
+        return values == null ? null : toPrincipalPoints(values);
+    }
+
+    /**
+     * Adiciona ao cache os pontos de todas as imagens do outro cache, e.g.: gerado por outro processo.
+     */
+    public void putAll(FeatureCache other) {
+        if (!configuration.equals(other.configuration)) {
+            throw new IllegalArgumentException("Caches de características com configurações diferentes: " + configuration
+                    + " e " + other.configuration);
+        }
+        entries.putAll(other.entries);
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return quantidade de imagens presentes no cache
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Grava o cache no arquivo de origem. O arquivo é substituído somente após ter sido escrito por completo.
+     */
+    public void save() {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CACHE_FILE_MAGIC);
+            out.writeInt(ImageProcessor.FEATURES_VERSION);
+            out.writeUTF(configuration);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, int[]> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeByte(e.getValue().length);
+                for (int v : e.getValue()) {
+                    out.writeInt(v);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível salvar o cache de características em " + file.getAbsolutePath(), e);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível salvar o cache de características em " + file.getAbsolutePath(), e);
+        }
+        LOGGER.info(entries.size() + " imagens salvas no cache de características " + file + " (" + hits + " encontradas no cache, "
+                + misses + " processadas)");
+    }
+
+    private static TrianglePrincipalPoints toPrincipalPoints(int[] values) {
+        if (values.length == 0) {
+            return null;
+        }
+        TrianglePrincipalPoints points = new TrianglePrincipalPoints();
+        for (int i = 0; i < values.length; i += 3) {
+            points.addPixel(new Pixel(values[i], values[i + 1], values[i + 2]));
+        }
+        return points;
+    }
+
+    private static int[] toValues(TrianglePrincipalPoints points) {
+        if (points == null) {
+            return NO_POINTS;
+        }
+        int[] values = new int[9];
+        int i = 0;
+        for (Pixel p : points.pixels()) {
+            values[i++] = p.x;
+            values[i++] = p.y;
+            values[i++] = p.val;
+        }
+        return values;
+    }
+
+    /**
+     * @return o hash SHA-256 do conteúdo, em hexadecimal
+     */
+    static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
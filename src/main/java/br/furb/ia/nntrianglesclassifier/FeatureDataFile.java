@@ -0,0 +1,448 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arquivo binário colunar com os pontos principais ({@code p1x..p3y}) e o tipo de cada exemplo, alternativa aos arquivos
+ * CSV que não precisa ser convertida de texto nem analisada a cada execução. Layout (big-endian):
+ * <pre>
+ * int    magic
+ * int    versão do formato
+ * int    quantidade de linhas
+ * int    offset dos dados (múltiplo de 8)
+ * int    quantidade de colunas de entrada, para cada uma: nome (UTF), low, high, mean e sd (double)
+ * UTF    nome da coluna de saída, seguido da quantidade de classes (int) e do rótulo de cada classe (UTF)
+ * int[]  a partir do offset dos dados, uma coluna por entrada com os valores de todas as linhas
+ * byte[] índice da classe de cada linha
+ * </pre>
+ * As estatísticas do cabeçalho são calculadas da mesma forma e na mesma ordem de linhas que
+ * {@code VersatileMLDataSet.analyze()}, e as classes na ordem em que aparecem, portanto a normalização (e o modelo
+ * treinado) é idêntica à obtida a partir do CSV equivalente. A leitura mapeia o arquivo em memória através de
+ * {@link FileChannel#map} e os valores são lidos diretamente do mapeamento, sem cópias.
+ */
+public class FeatureDataFile {
+
+    public static final String EXTENSION = ".features";
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    //NNFD
+    private static final int FILE_MAGIC = 0x4E4E4644;
+    private static final int FILE_VERSION = 1;
+    private static final int FIXED_HEADER_BYTES = 16;
+    private static final String[] INPUT_COLUMNS = {"p1x", "p1y", "p2x", "p2y", "p3x", "p3y"};
+    private static final String OUTPUT_COLUMN = "type";
+
+    private final int rows;
+    private final String[] inputNames;
+    private final double[] low;
+    private final double[] high;
+    private final double[] mean;
+    private final double[] sd;
+    private final String outputName;
+    private final List<String> classes;
+    private final IntBuffer[] columns;
+    private final ByteBuffer classIndexes;
+
+    private FeatureDataFile(int rows, String[] inputNames, double[] low, double[] high, double[] mean, double[] sd,
+                            String outputName, List<String> classes, IntBuffer[] columns, ByteBuffer classIndexes) {
+        this.rows = rows;
+        this.inputNames = inputNames;
+        this.low = low;
+        this.high = high;
+        this.mean = mean;
+        this.sd = sd;
+        this.outputName = outputName;
+        this.classes = classes;
+        this.columns = columns;
+        this.classIndexes = classIndexes;
+    }
+
+    public static boolean isFeatureFile(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Mapeia o arquivo em memória. Somente o cabeçalho é lido, os valores são acessados sob demanda.
+     */
+    public static FeatureDataFile open(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            //o mapeamento continua válido depois que o canal é fechado
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION) {
+                throw new IOException("Formato de arquivo de características desconhecido");
+            }
+            int rows = buffer.getInt(8);
+            int dataOffset = buffer.getInt(12);
+
+            byte[] header = new byte[dataOffset - FIXED_HEADER_BYTES];
+            ((ByteBuffer) buffer.duplicate().position(FIXED_HEADER_BYTES)).get(header);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            int inputCount = in.readInt();
+            String[] inputNames = new String[inputCount];
+            double[] low = new double[inputCount];
+            double[] high = new double[inputCount];
+            double[] mean = new double[inputCount];
+            double[] sd = new double[inputCount];
+            for (int c = 0; c < inputCount; c++) {
+                inputNames[c] = in.readUTF();
+                low[c] = in.readDouble();
+                high[c] = in.readDouble();
+                mean[c] = in.readDouble();
+                sd[c] = in.readDouble();
+            }
+            String outputName = in.readUTF();
+            List<String> classes = new ArrayList<>();
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                classes.add(in.readUTF());
+            }
+
+            IntBuffer[] columns = new IntBuffer[inputCount];
+            for (int c = 0; c < inputCount; c++) {
+                columns[c] = slice(buffer, dataOffset + c * rows * Integer.BYTES, rows * Integer.BYTES).asIntBuffer();
+            }
+            ByteBuffer classIndexes = slice(buffer, dataOffset + inputCount * rows * Integer.BYTES, rows);
+            return new FeatureDataFile(rows, inputNames, low, high, mean, sd, outputName,
+                    Collections.unmodifiableList(classes), columns, classIndexes);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível abrir o arquivo de características " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Grava os exemplos na mesma ordem de linhas de {@link Application#writeToCSV(Map, File)}.
+     */
+    public static void write(Map<TriangleTypes, List<TrianglePrincipalPoints>> data, File dest) {
+        try (Writer writer = writer(dest)) {
+            for (Map.Entry<TriangleTypes, List<TrianglePrincipalPoints>> e : data.entrySet()) {
+                for (TrianglePrincipalPoints p : e.getValue()) {
+                    writer.add(e.getKey(), p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converte um arquivo CSV gerado por {@link Application#writeToCSV(Map, File)}, mantendo a ordem das linhas.
+     *
+     * @param headers se a primeira linha do CSV contém o nome das colunas
+     */
+    public static void fromCSV(File csv, boolean headers, File dest) {
+        try (CSVParser parser = new CSVParser(new BufferedReader(new FileReader(csv)),
+                headers ? CSVFormat.DEFAULT.withFirstRecordAsHeader() : CSVFormat.DEFAULT);
+             Writer writer = writer(dest)) {
+            int[] values = new int[INPUT_COLUMNS.length];
+            for (CSVRecord record : parser) {
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Integer.parseInt(record.get(c));
+                }
+                writer.add(values, record.get(INPUT_COLUMNS.length));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler o arquivo " + csv.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return true caso a primeira linha do CSV seja o nome das colunas, i.e.: a primeira coluna não é um número, como
+     * em {@link Application#TRAINING_CSV}. {@link Application#CLASSIFICATION_CSV} é gravado sem o nome das colunas
+     */
+    public static boolean hasHeader(File csv) {
+        try (CSVParser parser = new CSVParser(new BufferedReader(new FileReader(csv)), CSVFormat.DEFAULT)) {
+            Iterator<CSVRecord> records = parser.iterator();
+            if (!records.hasNext()) {
+                return false;
+            }
+            Integer.parseInt(records.next().get(0).trim());
+            return false;
+        } catch (NumberFormatException e) {
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler o arquivo " + csv.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return um {@link Writer} que grava o arquivo informado ao ser fechado
+     */
+    public static Writer writer(File dest) {
+        return new Writer(dest);
+    }
+
+    /**
+     * Grava os exemplos um a um, sem mantê-los em memória: os valores de cada coluna e os índices das classes são
+     * gravados em arquivos temporários e, em {@link #close()}, as estatísticas do cabeçalho são calculadas relendo esses
+     * arquivos na ordem das linhas, que são então copiados para o arquivo final. O arquivo final só é substituído após
+     * ter sido gravado por completo. Não é thread-safe.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final File dest;
+        private final File[] columnFiles = new File[INPUT_COLUMNS.length];
+        private final DataOutputStream[] columns = new DataOutputStream[INPUT_COLUMNS.length];
+        private final File classIndexFile;
+        private final OutputStream classIndexes;
+        private final List<String> classes = new ArrayList<>();
+        private final int[] values = new int[INPUT_COLUMNS.length];
+        private int rows;
+
+        private Writer(File dest) {
+            this.dest = dest;
+            File dir = dest.getAbsoluteFile().getParentFile();
+            try {
+                for (int c = 0; c < columns.length; c++) {
+                    columnFiles[c] = new File(dir, dest.getName() + "." + INPUT_COLUMNS[c] + ".tmp");
+                    columns[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnFiles[c]), 1 << 16));
+                }
+                classIndexFile = new File(dir, dest.getName() + ".type.tmp");
+                classIndexes = new BufferedOutputStream(new FileOutputStream(classIndexFile), 1 << 16);
+            } catch (IOException e) {
+                closeTemporaryFiles();
+                throw new RuntimeException("Não foi possível gravar o arquivo de características " + dest.getAbsolutePath(), e);
+            }
+        }
+
+        public void add(TriangleTypes type, TrianglePrincipalPoints points) {
+            int c = 0;
+            for (Pixel pixel : points.pixels()) {
+                values[c++] = pixel.x;
+                values[c++] = pixel.y;
+            }
+            add(values, String.valueOf(type.getCharValue()));
+        }
+
+        /**
+         * @param values valores das colunas de entrada, na ordem de {@link #INPUT_COLUMNS}
+         * @param label  classe da linha
+         */
+        public void add(int[] values, String label) {
+            int index = classes.indexOf(label);
+            if (index < 0) {
+                index = classes.size();
+                classes.add(label);
+            }
+            try {
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c].writeInt(values[c]);
+                }
+                classIndexes.write(index);
+            } catch (IOException e) {
+                throw new RuntimeException("Não foi possível gravar o arquivo de características " + dest.getAbsolutePath(), e);
+            }
+            rows++;
+        }
+
+        public int size() {
+            return rows;
+        }
+
+        @Override
+        public void close() {
+            try {
+                for (DataOutputStream column : columns) {
+                    column.close();
+                }
+                classIndexes.close();
+
+                ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+                DataOutputStream header = new DataOutputStream(headerBytes);
+                header.writeInt(columns.length);
+                for (int c = 0; c < columns.length; c++) {
+                    header.writeUTF(INPUT_COLUMNS[c]);
+                    writeStatistics(header, columnFiles[c], rows);
+                }
+                header.writeUTF(OUTPUT_COLUMN);
+                header.writeInt(classes.size());
+                for (String c : classes) {
+                    header.writeUTF(c);
+                }
+                header.flush();
+                //os dados começam alinhados para que as colunas possam ser lidas como int sem desalinhamento
+                int dataOffset = (FIXED_HEADER_BYTES + headerBytes.size() + 7) & ~7;
+
+                File tmp = new File(dest.getAbsoluteFile().getParentFile(), dest.getName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                    out.writeInt(FILE_MAGIC);
+                    out.writeInt(FILE_VERSION);
+                    out.writeInt(rows);
+                    out.writeInt(dataOffset);
+                    headerBytes.writeTo(out);
+                    out.write(new byte[dataOffset - FIXED_HEADER_BYTES - headerBytes.size()]);
+                    for (File column : columnFiles) {
+                        Files.copy(column.toPath(), out);
+                    }
+                    Files.copy(classIndexFile.toPath(), out);
+                }
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                LOGGER.info(rows + " exemplos gravados em " + dest);
+            } catch (IOException e) {
+                throw new RuntimeException("Não foi possível gravar o arquivo de características " + dest.getAbsolutePath(), e);
+            } finally {
+                closeTemporaryFiles();
+            }
+        }
+
+        private void closeTemporaryFiles() {
+            for (int c = 0; c < columns.length; c++) {
+                try {
+                    if (columns[c] != null) {
+                        columns[c].close();
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Não foi possível fechar {}", columnFiles[c], e);
+                }
+                if (columnFiles[c] != null) {
+                    columnFiles[c].delete();
+                }
+            }
+            try {
+                if (classIndexes != null) {
+                    classIndexes.close();
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Não foi possível fechar {}", classIndexFile, e);
+            }
+            if (classIndexFile != null) {
+                classIndexFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Grava low, high, mean e sd dos valores da coluna, lidos do arquivo temporário, calculados exatamente como em
+     * {@code VersatileMLDataSet.analyze()}.
+     */
+    private static void writeStatistics(DataOutput out, File column, int rows) throws IOException {
+        double low = 0;
+        double high = 0;
+        double mean = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(column), 1 << 16))) {
+            for (int row = 0; row < rows; row++) {
+                int v = in.readInt();
+                low = row == 0 ? v : Math.min(low, v);
+                high = row == 0 ? v : Math.max(high, v);
+                mean += v;
+            }
+        }
+        mean /= rows;
+        double sd = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(column), 1 << 16))) {
+            for (int row = 0; row < rows; row++) {
+                double d = mean - in.readInt();
+                sd += d * d;
+            }
+        }
+        sd = Math.sqrt(sd / rows);
+        out.writeDouble(low);
+        out.writeDouble(high);
+        out.writeDouble(mean);
+        out.writeDouble(sd);
+    }
+
+    /**
+     * @return um dataset do Encog com as colunas e estatísticas deste arquivo, ver {@link FeatureDataSet}
+     */
+    public FeatureDataSet toDataSet() {
+        return new FeatureDataSet(this);
+    }
+
+    /**
+     * @return um dataset do Encog com as colunas do conjunto informado, calculadas a partir das coordenadas deste
+     * arquivo
+     */
+    public FeatureDataSet toDataSet(FeatureSet featureSet) {
+        return new FeatureDataSet(this, featureSet);
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int getInputCount() {
+        return columns.length;
+    }
+
+    public String getInputName(int column) {
+        return inputNames[column];
+    }
+
+    public double getLow(int column) {
+        return low[column];
+    }
+
+    public double getHigh(int column) {
+        return high[column];
+    }
+
+    public double getMean(int column) {
+        return mean[column];
+    }
+
+    public double getSd(int column) {
+        return sd[column];
+    }
+
+    public String getOutputName() {
+        return outputName;
+    }
+
+    /**
+     * @return os rótulos das classes, na ordem em que aparecem no arquivo
+     */
+    public List<String> getClasses() {
+        return classes;
+    }
+
+    public int get(int row, int column) {
+        return columns[column].get(row);
+    }
+
+    public String getLabel(int row) {
+        return classes.get(classIndexes.get(row));
+    }
+
+    /**
+     * @return as coordenadas das linhas {@code [from, to)} no formato aceito por
+     * {@link NeuralNetwork#predictBatch(double[][])}
+     */
+    public double[][] features(int from, int to) {
+        double[][] res = new double[to - from][columns.length];
+        for (int row = from; row < to; row++) {
+            for (int c = 0; c < columns.length; c++) {
+                res[row - from][c] = columns[c].get(row);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureDataFile{rows=" + rows + ", inputs=" + Arrays.toString(inputNames) + ", classes=" + classes + '}';
+    }
+}
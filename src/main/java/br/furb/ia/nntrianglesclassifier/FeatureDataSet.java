@@ -0,0 +1,128 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.data.versatile.VersatileMLDataSet;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.data.versatile.columns.ColumnType;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
+
+import java.util.List;
+
+/**
+ * {@link VersatileMLDataSet} lido de um {@link FeatureDataFile}, utilizável em qualquer ponto que aceite o dataset
+ * carregado do CSV ({@code EncogModel}, {@link ParallelCrossValidator}, {@link HyperparameterSearch}). As colunas e
+ * suas estatísticas são definidas a partir do cabeçalho do arquivo, por isso {@link #analyze()} não percorre os dados,
+ * e {@link #normalize()} lê os valores diretamente do arquivo mapeado, sem convertê-los de texto.
+ * <p>
+ * Com um {@link FeatureSet} diferente de {@link FeatureSet#POINTS} as colunas de entrada são as do conjunto, calculadas
+ * a partir das coordenadas do arquivo, e as estatísticas são calculadas com uma passada sobre os dados.
+ */
+public class FeatureDataSet extends VersatileMLDataSet {
+
+    private final FeatureDataFile file;
+    private final FeatureSet featureSet;
+
+    public FeatureDataSet(FeatureDataFile file) {
+        this(file, FeatureSet.POINTS);
+    }
+
+    public FeatureDataSet(FeatureDataFile file, FeatureSet featureSet) {
+        super(null);
+        this.file = file;
+        this.featureSet = featureSet;
+        if (featureSet == FeatureSet.POINTS) {
+            for (int c = 0; c < file.getInputCount(); c++) {
+                ColumnDefinition col = defineSourceColumn(file.getInputName(c), c, ColumnType.continuous);
+                col.setLow(file.getLow(c));
+                col.setHigh(file.getHigh(c));
+                col.setMean(file.getMean(c));
+                col.setSd(file.getSd(c));
+                col.setCount(file.size());
+            }
+        } else {
+            defineFeatureColumns();
+        }
+        ColumnDefinition outputColumn = defineSourceColumn(file.getOutputName(), featureSet.size(), ColumnType.nominal);
+        for (String c : file.getClasses()) {
+            outputColumn.defineClass(c);
+        }
+        defineSingleOutputOthersInput(outputColumn);
+    }
+
+    /**
+     * Define as colunas do {@link #featureSet} com low, high, mean e sd calculados exatamente como em
+     * {@code VersatileMLDataSet.analyze()}.
+     */
+    private void defineFeatureColumns() {
+        String[] names = featureSet.getColumns();
+        int rows = file.size();
+        double[] low = new double[names.length];
+        double[] high = new double[names.length];
+        double[] mean = new double[names.length];
+        for (int row = 0; row < rows; row++) {
+            double[] values = values(row);
+            for (int c = 0; c < names.length; c++) {
+                low[c] = row == 0 ? values[c] : Math.min(low[c], values[c]);
+                high[c] = row == 0 ? values[c] : Math.max(high[c], values[c]);
+                mean[c] += values[c];
+            }
+        }
+        double[] sd = new double[names.length];
+        for (int c = 0; c < names.length; c++) {
+            mean[c] /= rows;
+        }
+        for (int row = 0; row < rows; row++) {
+            double[] values = values(row);
+            for (int c = 0; c < names.length; c++) {
+                double d = mean[c] - values[c];
+                sd[c] += d * d;
+            }
+        }
+        for (int c = 0; c < names.length; c++) {
+            ColumnDefinition col = defineSourceColumn(names[c], c, ColumnType.continuous);
+            col.setLow(low[c]);
+            col.setHigh(high[c]);
+            col.setMean(mean[c]);
+            col.setSd(Math.sqrt(sd[c] / rows));
+            col.setCount(rows);
+        }
+    }
+
+    /**
+     * @return os valores das colunas de entrada da linha
+     */
+    private double[] values(int row) {
+        return featureSet.extract(file.features(row, row + 1)[0]);
+    }
+
+    /**
+     * As estatísticas já foram calculadas na gravação do arquivo.
+     */
+    @Override
+    public void analyze() {
+    }
+
+    @Override
+    public void normalize() {
+        NormalizationStrategy strategy = getNormHelper().getNormStrategy();
+        if (strategy == null) {
+            throw new IllegalStateException("Selecione o tipo de modelo (selectMethod) antes de normalizar os dados.");
+        }
+        List<ColumnDefinition> inputColumns = getNormHelper().getInputColumns();
+        ColumnDefinition outputColumn = getNormHelper().getOutputColumns().get(0);
+        int inputSize = getNormHelper().calculateNormalizedInputCount();
+        int idealSize = getNormHelper().calculateNormalizedOutputCount();
+        setCalculatedInputSize(inputSize);
+        setCalculatedIdealSize(idealSize);
+
+        double[][] data = new double[file.size()][inputSize + idealSize];
+        for (int row = 0; row < data.length; row++) {
+            double[] values = values(row);
+            int column = 0;
+            for (ColumnDefinition col : inputColumns) {
+                column = strategy.normalizeColumn(col, true, values[col.getIndex()], data[row], column);
+            }
+            strategy.normalizeColumn(outputColumn, false, file.getLabel(row), data[row], column);
+        }
+        setData(data);
+    }
+}
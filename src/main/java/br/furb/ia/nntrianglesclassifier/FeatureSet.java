@@ -0,0 +1,150 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.data.versatile.sources.VersatileDataSource;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de colunas de entrada da rede neural, calculadas a partir das coordenadas dos pontos principais
+ * (p1x, p1y, p2x, p2y, p3x, p3y).
+ */
+public enum FeatureSet {
+
+    /**
+     * As coordenadas dos pontos, na ordem em que foram extraídos da imagem. Como essa ordem é arbitrária, o mesmo
+     * triangulo pode ser apresentado à rede de 6 formas diferentes, além de rotacionado e em qualquer escala.
+     */
+    POINTS("p1x", "p1y", "p2x", "p2y", "p3x", "p3y") {
+        @Override
+        public void extract(double[] points, double[] dest) {
+            System.arraycopy(points, 0, dest, 0, dest.length);
+        }
+
+        @Override
+        public double[] extract(double[] points) {
+            return points;
+        }
+    },
+
+    /**
+     * Valores invariantes à ordem dos pontos, à rotação e à escala: os lados ordenados do menor para o maior, relativos
+     * ao maior lado (side1 = menor / maior, side2 = intermediário / maior), e os ângulos opostos a esses lados em
+     * frações de 180°, do menor para o maior. Triangulos degenerados (pontos coincidentes) resultam em zeros.
+     */
+    INVARIANT("side1", "side2", "angle1", "angle2", "angle3") {
+        @Override
+        public void extract(double[] p, double[] dest) {
+            double s1 = Math.sqrt(squared(p[0] - p[2]) + squared(p[1] - p[3]));
+            double s2 = Math.sqrt(squared(p[2] - p[4]) + squared(p[3] - p[5]));
+            double s3 = Math.sqrt(squared(p[0] - p[4]) + squared(p[1] - p[5]));
+            //ordena os lados: a <= b <= c
+            double a = Math.min(s1, Math.min(s2, s3));
+            double c = Math.max(s1, Math.max(s2, s3));
+            double b = s1 == a ? Math.min(s2, s3) : s1 == c ? Math.max(s2, s3) : s1;
+            if (a == 0) {
+                Arrays.fill(dest, 0, 5, 0);
+                return;
+            }
+            dest[0] = a / c;
+            dest[1] = b / c;
+            dest[2] = angle(a, b, c);
+            dest[3] = angle(b, a, c);
+            dest[4] = angle(c, a, b);
+        }
+    };
+
+    private final String[] columns;
+
+    FeatureSet(String... columns) {
+        this.columns = columns;
+    }
+
+    private static double squared(double d) {
+        return d * d;
+    }
+
+    /**
+     * Lei dos cossenos.
+     *
+     * @return o ângulo oposto ao lado {@code opposite}, em frações de 180°
+     */
+    private static double angle(double opposite, double side1, double side2) {
+        double cos = (side1 * side1 + side2 * side2 - opposite * opposite) / (2 * side1 * side2);
+        return Math.acos(Math.max(-1, Math.min(1, cos))) / Math.PI;
+    }
+
+    /**
+     * @return o nome das colunas de entrada
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * Calcula os valores das colunas de entrada sem alocar memória.
+     *
+     * @param points coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y
+     * @param dest   vetor com pelo menos {@link #size()} posições que recebe os valores
+     */
+    public abstract void extract(double[] points, double[] dest);
+
+    /**
+     * @param points coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y
+     * @return os valores das colunas de entrada deste conjunto
+     */
+    public double[] extract(double[] points) {
+        double[] res = new double[size()];
+        extract(points, res);
+        return res;
+    }
+
+    public double[] extract(TrianglePrincipalPoints points) {
+        return extract(points.features());
+    }
+
+    /**
+     * @param points fonte com as colunas p1x, p1y, p2x, p2y, p3x, p3y e type, nessa ordem
+     * @return fonte com as colunas deste conjunto seguidas da coluna type
+     */
+    public VersatileDataSource wrap(VersatileDataSource points) {
+        if (this == POINTS) {
+            return points;
+        }
+        return new VersatileDataSource() {
+            @Override
+            public String[] readLine() {
+                String[] line = points.readLine();
+                if (line == null) {
+                    return null;
+                }
+                double[] coords = new double[POINTS.size()];
+                for (int i = 0; i < coords.length; i++) {
+                    coords[i] = Double.parseDouble(line[i]);
+                }
+                double[] values = extract(coords);
+                String[] res = new String[values.length + 1];
+                for (int i = 0; i < values.length; i++) {
+                    //Double.toString é convertido de volta exatamente para o mesmo valor
+                    res[i] = Double.toString(values[i]);
+                }
+                res[values.length] = line[coords.length];
+                return res;
+            }
+
+            @Override
+            public void rewind() {
+                points.rewind();
+            }
+
+            @Override
+            public int columnIndex(String name) {
+                int index = Arrays.asList(columns).indexOf(name);
+                return index >= 0 || !"type".equals(name) ? index : columns.length;
+            }
+        };
+    }
+}
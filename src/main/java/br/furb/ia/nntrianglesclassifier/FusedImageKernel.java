@@ -0,0 +1,159 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+ * Pré-processamento das imagens sem as etapas do ImageJ: a imagem é decodificada uma única vez (por um
+ * {@link ImageSource}) para um buffer 8-bit reaproveitado, e a detecção de contornos, a bounding box e os pontos
+ * extremos são calculados em uma única passada ({@link EdgePixels#scanEdges(byte[], int, int)}), sem as imagens
+ * intermediárias de {@code convertToGray8} e {@code findEdges}. A binarização ({@code setBinaryThreshold}) só define
+ * o threshold, sem alterar os pixels, por isso não tem equivalente aqui.
+ * <p>
+ * As etapas do ImageJ continuam sendo a implementação de referência, ver
+ * {@link ImageProcessor#setReferenceImplementation(boolean)}.
+ * Cada thread deve utilizar a sua instância ({@link #forCurrentThread()}).
+ */
+public class FusedImageKernel {
+
+    private static final ThreadLocal<FusedImageKernel> PER_THREAD = ThreadLocal.withInitial(FusedImageKernel::new);
+
+    private final EdgePixels edges = new EdgePixels();
+    private BufferedImage destination;
+    private byte[] buffer = new byte[0];
+    private int[] rowBuffer = new int[0];
+    private byte[] gray;
+    private int width;
+    private int height;
+
+    /**
+     * @return a instância reaproveitada pela thread atual. Seu conteúdo é sobrescrito na próxima imagem carregada pela
+     * mesma thread.
+     */
+    public static FusedImageKernel forCurrentThread() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * @return imagem em tons de cinza reaproveitada entre as imagens de mesmas dimensões carregadas por este kernel,
+     * onde o {@link ImageSource} pode decodificar a próxima imagem antes de passá-la para {@link #load(BufferedImage)}
+     */
+    BufferedImage grayDestination(int width, int height) {
+        if (destination == null || destination.getWidth() != width || destination.getHeight() != height) {
+            destination = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        }
+        return destination;
+    }
+
+    /**
+     * Converte a imagem para 8-bit com a mesma fórmula de {@code ImageConverter.convertToGray8}. As imagens em tons de
+     * cinza são utilizadas diretamente, sem cópia.
+     */
+    public void load(BufferedImage img) {
+        width = img.getWidth();
+        height = img.getHeight();
+        if (img.getType() == BufferedImage.TYPE_BYTE_GRAY && img.getRaster().getDataBuffer().getNumBanks() == 1
+                && img.getRaster().getDataBuffer().getSize() == width * height) {
+            gray = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            return;
+        }
+        gray = buffer(width * height);
+        double[] weights = ColorProcessor.getWeightingFactors();
+        if (img.getType() == BufferedImage.TYPE_3BYTE_BGR && img.getRaster().getDataBuffer().getSize() == width * height * 3) {
+            byte[] bgr = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            boolean grayPreserved = isGrayPreserved(weights);
+            for (int i = 0, j = 0, size = width * height; i < size; i++, j += 3) {
+                byte b = bgr[j];
+                if (grayPreserved && b == bgr[j + 1] && b == bgr[j + 2]) {
+                    //jpegs em tons de cinza são decodificados com os 3 canais iguais
+                    gray[i] = b;
+                } else {
+                    gray[i] = toGray(bgr[j + 2] & 0xff, bgr[j + 1] & 0xff, bgr[j] & 0xff, weights);
+                }
+            }
+            return;
+        }
+        if (rowBuffer.length < width) {
+            rowBuffer = new int[width];
+        }
+        for (int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, rowBuffer, 0, width);
+            for (int x = 0; x < width; x++) {
+                int c = rowBuffer[x];
+                gray[y * width + x] = toGray((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff, weights);
+            }
+        }
+    }
+
+    /**
+     * Utiliza a imagem já carregada pelo ImageJ, e.g.: recebida pelo {@link ClassificationServer}. A imagem não é
+     * alterada.
+     */
+    public void load(ImagePlus img) {
+        ij.process.ImageProcessor p = img.getProcessor();
+        width = p.getWidth();
+        height = p.getHeight();
+        if (p instanceof ByteProcessor) {
+            gray = (byte[]) p.getPixels();
+            return;
+        }
+        if (!(p instanceof ColorProcessor)) {
+            gray = (byte[]) p.convertToByte(true).getPixels();
+            return;
+        }
+        int[] rgb = (int[]) p.getPixels();
+        gray = buffer(rgb.length);
+        double[] weights = ColorProcessor.getWeightingFactors();
+        for (int i = 0; i < rgb.length; i++) {
+            int c = rgb[i];
+            gray[i] = toGray((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff, weights);
+        }
+    }
+
+    private byte[] buffer(int size) {
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+
+    /**
+     * @return true caso a conversão de um pixel cinza (r = g = b) resulte no próprio valor, o que vale para os pesos
+     * padrão (1/3 cada) e para os pesos do NTSC
+     */
+    private static boolean isGrayPreserved(double[] weights) {
+        for (int v = 0; v < 256; v++) {
+            if ((toGray(v, v, v, weights) & 0xff) != v) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mesma fórmula de {@code TypeConverter.convertRGBToByte}.
+     */
+    private static byte toGray(int r, int g, int b, double[] weights) {
+        return (byte) (int) (r * weights[0] + g * weights[1] + b * weights[2] + 0.5);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return os pixels de contorno da imagem carregada, os mesmos de {@link EdgePixels#scan(ij.process.ImageProcessor)}
+     * após as etapas de conversão para 8-bit e {@code findEdges} do ImageJ
+     */
+    public EdgePixels scanEdges() {
+        return edges.scanEdges(gray, width, height);
+    }
+}
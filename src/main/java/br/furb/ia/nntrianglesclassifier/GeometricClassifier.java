@@ -0,0 +1,127 @@
+package br.furb.ia.nntrianglesclassifier;
+
+/**
+ * Classifica o triangulo diretamente pelo comprimento dos lados formados pelos pontos principais, sem a rede neural.
+ * <p>
+ * Com os lados ordenados (a &lt;= b &lt;= c), as diferenças entre lados vizinhos relativas ao maior lado,
+ * {@code (b - a) / c} e {@code (c - b) / c}, são comparadas com duas tolerâncias: até {@code equalTolerance} os lados
+ * são considerados iguais e a partir de {@code distinctTolerance} são considerados diferentes. Dois pares iguais
+ * indicam um equilátero, um par igual e outro diferente um isósceles e dois pares diferentes um escaleno. Quando alguma
+ * diferença fica entre as duas tolerâncias o triangulo é ambíguo e não é classificado.
+ * <p>
+ * Como os pontos principais são normalizados para 50 pixels de largura mantendo a proporção da imagem, os lados têm
+ * um erro de arredondamento de alguns porcento, por isso as tolerâncias não podem ser muito pequenas.
+ */
+public class GeometricClassifier {
+
+    public static final double DEFAULT_EQUAL_TOLERANCE = 0.05;
+    public static final double DEFAULT_DISTINCT_TOLERANCE = 0.15;
+
+    private static final Result AMBIGUOUS = new Result(null, 0);
+
+    private final double equalTolerance;
+    private final double distinctTolerance;
+
+    /**
+     * Resultado da classificação: o tipo, ou null caso o triangulo seja ambíguo, e a confiança de 0 a 1. A confiança é
+     * a menor entre as distâncias das duas diferenças até o limite da faixa ambígua, relativas à tolerância
+     * correspondente.
+     */
+    public static final class Result {
+        private final TriangleTypes type;
+        private final double confidence;
+
+        Result(TriangleTypes type, double confidence) {
+            this.type = type;
+            this.confidence = confidence;
+        }
+
+        public TriangleTypes getType() {
+            return type;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        @Override
+        public String toString() {
+            return type + " (confiança " + confidence + ")";
+        }
+    }
+
+    public GeometricClassifier() {
+        this(DEFAULT_EQUAL_TOLERANCE, DEFAULT_DISTINCT_TOLERANCE);
+    }
+
+    /**
+     * @param equalTolerance    diferença relativa máxima entre dois lados considerados iguais
+     * @param distinctTolerance diferença relativa mínima entre dois lados considerados diferentes
+     */
+    public GeometricClassifier(double equalTolerance, double distinctTolerance) {
+        if (equalTolerance <= 0 || distinctTolerance < equalTolerance) {
+            throw new IllegalArgumentException("Tolerâncias inválidas: " + equalTolerance + " e " + distinctTolerance);
+        }
+        this.equalTolerance = equalTolerance;
+        this.distinctTolerance = distinctTolerance;
+    }
+
+    /**
+     * Não aloca memória além do resultado e pode ser chamado concorrentemente por várias threads.
+     */
+    public Result classify(TrianglePrincipalPoints points) {
+        Pixel p1 = points.getOne();
+        Pixel p2 = points.getTwo();
+        Pixel p3 = points.getThree();
+        double s1 = distance(p1, p2);
+        double s2 = distance(p2, p3);
+        double s3 = distance(p1, p3);
+
+        //ordena os lados: a <= b <= c
+        double a = Math.min(s1, Math.min(s2, s3));
+        double c = Math.max(s1, Math.max(s2, s3));
+        double b = s1 + s2 + s3 - a - c;
+        if (c == 0) {
+            return AMBIGUOUS;
+        }
+        double small = (b - a) / c;
+        double large = (c - b) / c;
+
+        boolean smallEqual = small <= equalTolerance;
+        boolean largeEqual = large <= equalTolerance;
+        boolean smallDistinct = small >= distinctTolerance;
+        boolean largeDistinct = large >= distinctTolerance;
+        TriangleTypes type;
+        if (smallEqual && largeEqual) {
+            type = TriangleTypes.EQUILATERAL;
+        } else if ((smallEqual && largeDistinct) || (smallDistinct && largeEqual)) {
+            type = TriangleTypes.ISOSCELES;
+        } else if (smallDistinct && largeDistinct) {
+            type = TriangleTypes.SCALENE;
+        } else {
+            return AMBIGUOUS;
+        }
+        return new Result(type, Math.min(margin(small, smallEqual), margin(large, largeEqual)));
+    }
+
+    /**
+     * As coordenadas são inteiros pequenos, por isso não é necessária a proteção contra overflow de {@link Math#hypot}
+     * (bem mais lento).
+     */
+    private static double distance(Pixel p1, Pixel p2) {
+        int dx = p1.x - p2.x;
+        int dy = p1.y - p2.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @return o quanto a diferença está longe da faixa ambígua, de 0 (no limite) a 1 (lados idênticos, ou diferença
+     * de pelo menos o dobro de {@code distinctTolerance})
+     */
+    private double margin(double difference, boolean equal) {
+        if (equal) {
+            return 1 - difference / equalTolerance;
+        }
+        return Math.min(1, (difference - distinctTolerance) / distinctTolerance);
+    }
+}
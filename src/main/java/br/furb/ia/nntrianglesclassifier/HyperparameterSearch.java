@@ -0,0 +1,329 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.encog.ml.MLError;
+import org.encog.ml.MLMethod;
+import org.encog.ml.MLRegression;
+import org.encog.ml.TrainingImplementationType;
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.MLDataPair;
+import org.encog.ml.data.MLDataSet;
+import org.encog.ml.data.basic.BasicMLData;
+import org.encog.ml.data.basic.BasicMLDataSet;
+import org.encog.ml.data.versatile.VersatileMLDataSet;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
+import org.encog.ml.factory.MLMethodFactory;
+import org.encog.ml.factory.MLTrainFactory;
+import org.encog.ml.model.EncogModel;
+import org.encog.ml.model.config.MethodConfig;
+import org.encog.ml.train.MLTrain;
+import org.encog.ml.train.strategy.end.SimpleEarlyStoppingStrategy;
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.util.concurrency.MultiThreadable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Busca de hiperparâmetros sobre os {@link SearchCandidate} informados (ver {@link SearchSpace}), com as estratégias
+ * grid, random e successive halving. Cada candidato é treinado em uma tarefa do executor, com parada antecipada no
+ * conjunto de validação (holdback de 30%, o mesmo de {@link NeuralNetwork#train(File)}), e avaliado pela acurácia
+ * nesse conjunto, pela latência de inferência e pelo tamanho do modelo serializado.
+ * <p>
+ * Como cada tipo de método utiliza uma normalização diferente, os dados são normalizados uma vez para cada combinação
+ * de tipo de método e ativação de saída. Os pesos iniciais e a divisão dos dados dependem somente da semente e do
+ * candidato, portanto o resultado de cada candidato não depende da estratégia nem da ordem de execução. A latência é
+ * medida somente após o término de todos os treinamentos da rodada, um candidato por vez, para não ser afetada pelos
+ * treinamentos executados ao mesmo tempo.
+ */
+public class HyperparameterSearch {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final double HOLDBACK_PERCENTAGE = 0.3;
+    private static final int LATENCY_PASSES = 3;
+
+    private final File trainingData;
+    private final ExecutorService executor;
+    private final long seed;
+    private final Map<String, PreparedData> preparedData = new HashMap<>();
+    //métodos de uma única passada não mudam com o orçamento de iterações, não precisam ser treinados novamente
+    private final Map<SearchCandidate, TrialResult> onePassResults = new HashMap<>();
+
+    /**
+     * Dados normalizados para um tipo de método, divididos em treinamento e validação.
+     */
+    private static final class PreparedData {
+        final VersatileMLDataSet data;
+        final EncogModel model;
+        final MLDataSet training;
+        final MLDataSet validation;
+
+        PreparedData(VersatileMLDataSet data, EncogModel model) {
+            this.data = data;
+            this.model = model;
+            //cópias em memória: o MatrixMLDataSet sem janela de lag informa 0 entradas, o que faz treinamentos que
+            //validam o tamanho dos dados (e.g.: backprop) falharem, e cria novos arrays a cada iteração
+            this.training = copy(model.getTrainingDataset());
+            this.validation = copy(model.getValidationDataset());
+        }
+
+        private static MLDataSet copy(MLDataSet set) {
+            BasicMLDataSet copy = new BasicMLDataSet();
+            for (MLDataPair pair : set) {
+                copy.add(new BasicMLData(pair.getInputArray()), new BasicMLData(pair.getIdealArray()));
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Candidato já treinado, aguardando a medição da latência.
+     */
+    private static final class TrainedCandidate {
+        final SearchCandidate candidate;
+        final MLRegression method;
+        final MLDataSet validation;
+        final int iterations;
+        final double accuracy;
+        final double validationError;
+        final int modelBytes;
+        final long trainingMillis;
+        final boolean onePass;
+
+        TrainedCandidate(SearchCandidate candidate, MLRegression method, MLDataSet validation, int iterations,
+                         double accuracy, double validationError, int modelBytes, long trainingMillis, boolean onePass) {
+            this.candidate = candidate;
+            this.method = method;
+            this.validation = validation;
+            this.iterations = iterations;
+            this.accuracy = accuracy;
+            this.validationError = validationError;
+            this.modelBytes = modelBytes;
+            this.trainingMillis = trainingMillis;
+            this.onePass = onePass;
+        }
+    }
+
+    public HyperparameterSearch(File trainingData, ExecutorService executor, long seed) {
+        this.trainingData = trainingData;
+        this.executor = executor;
+        this.seed = seed;
+    }
+
+    /**
+     * Treina todos os candidatos com o mesmo limite de iterações.
+     */
+    public Leaderboard grid(List<SearchCandidate> candidates, int maxIterations) {
+        return new Leaderboard(runTrials(candidates, maxIterations));
+    }
+
+    /**
+     * Treina uma amostra aleatória (reproduzível, a partir da semente) dos candidatos.
+     */
+    public Leaderboard random(List<SearchCandidate> candidates, int trials, int maxIterations) {
+        List<SearchCandidate> shuffled = new ArrayList<>(candidates);
+        Collections.shuffle(shuffled, new Random(seed));
+        return grid(shuffled.subList(0, Math.min(trials, shuffled.size())), maxIterations);
+    }
+
+    /**
+     * Successive halving: treina todos os candidatos com {@code minIterations} iterações, mantém a melhor fração
+     * 1/{@code eta} (por acurácia) e repete com {@code eta} vezes mais iterações até restar um único candidato. O
+     * leaderboard contém o último resultado de cada candidato.
+     *
+     * @throws IllegalArgumentException caso {@code minIterations} seja menor que 1 ou {@code eta} menor que 2, com os
+     *                                  quais os candidatos nunca seriam eliminados
+     */
+    public Leaderboard successiveHalving(List<SearchCandidate> candidates, int minIterations, int eta) {
+        if (minIterations < 1) {
+            throw new IllegalArgumentException("Quantidade mínima de iterações deve ser maior que 0: " + minIterations);
+        }
+        if (eta < 2) {
+            throw new IllegalArgumentException("Fator de redução (eta) deve ser pelo menos 2: " + eta);
+        }
+        Map<SearchCandidate, TrialResult> latest = new LinkedHashMap<>();
+        List<SearchCandidate> remaining = new ArrayList<>(candidates);
+        int iterations = minIterations;
+        while (true) {
+            LOGGER.info("Successive halving: " + remaining.size() + " candidatos com até " + iterations + " iterações");
+            List<TrialResult> results = runTrials(remaining, iterations);
+            for (TrialResult r : results) {
+                latest.put(r.getCandidate(), r);
+            }
+            if (remaining.size() <= 1) {
+                break;
+            }
+            List<TrialResult> ranked = new Leaderboard(results).getResults();
+            int keep = Math.max(1, (int) Math.ceil(remaining.size() / (double) eta));
+            remaining = new ArrayList<>();
+            for (TrialResult r : ranked.subList(0, keep)) {
+                remaining.add(r.getCandidate());
+            }
+            iterations *= eta;
+        }
+        return new Leaderboard(new ArrayList<>(latest.values()));
+    }
+
+    private List<TrialResult> runTrials(List<SearchCandidate> candidates, int maxIterations) {
+        List<Future<TrainedCandidate>> pending = new ArrayList<>();
+        for (SearchCandidate c : candidates) {
+            if (onePassResults.containsKey(c)) {
+                pending.add(null);
+                continue;
+            }
+            PreparedData prepared = prepare(c);
+            pending.add(executor.submit(() -> runTrial(c, prepared, maxIterations)));
+        }
+        try {
+            List<TrainedCandidate> trained = new ArrayList<>();
+            for (Future<TrainedCandidate> f : pending) {
+                trained.add(f == null ? null : f.get());
+            }
+            //todos os treinamentos da rodada terminaram, a latência é medida sem concorrência
+            List<TrialResult> results = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                TrainedCandidate t = trained.get(i);
+                results.add(t == null ? onePassResults.get(candidates.get(i)) : measure(t));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Busca de hiperparâmetros interrompida", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Não foi possível treinar os candidatos da busca de hiperparâmetros", e.getCause());
+        } finally {
+            for (Future<TrainedCandidate> f : pending) {
+                if (f != null) {
+                    f.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carrega e normaliza os dados de treinamento para o tipo de método do candidato, reaproveitando os dados já
+     * normalizados da mesma forma.
+     */
+    private PreparedData prepare(SearchCandidate c) {
+        String key = c.getMethodType() + outputActivation(c);
+        PreparedData prepared = preparedData.get(key);
+        if (prepared == null) {
+            VersatileMLDataSet data = NeuralNetwork.loadDataSet(trainingData);
+            EncogModel model = new EncogModel(data);
+            model.selectMethod(data, c.getMethodType(), c.getMethodArgs(), c.getTrainingType(), c.getTrainingArgs());
+            data.normalize();
+            model.holdBackValidation(HOLDBACK_PERCENTAGE, true, (int) seed);
+            prepared = new PreparedData(data, model);
+            preparedData.put(key, prepared);
+        }
+        return prepared;
+    }
+
+    private static String outputActivation(SearchCandidate c) {
+        if (!MLMethodFactory.TYPE_FEEDFORWARD.equals(c.getMethodType())) {
+            return "";
+        }
+        BasicNetwork network = (BasicNetwork) new MLMethodFactory().create(c.getMethodType(), c.getMethodArgs(), 1, 1);
+        return ":" + network.getActivation(network.getLayerCount() - 1).getClass().getSimpleName();
+    }
+
+    private TrainedCandidate runTrial(SearchCandidate c, PreparedData prepared, int maxIterations) {
+        long init = System.currentTimeMillis();
+        MethodConfig config = prepared.model.getMethodConfigurations().get(c.getMethodType());
+        MLMethod method = new MLMethodFactory().create(c.getMethodType(), c.getMethodArgs(),
+                prepared.data.getNormHelper().calculateNormalizedInputCount(), config.determineOutputCount(prepared.data));
+        ParallelCrossValidator.initialize(method, seed + c.toString().hashCode());
+
+        MLDataSet validation = prepared.validation;
+        MLTrain train = new MLTrainFactory().create(method, prepared.training, c.getTrainingType(), c.getTrainingArgs());
+        //uma thread por treinamento, o paralelismo fica entre os candidatos
+        if (train instanceof MultiThreadable) {
+            ((MultiThreadable) train).setThreadCount(1);
+        }
+        boolean onePass = train.getImplementationType() == TrainingImplementationType.OnePass;
+        if (onePass) {
+            ParallelCrossValidator.iteration(train);
+        } else {
+            train.addStrategy(new SimpleEarlyStoppingStrategy(validation));
+            while (!train.isTrainingDone() && train.getIteration() < maxIterations) {
+                ParallelCrossValidator.iteration(train);
+            }
+        }
+        train.finishTraining();
+        long trainingMillis = System.currentTimeMillis() - init;
+
+        MLRegression regression = (MLRegression) method;
+        return new TrainedCandidate(c, regression, validation, train.getIteration(),
+                accuracy(regression, prepared.data, validation),
+                method instanceof MLError ? ((MLError) method).calculateError(validation) : Double.NaN,
+                modelBytes(method), trainingMillis, onePass);
+    }
+
+    /**
+     * Mede a latência do candidato treinado, na thread atual, e monta o seu resultado.
+     */
+    private TrialResult measure(TrainedCandidate t) {
+        TrialResult result = new TrialResult(t.candidate, t.iterations, t.accuracy, t.validationError,
+                latencyMicros(t.method, t.validation), t.modelBytes, t.trainingMillis);
+        LOGGER.info(result);
+        if (t.onePass) {
+            onePassResults.put(t.candidate, result);
+        }
+        return result;
+    }
+
+    /**
+     * Compara as classes previstas com as esperadas, desnormalizadas da mesma forma que em
+     * {@link NeuralNetwork#predictBatch(double[][])}.
+     */
+    private static double accuracy(MLRegression method, VersatileMLDataSet data, MLDataSet validation) {
+        NormalizationStrategy strategy = data.getNormHelper().getNormStrategy();
+        ColumnDefinition outputColumn = data.getNormHelper().getOutputColumns().get(0);
+        int correct = 0;
+        for (MLDataPair pair : validation) {
+            MLData output = method.compute(pair.getInput());
+            String predicted = strategy.denormalizeColumn(outputColumn, false, output, 0);
+            if (predicted.equals(strategy.denormalizeColumn(outputColumn, false, pair.getIdeal(), 0))) {
+                correct++;
+            }
+        }
+        return correct / (double) validation.size();
+    }
+
+    /**
+     * @return o menor tempo médio de inferência por exemplo entre algumas passadas sobre o conjunto de validação
+     */
+    private static double latencyMicros(MLRegression method, MLDataSet validation) {
+        List<MLData> inputs = new ArrayList<>();
+        for (MLDataPair pair : validation) {
+            inputs.add(pair.getInput());
+        }
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < LATENCY_PASSES; pass++) {
+            long init = System.nanoTime();
+            for (MLData input : inputs) {
+                method.compute(input);
+            }
+            best = Math.min(best, System.nanoTime() - init);
+        }
+        return best / 1000d / inputs.size();
+    }
+
+    private static int modelBytes(MLMethod method) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(method);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível serializar o modelo", e);
+        }
+        return bytes.size();
+    }
+}
@@ -0,0 +1,70 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.awt.Rectangle;
+
+/**
+ * Contexto de extração de características de uma única imagem. Guarda o conjunto de pixels de contorno e a
+ * {@link BBox} da imagem, calculados sob demanda uma única vez e reaproveitados pelas etapas seguintes. Sempre que os
+ * pixels da imagem forem alterados deve-se chamar {@link #invalidate()}.
+ * <p>
+ * O recorte na bounding box ({@link #cropToBoundingBox()}) não invalida o contexto: os pixels de contorno já
+ * conhecidos são apenas transladados para o sistema de coordenadas da imagem recortada, sem uma nova varredura.
+ */
+public class ImageFeatureContext {
+
+    private ij.process.ImageProcessor processor;
+    private final EdgePixels edges;
+    private boolean edgesValid;
+
+    public ImageFeatureContext(ij.process.ImageProcessor processor) {
+        this(processor, new EdgePixels());
+    }
+
+    /**
+     * @param edges buffer onde os pixels de contorno serão armazenados, e.g.: {@link EdgePixels#forCurrentThread()}
+     *              quando o contexto não for utilizado fora da thread atual
+     */
+    public ImageFeatureContext(ij.process.ImageProcessor processor, EdgePixels edges) {
+        this.processor = processor;
+        this.edges = edges;
+    }
+
+    public ij.process.ImageProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Descarta as informações calculadas, deve ser chamado sempre que os pixels da imagem forem alterados.
+     */
+    public void invalidate() {
+        edgesValid = false;
+    }
+
+    public EdgePixels getEdges() {
+        if (!edgesValid) {
+            edges.scan(processor);
+            edgesValid = true;
+        }
+        return edges;
+    }
+
+    /**
+     * @throws ImageIncompatibleException caso a imagem não possua pixels de contorno
+     */
+    public BBox getBoundingBox() {
+        return getEdges().getBoundingBox();
+    }
+
+    /**
+     * Recorta a imagem na sua bounding box.
+     *
+     * @throws ImageIncompatibleException caso a imagem não possua pixels de contorno
+     */
+    public void cropToBoundingBox() {
+        BBox box = getBoundingBox();
+        processor.setRoi(box.getMinX(), box.getMinY(), box.getMaxX() - box.getMinX(), box.getMaxY() - box.getMinY());
+        Rectangle roi = processor.getRoi();
+        processor = processor.crop();
+        edges.crop(roi.x, roi.y, roi.width, roi.height);
+    }
+}
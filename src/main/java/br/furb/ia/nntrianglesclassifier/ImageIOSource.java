@@ -0,0 +1,171 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Decodifica as imagens com um {@link ImageReader} do {@link ImageIO}. Quando o leitor suporta (e.g.: jpeg), a imagem é
+ * decodificada direto para 8-bit em tons de cinza, no buffer reaproveitado do {@link FusedImageKernel}, sem a conversão
+ * de cores para RGB. Nesse caso o valor de cada pixel é a luminância (Y) do jpeg, idêntica à conversão do ImageJ para
+ * imagens em tons de cinza, como as imagens de treinamento e classificação (ver {@code ImageProcessorTest}).
+ * <p>
+ * Com {@link #setTargetWidth(int)} a imagem é decodificada já reduzida ({@link ImageReadParam#setSourceSubsampling}),
+ * lendo somente uma a cada N linhas e colunas, o que reduz o custo da decodificação de fotos grandes. Como os pontos
+ * principais são normalizados para a largura base, o resultado é aproximado, não idêntico ao da imagem original.
+ * Com {@link #setMemoryMapped(boolean)} o arquivo é mapeado em memória ({@link FileChannel#map}) em vez de lido através
+ * de um {@link java.io.RandomAccessFile}.
+ */
+public class ImageIOSource implements ImageSource {
+
+    private static final ImageTypeSpecifier GRAY = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY);
+
+    private int targetWidth;
+    private boolean memoryMapped;
+
+    /**
+     * Define a largura mínima das imagens decodificadas: imagens com pelo menos o dobro dessa largura são reduzidas pelo
+     * maior fator inteiro que a mantém. 0 (padrão) decodifica as imagens na resolução original.
+     */
+    public void setTargetWidth(int targetWidth) {
+        if (targetWidth < 0) {
+            throw new IllegalArgumentException("Largura inválida: " + targetWidth);
+        }
+        this.targetWidth = targetWidth;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * O mapeamento em memória não faz parte da configuração, pois não altera os pixels decodificados.
+     */
+    @Override
+    public String getConfiguration() {
+        return "ImageIO:targetWidth=" + targetWidth;
+    }
+
+    @Override
+    public boolean decode(File f, FusedImageKernel kernel) {
+        try (ImageInputStream in = memoryMapped ? map(f) : ImageIO.createImageInputStream(f)) {
+            return decode(in, kernel);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler a imagem " + f.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public boolean decode(String imageName, byte[] data, FusedImageKernel kernel) {
+        try (ImageInputStream in = new ByteBufferImageInputStream(ByteBuffer.wrap(data))) {
+            return decode(in, kernel);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível decodificar a imagem " + imageName, e);
+        }
+    }
+
+    private boolean decode(ImageInputStream in, FusedImageKernel kernel) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return false;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            kernel.load(reader.read(0, readParam(reader, kernel)));
+            return true;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private ImageReadParam readParam(ImageReader reader, FusedImageKernel kernel) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int factor = targetWidth > 0 ? Math.max(1, width / targetWidth) : 1;
+        if (factor > 1) {
+            param.setSourceSubsampling(factor, factor, 0, 0);
+            width = (width + factor - 1) / factor;
+            height = (height + factor - 1) / factor;
+        }
+        for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+            if (types.next().getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY) {
+                param.setDestinationType(GRAY);
+                param.setDestination(kernel.grayDestination(width, height));
+                break;
+            }
+        }
+        return param;
+    }
+
+    private static ImageInputStream map(File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            //o mapeamento continua válido após o canal ser fechado
+            return new ByteBufferImageInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Lê direto do arquivo mapeado (ou já lido) em memória, sem o cache de
+     * {@link javax.imageio.stream.MemoryCacheImageInputStream}.
+     */
+    private static final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferImageInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            return buffer.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            int count = (int) Math.min(len, buffer.limit() - streamPos);
+            buffer.position((int) streamPos);
+            buffer.get(b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+}
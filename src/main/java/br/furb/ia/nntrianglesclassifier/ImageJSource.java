@@ -0,0 +1,38 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.File;
+
+/**
+ * Decodifica as imagens com {@link IJ#openImage(String)}, exatamente como as etapas do ImageJ (implementação de
+ * referência), porém bem mais lento que o {@link ImageIOSource}.
+ */
+public class ImageJSource implements ImageSource {
+
+    @Override
+    public boolean decode(File f, FusedImageKernel kernel) {
+        ImagePlus img = IJ.openImage(f.getAbsolutePath());
+        if (img == null) {
+            return false;
+        }
+        kernel.load(img);
+        return true;
+    }
+
+    @Override
+    public boolean decode(String imageName, byte[] data, FusedImageKernel kernel) {
+        ImagePlus img = ImageProcessor.decode(imageName, data);
+        if (img == null) {
+            return false;
+        }
+        kernel.load(img);
+        return true;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return "ImageJ";
+    }
+}
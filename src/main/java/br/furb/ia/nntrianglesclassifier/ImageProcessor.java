@@ -2,6 +2,7 @@ package br.furb.ia.nntrianglesclassifier;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.io.Opener;
 import ij.process.ImageConverter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,7 +18,7 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 /**
@@ -30,13 +31,21 @@ public class ImageProcessor {
 
 
     private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * Versão das etapas de pré-processamento e extração dos pontos principais. Deve ser incrementada sempre que uma
+     * alteração mudar os pontos extraídos das imagens, invalidando o {@link FeatureCache}.
+     */
+    public static final int FEATURES_VERSION = 1;
     private final List<File> images = new ArrayList<>();
-    private final List<ij.process.ImageProcessor> ip = new ArrayList<>();
+    private final List<ImageFeatureContext> ip = new ArrayList<>();
     private final List<ImageConverter> ic = new ArrayList<>();
     private static final Dimension BASE_DIMENSIONS = new Dimension(50, 50);
     private static final int WHITE_PIXEL_VAL = 255;
+    private boolean referenceImplementation;
+    private ImageSource imageSource = new ImageIOSource();
+    private volatile Set<String> diagnosticImages;
 
-    private static final class Dimension {
+    static final class Dimension {
         public final int X;
         public final int Y;
 
@@ -46,6 +55,49 @@ public class ImageProcessor {
         }
     }
 
+    /**
+     * Define se {@link #processImage(File, File, boolean)} deve utilizar as etapas do ImageJ (implementação de
+     * referência) em vez do {@link FusedImageKernel}. As etapas do ImageJ também são utilizadas sempre que a imagem
+     * processada precisar ser salva ou o {@link ImageSource} não suportar o formato do arquivo. O padrão é false.
+     */
+    public void setReferenceImplementation(boolean referenceImplementation) {
+        this.referenceImplementation = referenceImplementation;
+    }
+
+    public boolean isReferenceImplementation() {
+        return referenceImplementation;
+    }
+
+    /**
+     * Define como os arquivos são decodificados por {@link #processImage(File, File, boolean)}, fora da implementação
+     * de referência. O padrão é um {@link ImageIOSource} na resolução original.
+     */
+    public void setImageSource(ImageSource imageSource) {
+        this.imageSource = imageSource;
+    }
+
+    public ImageSource getImageSource() {
+        return imageSource;
+    }
+
+    /**
+     * @return identificação da forma como as imagens são decodificadas, utilizada para que o {@link FeatureCache} não
+     * misture pontos extraídos com configurações diferentes (e.g.: imagens reduzidas)
+     */
+    public String getConfiguration() {
+        return referenceImplementation ? "reference" : imageSource.getConfiguration();
+    }
+
+    /**
+     * Modo diagnóstico: com o logger desta classe em nível debug, o ascii art dos pontos principais
+     * ({@code debug = true}) é gerado somente para as imagens informadas, em vez de todas as imagens processadas.
+     *
+     * @param imageNames nomes das imagens (sem diretório), ou null para todas
+     */
+    public void setDiagnosticImages(Collection<String> imageNames) {
+        this.diagnosticImages = imageNames == null ? null : new HashSet<>(imageNames);
+    }
+
     public void loadImages(File[] imgs) {
         assert imgs != null;
         images.clear();
@@ -55,28 +107,242 @@ public class ImageProcessor {
         int counter = 0;
         for (File f : imgs) {
             counter++;
-            if (!f.exists()) {
-                throw new RuntimeException("Arquivo " + f.getAbsolutePath() + " não encontrado.");
-            }
-            LOGGER.debug("Carregando imagem " + f.getName() + " - " + counter + " de " + imgs.length);
-            ImagePlus imgP = IJ.openImage(f.getAbsolutePath());
+            LOGGER.debug("Carregando imagem {} - {} de {}", f.getName(), counter, imgs.length);
+            ImagePlus imgP = openImage(f);
             images.add(f);
-            ip.add(imgP.getProcessor());
+            ip.add(new ImageFeatureContext(imgP.getProcessor()));
             ic.add(new ImageConverter(imgP));
         }
         LOGGER.info(imgs.length + " imagens carregas");
     }
 
+    ImagePlus openImage(File f) {
+        return openImage(f, Metrics.start());
+    }
+
+    /**
+     * @param start início da decodificação registrada em {@link PipelineStage#DECODE}, inclusive de uma tentativa
+     *              anterior sem sucesso pelo {@link ImageSource}
+     */
+    private ImagePlus openImage(File f, long start) {
+        if (!f.exists()) {
+            throw new RuntimeException("Arquivo " + f.getAbsolutePath() + " não encontrado.");
+        }
+        ImagePlus img = IJ.openImage(f.getAbsolutePath());
+        Metrics.record(PipelineStage.DECODE, start);
+        return img;
+    }
+
+    /**
+     * Decodifica uma imagem (jpeg, gif ou png) recebida em memória da mesma forma que {@link IJ#openImage(String)}
+     * decodifica um arquivo jpeg, inclusive a conversão para 8-bit das imagens em tons de cinza, de modo que os pontos
+     * extraídos sejam idênticos aos extraídos do arquivo.
+     *
+     * @return a imagem ou null caso não seja possível decodificá-la
+     */
+    public ImagePlus openImage(String imageName, byte[] data) {
+        return decode(imageName, data);
+    }
+
+    static ImagePlus decode(String imageName, byte[] data) {
+        Image img = Toolkit.getDefaultToolkit().createImage(data);
+        ImagePlus imgP;
+        try {
+            imgP = new ImagePlus(imageName, img);
+        } catch (IllegalStateException e) {
+            LOGGER.warn("Não foi possível decodificar a imagem {}: {}", imageName, e.getMessage());
+            return null;
+        }
+        if (imgP.getWidth() == 0) {
+            return null;
+        }
+        if (imgP.getType() == ImagePlus.COLOR_RGB) {
+            Opener.convertGrayJpegTo8Bits(imgP);
+        }
+        return imgP;
+    }
+
+    /**
+     * Executa todas as etapas de processamento (carregamento, 8-bit gray scale, binarização, edges, crop, gravação da
+     * imagem processada e extração dos pontos principais) para uma única imagem, sem utilizar as listas internas desta
+     * instância. Por isso pode ser chamado concorrentemente por várias threads.
+     *
+     * @param f         imagem origem
+     * @param outputDir diretório onde a imagem processada deve ser salva, ou null para não salvar
+     * @param debug     loga ascii art representando os três pontos extraídos da imagem
+     * @return os pontos principais do triangulo ou null caso não tenha sido possível extraí-los
+     */
+    public TrianglePrincipalPoints processImage(File f, File outputDir, boolean debug) {
+        LOGGER.debug("Processando imagem {}", f.getName());
+        long start = Metrics.start();
+        TrianglePrincipalPoints res = null;
+        try {
+            res = processFile(f, outputDir, debug);
+        } finally {
+            Metrics.record(PipelineStage.IMAGE, start);
+            if (res == null) {
+                Metrics.failure(PipelineStage.IMAGE);
+            }
+        }
+        return res;
+    }
+
+    private TrianglePrincipalPoints processFile(File f, File outputDir, boolean debug) {
+        long start = Metrics.start();
+        if (outputDir == null && !referenceImplementation) {
+            if (!f.exists()) {
+                throw new RuntimeException("Arquivo " + f.getAbsolutePath() + " não encontrado.");
+            }
+            FusedImageKernel kernel = FusedImageKernel.forCurrentThread();
+            if (imageSource.decode(f, kernel)) {
+                Metrics.record(PipelineStage.DECODE, start);
+                return processImage(kernel, f.getName(), debug);
+            }
+        }
+        //a decodificação pelo ImageJ após uma tentativa sem sucesso é registrada junto com ela, uma única vez
+        return processImage(openImage(f, start), f.getName(), outputDir, debug);
+    }
+
+    /**
+     * Mesmo que {@link #processImage(File, File, boolean)} para o conteúdo do arquivo já lido em memória, sem gravar a
+     * imagem processada, e.g.: lido pelo {@link BulkClassificationJob}.
+     */
+    public TrianglePrincipalPoints processImage(String imageName, byte[] data, boolean debug) {
+        return processImage(imageName, data, null, debug);
+    }
+
+    /**
+     * Mesmo que {@link #processImage(File, File, boolean)} para o conteúdo do arquivo já lido em memória, e.g.: lido
+     * pelo {@link FeatureCache} para calcular o hash.
+     *
+     * @param outputDir diretório onde a imagem processada deve ser salva, ou null para não salvar
+     */
+    public TrianglePrincipalPoints processImage(String imageName, byte[] data, File outputDir, boolean debug) {
+        LOGGER.debug("Processando imagem {}", imageName);
+        long start = Metrics.start();
+        TrianglePrincipalPoints res = null;
+        try {
+            res = processData(imageName, data, outputDir, debug);
+        } finally {
+            Metrics.record(PipelineStage.IMAGE, start);
+            if (res == null) {
+                Metrics.failure(PipelineStage.IMAGE);
+            }
+        }
+        return res;
+    }
+
+    private TrianglePrincipalPoints processData(String imageName, byte[] data, File outputDir, boolean debug) {
+        long start = Metrics.start();
+        if (outputDir == null && !referenceImplementation) {
+            FusedImageKernel kernel = FusedImageKernel.forCurrentThread();
+            if (imageSource.decode(imageName, data, kernel)) {
+                Metrics.record(PipelineStage.DECODE, start);
+                return processImage(kernel, imageName, debug);
+            }
+        }
+        //idem processFile, a tentativa sem sucesso e a decodificação pelo ImageJ são registradas uma única vez
+        ImagePlus img = decode(imageName, data);
+        Metrics.record(PipelineStage.DECODE, start);
+        return img == null ? null : processImage(img, imageName, outputDir, debug);
+    }
+
+    /**
+     * Mesmo que {@link #processImage(File, File, boolean)} para uma imagem já carregada em memória, e.g.: recebida por
+     * {@link ClassificationServer}. A imagem informada só é alterada quando processada pelas etapas do ImageJ, i.e.: na
+     * implementação de referência ({@link #setReferenceImplementation(boolean)}) ou quando a imagem processada é salva
+     * em {@code outputDir}; o {@link FusedImageKernel} apenas lê os seus pixels.
+     *
+     * @param imageName nome utilizado nos logs e na gravação da imagem processada
+     */
+    public TrianglePrincipalPoints processImage(ImagePlus imgP, String imageName, File outputDir, boolean debug) {
+        if (outputDir == null && !referenceImplementation) {
+            FusedImageKernel kernel = FusedImageKernel.forCurrentThread();
+            kernel.load(imgP);
+            return processImage(kernel, imageName, debug);
+        }
+        return processImageReference(imgP, imageName, outputDir, debug);
+    }
+
+    /**
+     * Etapas do ImageJ (conversão para 8-bit, binarização, edges e crop), utilizadas como implementação de referência
+     * pelo {@link FusedImageKernel}.
+     */
+    TrianglePrincipalPoints processImageReference(ImagePlus imgP, String imageName, File outputDir, boolean debug) {
+        ImageFeatureContext ctx = new ImageFeatureContext(imgP.getProcessor(), EdgePixels.forCurrentThread());
+        convertTo8BitGrayScale(new ImageConverter(imgP));
+        binarize(ctx);
+        convertToEdges(ctx);
+        if (!cropToBBox(ctx, imageName)) {
+            return null;
+        }
+        if (outputDir != null) {
+            createDirectory(outputDir);
+            saveImage(ctx.getProcessor(), imageName, outputDir);
+        }
+        return extractPrincipalPoints(ctx, imageName, debug);
+    }
+
+    /**
+     * Mesmas etapas de {@link #processImageReference(ImagePlus, String, File, boolean)} sobre a imagem já carregada no
+     * kernel: os pixels de contorno são encontrados em uma única passada e o crop só translada as suas coordenadas.
+     */
+    TrianglePrincipalPoints processImage(FusedImageKernel kernel, String imageName, boolean debug) {
+        long start = Metrics.start();
+        EdgePixels edges = kernel.scanEdges();
+        Metrics.record(PipelineStage.EDGES, start);
+
+        start = Metrics.start();
+        if (edges.isEmpty()) {
+            Metrics.failure(PipelineStage.CROP);
+            LOGGER.warn("Não foi possível extrair BBox de imagem {}", imageName);
+            return null;
+        }
+        BBox box = edges.getBoundingBox();
+        LOGGER.debug("BBox {} extraida de figura {} (width: {} height: {})", box, imageName, kernel.getWidth(), kernel.getHeight());
+        int width = box.getMaxX() - box.getMinX();
+        int height = box.getMaxY() - box.getMinY();
+        edges.crop(box.getMinX(), box.getMinY(), width, height);
+        Metrics.record(PipelineStage.CROP, start);
+        return extractPrincipalPoints(edges, width, height, imageName, debug);
+    }
+
+    /**
+     * Stream preguiçoso dos pontos principais das imagens presentes no diretório. Cada imagem é carregada, processada,
+     * tem seus pontos extraídos e é liberada antes da próxima ser lida, de modo que o consumo de memória não depende da
+     * quantidade de arquivos do diretório. Imagens das quais não foi possível extrair os pontos são ignoradas.
+     *
+     * @param dir       diretório com as imagens origem
+     * @param outputDir diretório onde as imagens processadas devem ser salvas, ou null para não salvar
+     * @param debug     loga ascii art representando os três pontos extraídos de cada imagem
+     */
+    public Stream<TrianglePrincipalPoints> streamPrincipalPoints(File dir, File outputDir, boolean debug) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new RuntimeException("Diretório " + dir.getAbsolutePath() + " não encontrado.");
+        }
+        return streamPrincipalPoints(files, outputDir, debug);
+    }
+
+    /**
+     * @see #streamPrincipalPoints(File, File, boolean)
+     */
+    public Stream<TrianglePrincipalPoints> streamPrincipalPoints(File[] imgs, File outputDir, boolean debug) {
+        return Arrays.stream(imgs)
+                .map(f -> processImage(f, outputDir, debug))
+                .filter(Objects::nonNull);
+    }
+
     /**
      * Redimensiona a imagem mantendo a proporção, e.g.: para 28 x Y onde Y = tamanho necessário para manter a proporção da imagem.
      */
     public void resizeToWidth28() {
         int resized = 0;
         for (int i = 0; i < ip.size(); i++) {
-            ij.process.ImageProcessor p = ip.get(i);
+            ij.process.ImageProcessor p = ip.get(i).getProcessor();
             if (p.getHeight() > 28 || p.getWidth() > 28) {
-                LOGGER.debug("Redimensionando imagem " + images.get(i).getName() + " de " + p.getWidth() + " x " + p.getHeight() + " para 28 x 28...");
-                ip.set(i, p.resize(28));
+                LOGGER.debug("Redimensionando imagem {} de {} x {} para 28 x 28...", images.get(i).getName(), p.getWidth(), p.getHeight());
+                ip.set(i, new ImageFeatureContext(p.resize(28)));
                 resized++;
             }
         }
@@ -89,47 +355,54 @@ public class ImageProcessor {
 
     public void convertAllTo8BitGrayScale() {
         for (int i = 0; i < ic.size(); i++) {
-            LOGGER.debug("Convertendo imagem " + images.get(i).getName() + " para 8bit gray scale - " + (i + 1) + " de " + ic.size());
-            ic.get(i).convertToGray8();
+            LOGGER.debug("Convertendo imagem {} para 8bit gray scale - {} de {}", images.get(i).getName(), i + 1, ic.size());
+            convertTo8BitGrayScale(ic.get(i));
         }
         LOGGER.info(ic.size() + " imagens convertidas para 8-bit gray scale");
     }
 
+    void convertTo8BitGrayScale(ImageConverter converter) {
+        long start = Metrics.start();
+        converter.convertToGray8();
+        Metrics.record(PipelineStage.GRAY_8BIT, start);
+    }
+
     public void binarizeImage() {
         for (int i = 0; i < ip.size(); i++) {
-            ij.process.ImageProcessor p = ip.get(i);
-            LOGGER.debug("Binarizando imagem " + images.get(i).getName() + " - " + (i + 1) + " de " + ic.size());
-            p.setBinaryThreshold();
+            LOGGER.debug("Binarizando imagem {} - {} de {}", images.get(i).getName(), i + 1, ic.size());
+            binarize(ip.get(i));
         }
         LOGGER.info(ic.size() + " imagens binarizadas");
     }
 
+    void binarize(ImageFeatureContext ctx) {
+        long start = Metrics.start();
+        //somente define o threshold, os pixels da imagem não são alterados
+        ctx.getProcessor().setBinaryThreshold();
+        Metrics.record(PipelineStage.BINARIZE, start);
+    }
+
     public void convertToEdges() {
         for (int i = 0; i < ip.size(); i++) {
-            ij.process.ImageProcessor p = ip.get(i);
-            LOGGER.debug("Convertendo imagem " + images.get(i).getName() + " para edges - " + (i + 1) + " de " + ic.size());
-            p.findEdges();
+            LOGGER.debug("Convertendo imagem {} para edges - {} de {}", images.get(i).getName(), i + 1, ic.size());
+            convertToEdges(ip.get(i));
         }
         LOGGER.info(ip.size() + " imagens convertidas para edges");
     }
 
+    void convertToEdges(ImageFeatureContext ctx) {
+        long start = Metrics.start();
+        ctx.getProcessor().findEdges();
+        ctx.invalidate();
+        Metrics.record(PipelineStage.EDGES, start);
+    }
+
     public void cropImagesToBBox() {
-        List<ij.process.ImageProcessor> cropped = new ArrayList<>();
+        List<ImageFeatureContext> cropped = new ArrayList<>();
         for (int i = 0; i < ip.size(); i++) {
-            ij.process.ImageProcessor p = ip.get(i);
-            int oldWidth = p.getWidth();
-            int oldHeight = p.getHeight();
-            try {
-                BBox box = getBoundingBox(p);
-                LOGGER.debug("BBox " + box + " extraida de figura " + images.get(i).getName() + " (width: " + oldWidth + " height: " + oldHeight + "): " + box);
-                int newWidth = box.getMaxX() - box.getMinX();
-                int newHeigth = box.getMaxY() - box.getMinY();
-                p.setRoi(box.getMinX(), box.getMinY(), newWidth, newHeigth);
-                cropped.add(p.crop());
-
-                LOGGER.debug("  Imagem \"" + images.get(i).getName() + "\" \"cropeada\" de width/height: " + oldWidth + "/" + oldHeight + " para width/height: " + newWidth + "/" + newHeigth);
-            } catch (ImageIncompatibleException e) {
-                LOGGER.warn("Não foi possível extrair BBox de imagem " + images.get(i).getName());
+            ImageFeatureContext ctx = ip.get(i);
+            if (cropToBBox(ctx, images.get(i).getName())) {
+                cropped.add(ctx);
             }
         }
 
@@ -139,7 +412,40 @@ public class ImageProcessor {
         }
     }
 
+    /**
+     * Recorta a imagem do contexto na sua bounding box.
+     *
+     * @return false caso não seja possível extrair a bounding box
+     */
+    boolean cropToBBox(ImageFeatureContext ctx, String imageName) {
+        int oldWidth = ctx.getProcessor().getWidth();
+        int oldHeight = ctx.getProcessor().getHeight();
+        long start = Metrics.start();
+        try {
+            BBox box = ctx.getBoundingBox();
+            LOGGER.debug("BBox {} extraida de figura {} (width: {} height: {})", box, imageName, oldWidth, oldHeight);
+            ctx.cropToBoundingBox();
+
+            Metrics.record(PipelineStage.CROP, start);
+            LOGGER.debug("  Imagem \"{}\" \"cropeada\" de width/height: {}/{} para width/height: {}/{}", imageName, oldWidth, oldHeight,
+                    ctx.getProcessor().getWidth(), ctx.getProcessor().getHeight());
+            return true;
+        } catch (ImageIncompatibleException e) {
+            Metrics.failure(PipelineStage.CROP);
+            LOGGER.warn("Não foi possível extrair BBox de imagem {}", imageName);
+            return false;
+        }
+    }
+
     public void saveImages(File destDir) {
+        createDirectory(destDir);
+        for (int i = 0; i < ip.size(); i++) {
+            saveImage(ip.get(i).getProcessor(), images.get(i).getName(), destDir);
+        }
+
+    }
+
+    private void createDirectory(File destDir) {
         if (!destDir.exists()) {
             try {
                 Files.createDirectories(destDir.toPath());
@@ -147,16 +453,15 @@ public class ImageProcessor {
                 throw new RuntimeException(e);
             }
         }
-        for (int i = 0; i < ip.size(); i++) {
-            File originImage = images.get(i);
-            BufferedImage bufferedImage = ip.get(i).getBufferedImage();
-            try {
-                ImageIO.write(bufferedImage, "jpg", new File(destDir, originImage.getName()));
-            } catch (IOException e) {
-                throw new RuntimeException("Não foi possível salvar a processada referente a imagem origem " + originImage);
-            }
-        }
+    }
 
+    private void saveImage(ij.process.ImageProcessor p, String imageName, File destDir) {
+        BufferedImage bufferedImage = p.getBufferedImage();
+        try {
+            ImageIO.write(bufferedImage, "jpg", new File(destDir, imageName));
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível salvar a processada referente a imagem origem " + imageName);
+        }
     }
 
     public static <T> Predicate<T> distinctByKey(Function<? super T, Object> keyExtractor) {
@@ -164,186 +469,107 @@ public class ImageProcessor {
         return t -> seen.putIfAbsent(keyExtractor.apply(t), Boolean.TRUE) == null;
     }
 
-    private void debugContours(List<Pixel> points, int originalWidth, int originalHeight) {
-        int[][] arr = new int[originalWidth][originalHeight];
+    /**
+     * @return true caso o ascii art dos pontos principais da imagem deva ser logado, ver
+     * {@link #setDiagnosticImages(Collection)}
+     */
+    private boolean isDiagnosticImage(String imageName) {
+        return LOGGER.isDebugEnabled() && (diagnosticImages == null || diagnosticImages.contains(imageName));
+    }
 
-        Map<Pixel, Integer> pixelMap = new HashMap<>();
+    /**
+     * Gera o ascii art em uma única mensagem, para que as linhas de imagens processadas em paralelo não se misturem.
+     */
+    private static String renderContours(List<Pixel> points, int width, int height) {
+        boolean[][] white = new boolean[height][width];
         for (Pixel pix : points) {
-            pixelMap.put(new Pixel(pix.x, pix.y, WHITE_PIXEL_VAL), pix.val);
-        }
-
-        for (int x = 0; x < originalWidth; x++) {
-            for (int y = 0; y < originalHeight; y++) {
-                Pixel pix = new Pixel(x, y, WHITE_PIXEL_VAL);
-                if (pixelMap.containsKey(pix)) {
-                    arr[x][y] = pixelMap.get(pix);
-                } else {
-                    arr[x][y] = -999;
-                }
+            if (pix.val == WHITE_PIXEL_VAL && pix.x >= 0 && pix.y >= 0 && pix.x < width && pix.y < height) {
+                white[pix.y][pix.x] = true;
             }
         }
-
-        LOGGER.debug("Pixels : " + points);
-        debugContours(arr);
-    }
-
-    private void debugContours(int[][] arr) {
-        int y = 0;
-        int x = 0;
-        String[] line = new String[arr.length];
-        while (x < arr.length && y < arr[x].length) {
-            int pixel = arr[x][y];
-
-            if (pixel == WHITE_PIXEL_VAL) {
-                line[x] = "O";
-            } else {
-                line[x] = " ";
-            }
-
-            x++;
-            if (x == arr.length) {
-                x = 0;
-                y++;
-                LOGGER.debug(Arrays.toString(line).replace(",", ""));
+        StringBuilder grid = new StringBuilder();
+        for (int y = 0; y < height; y++) {
+            grid.append(System.lineSeparator()).append('[');
+            for (int x = 0; x < width; x++) {
+                grid.append(x == 0 ? "" : " ").append(white[y][x] ? 'O' : ' ');
             }
+            grid.append(']');
         }
+        return grid.toString();
     }
 
     public List<TrianglePrincipalPoints> getPrincipalPoints(boolean debug) {
         List<TrianglePrincipalPoints> res = new ArrayList<>();
 
         for (int i = 0; i < ip.size(); i++) {
-            ij.process.ImageProcessor imgProc = ip.get(i);
-            List<Pixel> contourCoordinates = getEdgesPixels(imgProc);
-            Set<Pixel> extractedPoints = new HashSet<>();
-
-
-            List<Pixel> maxXPixels = null;
-            List<Pixel> maxYPixels = null;
-            List<Pixel> minXPixels = null;
-            List<Pixel> minYPixels = null;
-            try {
-                BBox bbox = getBoundingBox(imgProc);
-
-                maxXPixels = contourCoordinates.stream().filter(p -> p.x >= bbox.getMaxX()).collect(Collectors.toList());
-                maxYPixels = contourCoordinates.stream().filter(p -> p.y >= bbox.getMaxY()).collect(Collectors.toList());
-                minXPixels = contourCoordinates.stream().filter(p -> p.x <= bbox.getMinX()).collect(Collectors.toList());
-                minYPixels = contourCoordinates.stream().filter(p -> p.y <= bbox.getMinY()).collect(Collectors.toList());
-            } catch (ImageIncompatibleException e) {
-                LOGGER.warn("Não foi possível extrair BBox de imagem " + images.get(i).getName() + ", pulando imagem...");
-                continue;
-            }
-
-
-            double tolerancePercentage = 0.03;
-            int tolerance = getDistanceTolerance(imgProc.getWidth(), imgProc.getHeight(), tolerancePercentage);
-
-            Pixel maxXmaxYPixel = maxXPixels.stream().sorted((p1, p2) -> p2.y - p1.y).findFirst().orElseThrow(ImageIncompatibleException::new);
-            if (maxXmaxYPixel != null) {
-                extractedPoints.add(maxXmaxYPixel);
-            }
-            Pixel maxXminYPixel = maxXPixels.stream().sorted((p1, p2) -> p1.y - p2.y).findFirst().orElse(null);
-            if (maxXminYPixel != null && getDistance(maxXmaxYPixel, maxXminYPixel) > tolerance) {
-                extractedPoints.add(maxXminYPixel);
-            }
-
-            Pixel minXmaxYPixel = minXPixels.stream().sorted((p1, p2) -> p2.y - p1.y).findFirst().orElse(null);
-            if (minXmaxYPixel != null) {
-                extractedPoints.add(minXmaxYPixel);
-            }
-            Pixel minXminYPixel = minXPixels.stream().sorted((p1, p2) -> p1.y - p2.y).findFirst().orElse(null);
-            if (minXminYPixel != null && getDistance(minXmaxYPixel, minXminYPixel) > tolerance) {
-                extractedPoints.add(minXminYPixel);
-            }
-
-            Pixel maxYmaxXPixel = maxYPixels.stream().sorted((p1, p2) -> p2.x - p1.x).findFirst().orElse(null);
-            if (maxYmaxXPixel != null && getDistance(maxYmaxXPixel, maxXmaxYPixel) > tolerance) {
-                extractedPoints.add(maxYmaxXPixel);
-            }
-            Pixel maxYminXPixel = maxYPixels.stream().sorted((p1, p2) -> p1.x - p2.x).findFirst().orElse(null);
-            if (maxYminXPixel != null && getDistance(maxYmaxXPixel, maxYminXPixel) > tolerance && getDistance(minXmaxYPixel, maxYminXPixel) > tolerance) {
-                extractedPoints.add(maxYminXPixel);
-            }
-
-            Pixel minYmaxXPixel = minYPixels.stream().sorted((p1, p2) -> p2.x - p1.x).findFirst().orElse(null);
-            if (minYmaxXPixel != null && getDistance(minYmaxXPixel, maxXminYPixel) > tolerance) {
-                extractedPoints.add(minYmaxXPixel);
-            }
-            Pixel minYminXPixel = minYPixels.stream().sorted((p1, p2) -> p1.x - p2.x).findFirst().orElse(null);
-            if (minYminXPixel != null && getDistance(minYmaxXPixel, minYminXPixel) > tolerance && getDistance(minYminXPixel, minXminYPixel) > tolerance) {
-                extractedPoints.add(minYminXPixel);
-            }
-
-            //remove os pares proximos de pontos restantes
-            List<Pixel> finalPixels = new ArrayList<>(extractedPoints);
-            List<Pixel> extractedPointsList = new ArrayList<>(extractedPoints);
-            while (finalPixels.size() > 3) {
-                tolerance = getDistanceTolerance(imgProc.getWidth(), imgProc.getHeight(), tolerancePercentage);
-                for (int u = 0; u < extractedPoints.size() && finalPixels.size() > 3; u++) {
-                    Pixel p1 = extractedPointsList.get(u);
-                    for (int q = 0; q < extractedPoints.size() && finalPixels.size() > 3; q++) {
-                        Pixel p2 = extractedPointsList.get(q);
-                        if (p1 == p2) {
-                            continue;
-                        }
-                        if (getDistance(p1, p2) <= tolerance) {
-                            finalPixels.remove(p2);
-                        }
-                    }
-                }
-
-                tolerancePercentage += 0.01;
+            TrianglePrincipalPoints principalPoints = extractPrincipalPoints(ip.get(i), images.get(i).getName(), debug);
+            if (principalPoints != null) {
+                res.add(principalPoints);
             }
+        }
+        return res;
+    }
 
-            int initialSize = contourCoordinates.size();
-            int actualSize = finalPixels.size();
+    /**
+     * @return os pontos principais do triangulo presente na imagem ou null caso não seja possível extraí-los
+     */
+    TrianglePrincipalPoints extractPrincipalPoints(ImageFeatureContext ctx, String imageName, boolean debug) {
+        ij.process.ImageProcessor imgProc = ctx.getProcessor();
+        return extractPrincipalPoints(ctx.getEdges(), imgProc.getWidth(), imgProc.getHeight(), imageName, debug);
+    }
 
-            if (actualSize != 3) {
-                LOGGER.warn("Não foi possível extrair os 3 pontos principais da imagem " + images.get(i).getName() + ". Pontos encontrados: " + actualSize);
-                continue;
-            }
+    /**
+     * @param width  largura da imagem (já recortada) à qual pertencem os pixels de contorno
+     * @param height altura da imagem (já recortada) à qual pertencem os pixels de contorno
+     */
+    TrianglePrincipalPoints extractPrincipalPoints(EdgePixels edges, int width, int height, String imageName, boolean debug) {
+        long start = Metrics.start();
+        TrianglePrincipalPoints res = findPrincipalPoints(edges, width, height, imageName, debug);
+        Metrics.record(PipelineStage.PRINCIPAL_POINTS, start);
+        if (res == null) {
+            Metrics.failure(PipelineStage.PRINCIPAL_POINTS);
+        }
+        return res;
+    }
 
-            LOGGER.info("Imagem " + images.get(i) + " diminuida de " + initialSize + " para " + actualSize);
+    private TrianglePrincipalPoints findPrincipalPoints(EdgePixels edges, int width, int height, String imageName, boolean debug) {
+        if (edges.isEmpty()) {
+            LOGGER.warn("Não foi possível extrair BBox de imagem {}, pulando imagem...", imageName);
+            return null;
+        }
+        List<Pixel> finalPixels = CornerExtractor.extract(edges, width, height);
 
-            TrianglePrincipalPoints principalPoints = new TrianglePrincipalPoints();
-            List<Pixel> normalizedPixels = new ArrayList<>();
-            for (Pixel pixel : finalPixels) {
-                Pixel normalized = normalizePixels(imgProc.getWidth(), imgProc.getHeight(), pixel);
-                normalizedPixels.add(normalized);
-                principalPoints.addPixel(normalized);
-            }
+        int initialSize = edges.size();
+        int actualSize = finalPixels.size();
 
-            Dimension d = getNormalizedDimensions(imgProc.getWidth(), imgProc.getHeight());
-            res.add(principalPoints);
-            if (debug) {
-                debugContours(normalizedPixels, d.X, d.Y);
-            }
+        if (actualSize != 3) {
+            LOGGER.warn("Não foi possível extrair os 3 pontos principais da imagem {}. Pontos encontrados: {}", imageName, actualSize);
+            return null;
         }
-        return res;
-    }
 
-    private void debugContoursNormalized(List<Pixel> pixels, int originalWidth, int originalHeight) {
+        LOGGER.debug("Imagem {} diminuida de {} para {}", imageName, initialSize, actualSize);
+
+        Dimension d = getNormalizedDimensions(width, height);
+        TrianglePrincipalPoints principalPoints = new TrianglePrincipalPoints();
         List<Pixel> normalizedPixels = new ArrayList<>();
-        for (Pixel pixel : pixels) {
-            Pixel normalized = normalizePixels(originalWidth, originalHeight, pixel);
+        for (Pixel pixel : finalPixels) {
+            Pixel normalized = normalizePixels(d, width, height, pixel);
             normalizedPixels.add(normalized);
+            principalPoints.addPixel(normalized);
         }
 
-        Dimension d = getNormalizedDimensions(originalWidth, originalHeight);
-        debugContours(normalizedPixels, d.X, d.Y);
-    }
-
-
-    private int getDistanceTolerance(int width, int height, double tolerancePercentage) {
-        int toleranceX = (int) (width * tolerancePercentage);
-        int toleranceY = (int) (height * tolerancePercentage);
-        return toleranceX + toleranceY;
+        if (debug && isDiagnosticImage(imageName)) {
+            LOGGER.debug("Pixels da imagem {}: {}{}", imageName, normalizedPixels, renderContours(normalizedPixels, d.X, d.Y));
+        }
+        return principalPoints;
     }
 
-    private Pixel normalizePixels(int originalWidth, int originalHeight, Pixel originalPixel) {
+    /**
+     * @param d dimensões normalizadas da imagem, ver {@link #getNormalizedDimensions(int, int)}
+     */
+    private Pixel normalizePixels(Dimension d, int originalWidth, int originalHeight, Pixel originalPixel) {
         Pixel res = null;
         if (originalWidth != BASE_DIMENSIONS.X) {
-            Dimension d = getNormalizedDimensions(originalWidth, originalHeight);
             double x = (double) originalPixel.x;
             double y = (double) originalPixel.y;
             double ratioX = (double) d.X / (double) originalWidth;
@@ -358,68 +584,12 @@ public class ImageProcessor {
         return res;
     }
 
-    private Dimension getNormalizedDimensions(int originalWidth, int originalHeight) {
+    static Dimension getNormalizedDimensions(int originalWidth, int originalHeight) {
         double aspect = (double) originalHeight / (double) originalWidth;
         double newHeight = aspect * BASE_DIMENSIONS.X;
         return new Dimension(BASE_DIMENSIONS.X, (int) newHeight);
     }
 
-    /**
-     * Calcula a distancia entre dois pixels
-     *
-     * @param p1
-     * @param p2
-     * @return true se a distancia entre os dois pixels é menor ou igual a distancia minima, false caso contrário
-     */
-    private int getDistance(Pixel p1, Pixel p2) {
-        int dx = p1.x - p2.x;
-        int dy = p1.y - p2.y;
-        int distance = dx + dy;
-
-        return Math.abs(distance);
-    }
-
-    /**
-     * Calcula e retorna as bounding boxes com os maxX/minX/maxY/minY normalizados tendo como base a dimensão 28x28
-     * É importante evidenciar que a bounding box extraída atualmente tem uma pequena taxa de erro nas coordenadas Y (maxY/minY)
-     * de aproximadamente 3.5%.
-     *
-     * @return {@link BBox} de todas as imagens carregadas através do metodo {@link #loadImages(File[])}
-     */
-    private BBox getBoundingBox(ij.process.ImageProcessor imgProc) {
-        List<Pixel> edgesPixels = getEdgesPixels(imgProc);
-        List<Integer> xList = edgesPixels.stream().map(p -> p.x).collect(Collectors.toList());
-        List<Integer> yList = edgesPixels.stream().map(p -> p.y).collect(Collectors.toList());
-
-        int minX = xList.stream().sorted().findFirst().orElseThrow(ImageIncompatibleException::new);
-        int maxX = xList.stream().sorted((x1, x2) -> x2 - x1).findFirst().orElseThrow(ImageIncompatibleException::new);
-        int minY = yList.stream().sorted().findFirst().orElseThrow(ImageIncompatibleException::new);
-        int maxY = yList.stream().sorted((y1, y2) -> y2 - y1).findFirst().orElseThrow(ImageIncompatibleException::new);
-        return new BBox(maxX, minX, maxY, minY);
-    }
-
-    /**
-     * Carrega um mapa com as coordenadas (x,y) de pixels zrelevantes (a.k.a pertencentes ao contorno do triangulo) da imagem.
-     * Ou seja, todos as coordenadas presentes no mapa resultante são referentes a um pixel pertencente ao contorno do triângulo.
-     */
-    private List<Pixel> getEdgesPixels(ij.process.ImageProcessor p) {
-        LOGGER.debug("Extraindo coordenadas dos pixels mais relevantes (referentes ao contorno do triangulo)");
-        List<Pixel> res = new ArrayList<>();
-        //para cada coluna (eixo x) da imagem atual...
-        for (int x = 0; x < p.getWidth(); x++) {
-            //para cada linha (eixo y) da imagem atual...
-            for (int y = 0; y < p.getHeight(); y++) {
-                int pixelVal = p.get(x, y);
-                // se entrar neste if, significa que este pixel faz parte de um contorno
-                //(parte branca da imagem tratada - olhe uma imagem tratada na pasta de imagens tratadas para mais entendimento)
-                if (pixelVal == WHITE_PIXEL_VAL) {
-                    res.add(new Pixel(x, y, pixelVal));
-                }
-            }
-        }
-        return res;
-    }
-
     private List<Pixel> getAllPixels(ij.process.ImageProcessor p) {
         LOGGER.debug("Extraindo coordenadas dos pixels mais relevantes (referentes ao contorno do triangulo)");
         List<Pixel> res = new ArrayList<>();
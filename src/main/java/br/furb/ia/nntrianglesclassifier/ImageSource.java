@@ -0,0 +1,32 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.io.File;
+
+/**
+ * Forma de decodificar os arquivos de imagem processados pelo {@link FusedImageKernel}, ver
+ * {@link ImageProcessor#setImageSource(ImageSource)}. As implementações devem poder ser utilizadas por várias threads
+ * ao mesmo tempo, cada uma com o seu kernel.
+ */
+public interface ImageSource {
+
+    /**
+     * Decodifica a imagem para 8-bit em tons de cinza no kernel informado.
+     *
+     * @return false caso o formato da imagem não seja suportado
+     */
+    boolean decode(File f, FusedImageKernel kernel);
+
+    /**
+     * Mesmo que {@link #decode(File, FusedImageKernel)} para o conteúdo do arquivo já lido em memória.
+     *
+     * @param imageName nome utilizado nos logs
+     */
+    boolean decode(String imageName, byte[] data, FusedImageKernel kernel);
+
+    /**
+     * @return identificação da forma de decodificação e dos parâmetros que alteram os pixels decodificados, e.g.: a
+     * largura das imagens reduzidas. Imagens decodificadas por fontes com a mesma configuração têm os mesmos pontos
+     * principais, ver {@link FeatureCache}.
+     */
+    String getConfiguration();
+}
@@ -0,0 +1,279 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.encog.ml.data.basic.BasicMLDataSet;
+import org.encog.ml.data.versatile.NormalizationHelper;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.neural.networks.training.propagation.TrainingContinuation;
+import org.encog.neural.networks.training.propagation.back.Backpropagation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Continua o treinamento de um modelo já treinado ({@link NeuralNetwork#load(File)}) a partir de novos exemplos
+ * classificados, sem reconstruir o conjunto de dados nem refazer a validação cruzada.
+ * <p>
+ * Os exemplos recebidos por {@link #add(TrianglePrincipalPoints, TriangleTypes)} são agrupados em lotes de
+ * {@link #setBatchSize(int)} exemplos, e cada lote é uma iteração de backpropagation com momentum (SGD em mini-lotes).
+ * O momentum é mantido entre os lotes. Os exemplos não devem chegar agrupados por tipo: com centenas de lotes seguidos
+ * do mesmo tipo a rede passa a classificar quase tudo como esse tipo.
+ * <p>
+ * As estatísticas das colunas de entrada (mínimo, máximo, média e desvio padrão) são atualizadas a cada exemplo e
+ * salvas junto com o modelo. Quando um valor fica fora da faixa conhecida, a faixa da normalização é ampliada e os
+ * pesos da primeira camada (e os seus bias) são ajustados de forma que a rede calcule exatamente a mesma função. Por
+ * isso a ampliação da faixa não altera nenhuma classificação, somente o treinamento altera.
+ * <p>
+ * A cada {@link #setCheckpointInterval(int)} lotes o modelo é salvo no arquivo de checkpoint, que é substituído
+ * somente após ter sido gravado por completo. Não é thread-safe.
+ */
+public class IncrementalTrainer {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final NeuralNetwork nn;
+    private final BasicNetwork network;
+    private final NormalizationHelper helper;
+    private final NormalizationStrategy strategy;
+    private final List<ColumnDefinition> inputColumns;
+    private final ColumnDefinition outputColumn;
+    private final FeatureSet featureSet;
+    private final File checkpointFile;
+
+    private double learningRate = 0.0005;
+    private double momentum = 0.5;
+    private int batchSize = 32;
+    private int checkpointInterval = 100;
+
+    private double[][] inputs;
+    private double[][] ideals;
+    private int pending;
+    private TrainingContinuation continuation;
+    private long samples;
+    private long batches;
+    private int rangeUpdates;
+    private double lastError;
+
+    /**
+     * @param nn             modelo treinado, cuja rede deve ser uma {@link BasicNetwork} com bias na primeira camada
+     *                       oculta, e.g.: "?:B->TANH->5:B->TANH->?"
+     * @param checkpointFile arquivo onde o modelo é salvo periodicamente, ou null para não salvar
+     */
+    public IncrementalTrainer(NeuralNetwork nn, File checkpointFile) {
+        if (!(nn.getBestMethod() instanceof BasicNetwork) || !((BasicNetwork) nn.getBestMethod()).isLayerBiased(0)) {
+            throw new IllegalArgumentException("Treinamento incremental suportado somente por redes feedforward com bias: "
+                    + nn.getBestMethod());
+        }
+        this.nn = nn;
+        this.network = (BasicNetwork) nn.getBestMethod();
+        this.helper = nn.getHelper();
+        this.strategy = helper.getNormStrategy();
+        this.inputColumns = helper.getInputColumns();
+        this.outputColumn = helper.getOutputColumns().get(0);
+        this.featureSet = nn.getFeatureSet();
+        this.checkpointFile = checkpointFile;
+        allocateBatch();
+    }
+
+    /**
+     * Adiciona um exemplo ao lote atual, treinando a rede caso o lote fique completo.
+     */
+    public void add(TrianglePrincipalPoints points, TriangleTypes type) {
+        add(points.features(), type);
+    }
+
+    /**
+     * @param points coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y
+     */
+    public void add(double[] points, TriangleTypes type) {
+        double[] values = featureSet.extract(points);
+        for (int c = 0; c < values.length; c++) {
+            updateStatistics(c, values[c]);
+        }
+        normalize(values, type, inputs[pending], ideals[pending]);
+        pending++;
+        samples++;
+        if (pending == batchSize) {
+            trainBatch(inputs, ideals);
+            pending = 0;
+        }
+    }
+
+    /**
+     * Treina a rede com os exemplos do lote incompleto e salva o checkpoint.
+     */
+    public void flush() {
+        if (pending > 0) {
+            double[][] in = new double[pending][];
+            double[][] ideal = new double[pending][];
+            System.arraycopy(inputs, 0, in, 0, pending);
+            System.arraycopy(ideals, 0, ideal, 0, pending);
+            trainBatch(in, ideal);
+            pending = 0;
+        }
+        checkpoint();
+    }
+
+    private void trainBatch(double[][] in, double[][] ideal) {
+        Backpropagation train = new Backpropagation(network, new BasicMLDataSet(in, ideal), learningRate, momentum);
+        //uma única thread, o lote é pequeno e o resultado não depende da divisão entre as threads
+        train.setThreadCount(1);
+        if (continuation != null) {
+            train.resume(continuation);
+        }
+        ParallelCrossValidator.iteration(train);
+        lastError = train.getError();
+        continuation = train.pause();
+        train.finishTraining();
+        batches++;
+        nn.modelUpdated();
+        if (checkpointInterval > 0 && batches % checkpointInterval == 0) {
+            checkpoint();
+        }
+    }
+
+    private void normalize(double[] values, TriangleTypes type, double[] input, double[] ideal) {
+        int index = 0;
+        for (int c = 0; c < values.length; c++) {
+            //mesmo isInput de VersatileMLDataSet.normalize, utilizado no treinamento original
+            index = strategy.normalizeColumn(inputColumns.get(c), true, values[c], input, index);
+        }
+        strategy.normalizeColumn(outputColumn, false, String.valueOf(type.getCharValue()), ideal, 0);
+    }
+
+    /**
+     * Atualiza a média e o desvio padrão (Welford, a partir dos valores salvos com o modelo) e, caso o valor esteja
+     * fora da faixa da coluna, amplia a faixa.
+     */
+    private void updateStatistics(int column, double value) {
+        ColumnDefinition col = inputColumns.get(column);
+        int count = col.getCount() + 1;
+        double delta = value - col.getMean();
+        double mean = col.getMean() + delta / count;
+        double m2 = col.getSd() * col.getSd() * col.getCount() + delta * (value - mean);
+        col.setCount(count);
+        col.setMean(mean);
+        col.setSd(Math.sqrt(m2 / count));
+        if (value < col.getLow() || value > col.getHigh()) {
+            widenRange(column, Math.min(value, col.getLow()), Math.max(value, col.getHigh()));
+        }
+    }
+
+    /**
+     * Altera a faixa da coluna, reescrevendo os pesos que saem do seu neurônio de entrada. A normalização é afim:
+     * n = a * x + b com a faixa atual e n' = a' * x + b' com a nova, portanto n = (a / a') * n' + (b - (a / a') * b'),
+     * e cada peso w passa a ser w * (a / a'), com w * (b - (a / a') * b') somado ao bias do neurônio de destino.
+     */
+    private void widenRange(int column, double low, double high) {
+        ColumnDefinition col = inputColumns.get(column);
+        double b = normalized(col, 0);
+        double a = normalized(col, 1) - b;
+        col.setLow(low);
+        col.setHigh(high);
+        double newB = normalized(col, 0);
+        double newA = normalized(col, 1) - newB;
+        double scale = a / newA;
+        double shift = b - scale * newB;
+
+        int bias = network.getLayerNeuronCount(0);
+        double biasActivation = network.getLayerBiasActivation(0);
+        for (int to = 0; to < network.getLayerNeuronCount(1); to++) {
+            double w = network.getWeight(0, column, to);
+            network.setWeight(0, column, to, w * scale);
+            network.addWeight(0, bias, to, w * shift / biasActivation);
+        }
+        //os exemplos do lote atual foram normalizados com a faixa anterior
+        for (int i = 0; i < pending; i++) {
+            inputs[i][column] = (inputs[i][column] - shift) / scale;
+        }
+        //o momentum guarda os últimos ajustes com a escala anterior
+        continuation = null;
+        rangeUpdates++;
+        nn.modelUpdated();
+        LOGGER.debug("Faixa da coluna {} ampliada para [{}, {}]", col.getName(), low, high);
+    }
+
+    private double normalized(ColumnDefinition col, double value) {
+        double[] res = new double[1];
+        strategy.normalizeColumn(col, true, value, res, 0);
+        return res[0];
+    }
+
+    /**
+     * Salva o modelo no arquivo de checkpoint, caso tenha sido informado.
+     */
+    public void checkpoint() {
+        if (checkpointFile == null) {
+            return;
+        }
+        File tmp = new File(checkpointFile.getAbsolutePath() + ".tmp");
+        nn.save(tmp);
+        try {
+            Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível salvar o checkpoint em " + checkpointFile.getAbsolutePath(), e);
+        }
+        LOGGER.info("Checkpoint salvo em {} ({} exemplos, {} lotes, erro do último lote {})", checkpointFile, samples,
+                batches, lastError);
+    }
+
+    private void allocateBatch() {
+        inputs = new double[batchSize][helper.calculateNormalizedInputCount()];
+        ideals = new double[batchSize][helper.calculateNormalizedOutputCount()];
+        pending = 0;
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public void setMomentum(double momentum) {
+        this.momentum = momentum;
+    }
+
+    /**
+     * Deve ser chamado antes do primeiro exemplo.
+     */
+    public void setBatchSize(int batchSize) {
+        if (pending > 0) {
+            throw new IllegalStateException("O tamanho do lote não pode ser alterado com exemplos pendentes");
+        }
+        this.batchSize = batchSize;
+        allocateBatch();
+    }
+
+    /**
+     * @param checkpointInterval quantidade de lotes entre os checkpoints, ou 0 para salvar somente em {@link #flush()}
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return quantas vezes a faixa de alguma coluna de entrada foi ampliada
+     */
+    public int getRangeUpdates() {
+        return rangeUpdates;
+    }
+
+    /**
+     * @return o erro do último lote treinado, calculado antes do ajuste dos pesos
+     */
+    public double getLastError() {
+        return lastError;
+    }
+}
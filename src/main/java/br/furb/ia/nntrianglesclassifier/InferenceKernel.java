@@ -0,0 +1,322 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.ml.data.versatile.NormalizationHelper;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.data.versatile.columns.ColumnType;
+import org.encog.ml.data.versatile.normalizers.Normalizer;
+import org.encog.ml.data.versatile.normalizers.OneOfNNormalizer;
+import org.encog.ml.data.versatile.normalizers.RangeNormalizer;
+import org.encog.ml.data.versatile.normalizers.strategies.BasicNormalizationStrategy;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
+import org.encog.neural.flat.FlatNetwork;
+import org.encog.neural.networks.BasicNetwork;
+
+import java.util.List;
+
+/**
+ * Classificação sem o Encog: os pesos da {@link BasicNetwork} treinada e os parâmetros de normalização do
+ * {@link NormalizationHelper} são copiados para vetores contíguos ({@link #export(BasicNetwork, NormalizationHelper,
+ * FeatureSet)}), e o cálculo da rede é feito sobre vetores alocados uma única vez, sem os objetos {@code MLData} criados
+ * a cada chamada de {@code MLRegression.compute}.
+ * <p>
+ * As operações são as mesmas, e na mesma ordem, de {@code FlatNetwork.compute} e da normalização do Encog, por isso o
+ * resultado é idêntico bit a bit ao da rede original. Os pesos ficam em ordem direta (da camada de entrada para a de
+ * saída) e, em cada camada, os pesos de um neurônio de saída são contíguos, seguidos do peso do bias.
+ * <p>
+ * Não é thread-safe, para classificar em várias threads utilize uma cópia por thread ({@link #copy()}), que compartilha
+ * os pesos.
+ */
+public class InferenceKernel {
+
+    private final FeatureSet featureSet;
+
+    //normalização das entradas: ((valor - low) / range) * normalizedRange + normalizedLow
+    private final double[] low;
+    private final double[] range;
+    private final double normalizedLow;
+    private final double normalizedRange;
+
+    //camadas em ordem direta; counts inclui o neurônio de bias, quando a camada possui um
+    private final int[] layerCounts;
+    private final int[] layerFeedCounts;
+    private final double[] biasActivation;
+    private final int[] weightIndex;
+    private final double[] weights;
+    private final ActivationFunction[] activations;
+
+    private final TriangleTypes[] classes;
+
+    private final double[] points;
+    private final double[] features;
+    private final double[] layerIn;
+    private final double[] layerOut;
+    private final double[] output;
+
+    private InferenceKernel(FeatureSet featureSet, double[] low, double[] range, double normalizedLow,
+                            double normalizedRange, int[] layerCounts, int[] layerFeedCounts, double[] biasActivation,
+                            int[] weightIndex, double[] weights, ActivationFunction[] activations, TriangleTypes[] classes) {
+        this.featureSet = featureSet;
+        this.low = low;
+        this.range = range;
+        this.normalizedLow = normalizedLow;
+        this.normalizedRange = normalizedRange;
+        this.layerCounts = layerCounts;
+        this.layerFeedCounts = layerFeedCounts;
+        this.biasActivation = biasActivation;
+        this.weightIndex = weightIndex;
+        this.weights = weights;
+        this.activations = activations;
+        this.classes = classes;
+        int max = 0;
+        for (int count : layerCounts) {
+            max = Math.max(max, count);
+        }
+        this.points = new double[FeatureSet.POINTS.size()];
+        this.features = new double[featureSet.size()];
+        this.layerIn = new double[max];
+        this.layerOut = new double[max];
+        this.output = new double[getOutputCount()];
+    }
+
+    /**
+     * @return uma cópia com vetores de trabalho próprios, que pode ser usada em outra thread
+     */
+    public InferenceKernel copy() {
+        ActivationFunction[] activationsCopy = new ActivationFunction[activations.length];
+        for (int i = 0; i < activations.length; i++) {
+            //a camada de entrada não possui função de ativação
+            activationsCopy[i] = activations[i] == null ? null : activations[i].clone();
+        }
+        return new InferenceKernel(featureSet, low, range, normalizedLow, normalizedRange, layerCounts, layerFeedCounts,
+                biasActivation, weightIndex, weights, activationsCopy, classes);
+    }
+
+    /**
+     * Copia os pesos da rede e os parâmetros de normalização.
+     *
+     * @throws IllegalArgumentException caso a rede seja recorrente ou a normalização não seja a
+     *                                  {@link BasicNormalizationStrategy} com colunas de entrada contínuas e uma coluna
+     *                                  de saída nominal, que é a utilizada pelo {@link NeuralNetwork}
+     */
+    public static InferenceKernel export(BasicNetwork network, NormalizationHelper helper, FeatureSet featureSet) {
+        FlatNetwork flat = network.getFlat();
+        if (flat.getHasContext()) {
+            throw new IllegalArgumentException("Redes recorrentes não são suportadas.");
+        }
+        if (!(helper.getNormStrategy() instanceof BasicNormalizationStrategy)) {
+            throw new IllegalArgumentException("Estratégia de normalização não suportada: " + helper.getNormStrategy());
+        }
+        BasicNormalizationStrategy strategy = (BasicNormalizationStrategy) helper.getNormStrategy();
+        //NeuralNetwork.predict normaliza as entradas com isInput = false, ou seja, com o normalizador de saída das
+        //colunas contínuas (que para TANH tem a mesma faixa do de entrada)
+        Normalizer inputNormalizer = strategy.getOutputNormalizers().get(ColumnType.continuous);
+        Normalizer outputNormalizer = strategy.getOutputNormalizers().get(ColumnType.nominal);
+        List<ColumnDefinition> inputColumns = helper.getInputColumns();
+        if (!(inputNormalizer instanceof RangeNormalizer) || !(outputNormalizer instanceof OneOfNNormalizer)
+                || helper.getOutputColumns().size() != 1 || inputColumns.size() != featureSet.size()) {
+            throw new IllegalArgumentException("Normalização não suportada: " + helper);
+        }
+
+        //RangeNormalizer não expõe a faixa normalizada, que é obtida normalizando os limites de uma coluna [0, 1]
+        ColumnDefinition unit = new ColumnDefinition("unit", ColumnType.continuous);
+        unit.setLow(0);
+        unit.setHigh(1);
+        double[] probe = new double[2];
+        inputNormalizer.normalizeColumn(unit, 0d, probe, 0);
+        inputNormalizer.normalizeColumn(unit, 1d, probe, 1);
+        double normalizedLow = probe[0];
+        double normalizedRange = probe[1] - probe[0];
+
+        double[] low = new double[inputColumns.size()];
+        double[] range = new double[inputColumns.size()];
+        for (int c = 0; c < low.length; c++) {
+            ColumnDefinition col = inputColumns.get(c);
+            if (col.getDataType() != ColumnType.continuous) {
+                throw new IllegalArgumentException("Coluna de entrada não contínua: " + col);
+            }
+            low[c] = col.getLow();
+            range[c] = col.getHigh() - col.getLow();
+        }
+
+        List<String> outputClasses = helper.getOutputColumns().get(0).getClasses();
+        TriangleTypes[] classes = new TriangleTypes[outputClasses.size()];
+        for (int i = 0; i < classes.length; i++) {
+            for (TriangleTypes t : TriangleTypes.values()) {
+                if (outputClasses.get(i).equals(String.valueOf(t.getCharValue()))) {
+                    classes[i] = t;
+                }
+            }
+        }
+
+        //o FlatNetwork guarda as camadas da saída para a entrada
+        int layers = flat.getLayerCounts().length;
+        int[] layerCounts = new int[layers];
+        int[] layerFeedCounts = new int[layers];
+        double[] biasActivation = new double[layers];
+        for (int i = 0; i < layers; i++) {
+            int flatLayer = layers - 1 - i;
+            layerCounts[i] = flat.getLayerCounts()[flatLayer];
+            layerFeedCounts[i] = flat.getLayerFeedCounts()[flatLayer];
+            biasActivation[i] = layerCounts[i] > layerFeedCounts[i] ? flat.getBiasActivation()[flatLayer] : 0;
+        }
+        int[] weightIndex = new int[layers];
+        double[] weights = new double[flat.getWeights().length];
+        ActivationFunction[] activations = new ActivationFunction[layers];
+        for (int i = 0; i < layers - 1; i++) {
+            int size = layerFeedCounts[i + 1] * layerCounts[i];
+            weightIndex[i + 1] = weightIndex[i] + size;
+            System.arraycopy(flat.getWeights(), flat.getWeightIndex()[layers - 2 - i], weights, weightIndex[i], size);
+            activations[i + 1] = flat.getActivationFunctions()[layers - 2 - i].clone();
+        }
+
+        InferenceKernel kernel = new InferenceKernel(featureSet, low, range, normalizedLow, normalizedRange,
+                layerCounts, layerFeedCounts, biasActivation, weightIndex, weights, activations, classes);
+        kernel.verifyNormalization(strategy, inputColumns);
+        return kernel;
+    }
+
+    /**
+     * Confere se a faixa obtida em {@link #export(BasicNetwork, NormalizationHelper, FeatureSet)} reproduz exatamente a
+     * normalização do Encog nos limites e na média de cada coluna.
+     */
+    private void verifyNormalization(NormalizationStrategy strategy, List<ColumnDefinition> inputColumns) {
+        double[] expected = new double[1];
+        for (int c = 0; c < inputColumns.size(); c++) {
+            ColumnDefinition col = inputColumns.get(c);
+            for (double value : new double[]{col.getLow(), col.getHigh(), col.getMean()}) {
+                strategy.normalizeColumn(col, false, value, expected, 0);
+                if (Double.doubleToLongBits(expected[0]) != Double.doubleToLongBits(normalize(c, value))) {
+                    throw new IllegalArgumentException("Normalização da coluna " + col.getName() + " não reproduzida.");
+                }
+            }
+        }
+    }
+
+    private double normalize(int column, double value) {
+        return normalize(value, low[column], range[column], normalizedLow, normalizedRange);
+    }
+
+    /**
+     * Mesmas operações de {@link RangeNormalizer}, inclusive o valor do meio da faixa quando o resultado é NaN. Também
+     * utilizado pelo {@link QuantizedKernel}.
+     */
+    static double normalize(double value, double low, double range, double normalizedLow, double normalizedRange) {
+        double res = ((value - low) / range) * normalizedRange + normalizedLow;
+        if (Double.isNaN(res)) {
+            res = normalizedRange / 2 + normalizedLow;
+        }
+        return res;
+    }
+
+    /**
+     * Calcula as colunas de entrada das coordenadas e as normaliza, sem alocar memória.
+     *
+     * @param dest vetor que recebe a entrada da rede, sem o bias
+     */
+    private void normalizeInputs(double[] points, double[] dest) {
+        featureSet.extract(points, features);
+        for (int c = 0; c < features.length; c++) {
+            dest[c] = normalize(c, features[c]);
+        }
+    }
+
+    /**
+     * @return uma cópia da rede com os pesos quantizados em 8 bits, ver {@link QuantizedKernel}. A cópia não referencia
+     * os pesos em double, somente os parâmetros de normalização das entradas
+     */
+    public QuantizedKernel quantize() {
+        return new QuantizedKernel(featureSet, low, range, normalizedLow, normalizedRange, layerCounts, layerFeedCounts,
+                biasActivation, weightIndex, weights, activations, classes);
+    }
+
+    /**
+     * @return o tamanho dos pesos em bytes
+     */
+    public int getWeightBytes() {
+        return weights.length * Double.BYTES;
+    }
+
+    public FeatureSet getFeatureSet() {
+        return featureSet;
+    }
+
+    public int getOutputCount() {
+        return layerFeedCounts[layerFeedCounts.length - 1];
+    }
+
+    /**
+     * Calcula a saída da rede, sem alocar memória.
+     *
+     * @param points coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y
+     * @param output vetor com pelo menos {@link #getOutputCount()} posições que recebe a saída da rede
+     */
+    public void compute(double[] points, double[] output) {
+        double[] in = layerIn;
+        double[] out = layerOut;
+        normalizeInputs(points, in);
+        for (int layer = 0; layer < layerCounts.length - 1; layer++) {
+            int inputCount = layerCounts[layer];
+            if (inputCount > layerFeedCounts[layer]) {
+                in[layerFeedCounts[layer]] = biasActivation[layer];
+            }
+            int outputCount = layerFeedCounts[layer + 1];
+            int w = weightIndex[layer];
+            for (int o = 0; o < outputCount; o++) {
+                double sum = 0;
+                for (int i = 0; i < inputCount; i++) {
+                    sum += weights[w++] * in[i];
+                }
+                out[o] = sum;
+            }
+            activations[layer + 1].activationFunction(out, 0, outputCount);
+            double[] tmp = in;
+            in = out;
+            out = tmp;
+        }
+        System.arraycopy(in, 0, output, 0, getOutputCount());
+    }
+
+    /**
+     * Classifica o triangulo sem alocar memória. A classe é a da maior saída, a primeira em caso de empate, como em
+     * {@link OneOfNNormalizer}.
+     *
+     * @param points coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y
+     */
+    public TriangleTypes classify(double[] points) {
+        compute(points, output);
+        double max = Double.NEGATIVE_INFINITY;
+        int best = 0;
+        for (int i = 0; i < output.length; i++) {
+            if (output[i] > max) {
+                max = output[i];
+                best = i;
+            }
+        }
+        return classes[best];
+    }
+
+    public TriangleTypes classify(TrianglePrincipalPoints triangle) {
+        Pixel one = triangle.getOne();
+        Pixel two = triangle.getTwo();
+        Pixel three = triangle.getThree();
+        points[0] = one.x;
+        points[1] = one.y;
+        points[2] = two.x;
+        points[3] = two.y;
+        points[4] = three.x;
+        points[5] = three.y;
+        return classify(points);
+    }
+
+    /**
+     * @param points coordenadas de cada exemplo, ver {@link #classify(double[])}
+     */
+    public TriangleTypes[] classify(double[][] points) {
+        TriangleTypes[] res = new TriangleTypes[points.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = classify(points[i]);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,81 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Ranking dos resultados de {@link HyperparameterSearch}, da maior para a menor acurácia (e, entre acurácias iguais,
+ * da menor para a maior latência), com a latência de inferência e o tamanho de cada modelo.
+ */
+public class Leaderboard {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final List<TrialResult> results;
+
+    public Leaderboard(List<TrialResult> results) {
+        List<TrialResult> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(TrialResult::getAccuracy).reversed()
+                .thenComparingDouble(TrialResult::getLatencyMicros));
+        this.results = Collections.unmodifiableList(sorted);
+    }
+
+    public List<TrialResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @param accuracyTarget acurácia mínima, de 0 a 1
+     * @return o resultado de menor latência entre os que atingem a acurácia informada, ou null caso nenhum a atinja
+     */
+    public TrialResult fastestWithAccuracy(double accuracyTarget) {
+        TrialResult res = null;
+        for (TrialResult r : results) {
+            if (r.getAccuracy() >= accuracyTarget && (res == null || r.getLatencyMicros() < res.getLatencyMicros())) {
+                res = r;
+            }
+        }
+        return res;
+    }
+
+    public void log() {
+        StringBuilder table = new StringBuilder("Leaderboard:");
+        int position = 0;
+        for (TrialResult r : results) {
+            table.append(System.lineSeparator()).append(++position).append(". ").append(r);
+        }
+        LOGGER.info(table);
+    }
+
+    public void writeToCSV(File csvDestPath) {
+        String[] csvHeaders = new String[]{"method", "architecture", "training", "trainingArgs", "iterations", "accuracy",
+                "validationError", "latencyMicros", "modelBytes", "trainingMillis"};
+        try (FileWriter fw = new FileWriter(csvDestPath)) {
+            try (CSVPrinter p = new CSVPrinter(fw, CSVFormat.DEFAULT.withHeader(csvHeaders))) {
+                for (TrialResult r : results) {
+                    SearchCandidate c = r.getCandidate();
+                    p.printRecord(c.getMethodType(), c.getMethodArgs(), c.getTrainingType(), c.getTrainingArgs(),
+                            r.getIterations(), format(r.getAccuracy()), format(r.getValidationError()),
+                            format(r.getLatencyMicros()), r.getModelBytes(), r.getTrainingMillis());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível salvar o leaderboard em " + csvDestPath.getAbsolutePath(), e);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -0,0 +1,165 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instrumentação das etapas do pré-processamento, do treinamento e da classificação ({@link PipelineStage}): quantidade
+ * de execuções, falhas e histograma de latências ({@link StageMetrics}) de cada etapa.
+ * <p>
+ * Desabilitada por padrão: nesse caso {@link #start()} não lê o relógio e {@link #record(PipelineStage, long)} e
+ * {@link #failure(PipelineStage)} retornam após a leitura de um único campo. Quando habilitada
+ * ({@link #enable(File, long)}) as métricas são expostas via JMX (domínio {@value #JMX_DOMAIN}, um MXBean por etapa) e
+ * gravadas periodicamente em um arquivo CSV local.
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.record(PipelineStage.EDGES, start);
+ * </pre>
+ */
+public final class Metrics {
+
+    public static final String JMX_DOMAIN = "br.furb.ia.nntrianglesclassifier";
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final StageMetrics[] STAGES = new StageMetrics[PipelineStage.values().length];
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) {
+            STAGES[i] = new StageMetrics();
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static ScheduledExecutorService snapshots;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return o instante inicial a ser informado em {@link #record(PipelineStage, long)}, ou 0 caso as métricas estejam
+     * desabilitadas
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Registra a latência da etapa desde {@code start}, obtido de {@link #start()}.
+     */
+    public static void record(PipelineStage stage, long start) {
+        if (enabled && start != 0) {
+            STAGES[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public static void failure(PipelineStage stage) {
+        if (enabled) {
+            STAGES[stage.ordinal()].failure();
+        }
+    }
+
+    public static StageMetrics get(PipelineStage stage) {
+        return STAGES[stage.ordinal()];
+    }
+
+    /**
+     * Habilita as métricas, registra os MXBeans das etapas e passa a gravar o snapshot das métricas no arquivo informado
+     * a cada {@code periodMillis} e ao término da aplicação.
+     *
+     * @param snapshotFile arquivo CSV do snapshot, ou null para somente expor as métricas via JMX
+     */
+    public static synchronized void enable(File snapshotFile, long periodMillis) {
+        if (enabled) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (PipelineStage stage : PipelineStage.values()) {
+            try {
+                ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Metrics,stage=" + stage.name());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(get(stage), name);
+                }
+            } catch (JMException e) {
+                throw new RuntimeException("Não foi possível registrar as métricas da etapa " + stage + " via JMX", e);
+            }
+        }
+        if (snapshotFile != null) {
+            snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshots.scheduleAtFixedRate(() -> writeSnapshotQuietly(snapshotFile), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> writeSnapshotQuietly(snapshotFile)));
+        }
+        enabled = true;
+        LOGGER.info("Métricas habilitadas" + (snapshotFile != null ? ", snapshot gravado em " + snapshotFile.getAbsolutePath() : ""));
+    }
+
+    /**
+     * Interrompe o registro e a gravação periódica do snapshot. As métricas já registradas são mantidas.
+     */
+    public static synchronized void disable() {
+        enabled = false;
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+            snapshots = null;
+        }
+    }
+
+    private static void writeSnapshotQuietly(File dest) {
+        try {
+            writeSnapshot(dest);
+        } catch (RuntimeException e) {
+            LOGGER.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Grava as métricas de todas as etapas em um arquivo CSV, uma linha por etapa. O arquivo é substituído somente após
+     * ser gravado por completo, portanto nunca é lido pela metade.
+     */
+    public static void writeSnapshot(File dest) {
+        String[] csvHeaders = new String[]{"stage", "count", "failures", "meanMillis", "p50Millis", "p90Millis",
+                "p99Millis", "maxMillis"};
+        File tmp = new File(dest.getAbsolutePath() + ".tmp");
+        try (FileWriter fw = new FileWriter(tmp)) {
+            try (CSVPrinter p = new CSVPrinter(fw, CSVFormat.DEFAULT.withHeader(csvHeaders))) {
+                for (PipelineStage stage : PipelineStage.values()) {
+                    StageMetrics m = get(stage);
+                    p.printRecord(stage, m.getCount(), m.getFailures(), format(m.getMeanMillis()),
+                            format(m.getP50Millis()), format(m.getP90Millis()), format(m.getP99Millis()),
+                            format(m.getMaxMillis()));
+                }
+            }
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível gravar o snapshot das métricas em " + dest.getAbsolutePath(), e);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
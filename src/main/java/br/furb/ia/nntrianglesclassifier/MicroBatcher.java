@@ -0,0 +1,147 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agrupa as classificações solicitadas concorrentemente em pequenos lotes, classificados de uma só vez através de
+ * {@link NeuralNetwork#predictBatch(List)}. Um lote é fechado quando atinge o tamanho máximo ou quando o primeiro
+ * exemplo do lote espera pelo tempo máximo configurado.
+ * <p>
+ * Os lotes são classificados por uma única thread, já que {@link NeuralNetwork#predictBatch(double[][])} não é
+ * thread-safe.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final NeuralNetwork nn;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<PendingClassification> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong classified = new AtomicLong();
+    private volatile boolean closed;
+
+    private static final class PendingClassification {
+        final TrianglePrincipalPoints points;
+        final CompletableFuture<TriangleTypes> result = new CompletableFuture<>();
+
+        PendingClassification(TrianglePrincipalPoints points) {
+            this.points = points;
+        }
+    }
+
+    /**
+     * @param maxBatchSize  quantidade máxima de exemplos classificados em um mesmo lote
+     * @param maxWaitMillis tempo máximo que o primeiro exemplo de um lote espera por outros exemplos
+     */
+    public MicroBatcher(NeuralNetwork nn, int maxBatchSize, long maxWaitMillis) {
+        this.nn = nn;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.worker = new Thread(this::run, "micro-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public CompletableFuture<TriangleTypes> submit(TrianglePrincipalPoints points) {
+        PendingClassification pending = new PendingClassification(points);
+        if (closed) {
+            pending.result.completeExceptionally(new IllegalStateException("Classificador encerrado"));
+        } else {
+            queue.add(pending);
+            //o classificador pode ter sido encerrado depois da verificação acima, após esvaziar a fila
+            if (closed && queue.remove(pending)) {
+                pending.result.completeExceptionally(new IllegalStateException("Classificador encerrado"));
+            }
+        }
+        return pending.result;
+    }
+
+    /**
+     * @return quantidade de exemplos aguardando classificação
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getClassifiedCount() {
+        return classified.get();
+    }
+
+    private void run() {
+        List<PendingClassification> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    PendingClassification next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                classify(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failAll(batch);
+        List<PendingClassification> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        failAll(remaining);
+    }
+
+    private void classify(List<PendingClassification> batch) {
+        List<TrianglePrincipalPoints> points = new ArrayList<>(batch.size());
+        for (PendingClassification p : batch) {
+            points.add(p.points);
+        }
+        try {
+            TriangleTypes[] types = nn.predictBatch(points);
+            for (int i = 0; i < types.length; i++) {
+                batch.get(i).result.complete(types[i]);
+            }
+            batches.incrementAndGet();
+            classified.addAndGet(types.length);
+        } catch (Throwable e) {
+            //inclusive Error (e.g.: OutOfMemoryError), caso contrário as requisições do lote nunca seriam respondidas
+            LOGGER.error("Não foi possível classificar um lote de " + batch.size() + " exemplos", e);
+            for (PendingClassification p : batch) {
+                p.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void failAll(List<PendingClassification> pending) {
+        for (PendingClassification p : pending) {
+            p.result.completeExceptionally(new IllegalStateException("Classificador encerrado"));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+}
@@ -1,55 +1,101 @@
 package br.furb.ia.nntrianglesclassifier;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.encog.ConsoleStatusReportable;
 import org.encog.Encog;
 import org.encog.ml.MLRegression;
 import org.encog.ml.data.MLData;
+import org.encog.ml.data.basic.BasicMLData;
 import org.encog.ml.data.versatile.NormalizationHelper;
 import org.encog.ml.data.versatile.VersatileMLDataSet;
 import org.encog.ml.data.versatile.columns.ColumnDefinition;
 import org.encog.ml.data.versatile.columns.ColumnType;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
 import org.encog.ml.data.versatile.sources.CSVDataSource;
 import org.encog.ml.data.versatile.sources.VersatileDataSource;
 import org.encog.ml.factory.MLMethodFactory;
 import org.encog.ml.model.EncogModel;
+import org.encog.neural.networks.BasicNetwork;
 import org.encog.util.csv.CSVFormat;
 import org.encog.util.csv.ReadCSV;
 import org.encog.util.simple.EncogUtility;
 
-import java.io.File;
+import java.io.*;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Created by Thomas.Adriano on 09/06/2016.
  */
 public class NeuralNetwork implements AutoCloseable {
 
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MODEL_FILE_MAGIC = 0x4E4E5443;
+    private static final int MODEL_FILE_VERSION = 2;
+    private static final int CROSS_VALIDATION_FOLDS = 5;
+    private static final int SEED = 1001;
+    private static final int PREDICT_BATCH_SIZE = 1024;
+
     private VersatileMLDataSet data;
+    private NormalizationHelper helper;
     private MLRegression bestMethod;
+    private String methodType;
+    private String methodArgs;
+    private FeatureSet featureSet = FeatureSet.POINTS;
+    private InferenceKernel kernel;
 
     public void train(final File trainingData) {
-        VersatileDataSource ds = new CSVDataSource(trainingData, true, CSVFormat.DECIMAL_POINT);
-        // Define the format of the data file.
-        // This area will change, depending on the columns and
-        // format of the file that you are trying to model.
-        data = new VersatileMLDataSet(ds);
-        data.defineSourceColumn("p1x", 0, ColumnType.continuous);
-        data.defineSourceColumn("p1y", 1, ColumnType.continuous);
-        data.defineSourceColumn("p2x", 2, ColumnType.continuous);
-        data.defineSourceColumn("p2y", 3, ColumnType.continuous);
-        data.defineSourceColumn("p3x", 4, ColumnType.continuous);
-        data.defineSourceColumn("p3y", 5, ColumnType.continuous);
+        EncogModel model = prepare(trainingData, FeatureSet.POINTS, null);
 
-        // Define the column that we are trying to predict.
-        ColumnDefinition outputColumn = data.defineSourceColumn("type", 6,
-                ColumnType.nominal);
+        // Use a 5-fold cross-validated train.  Return the best method found.
+        bestMethod = (MLRegression) model.crossvalidate(CROSS_VALIDATION_FOLDS, true);
 
-        // Analyze the data, determine the min/max/mean/sd of every column.
-        data.analyze();
+        report(model);
+    }
 
-        // Map the prediction column to the output of the model, and all
-        // other columns to the input.
-        data.defineSingleOutputOthersInput(outputColumn);
+    /**
+     * Mesmo que {@link #train(File)}, mas os folds da validação cruzada (e as arquiteturas candidatas) são treinados
+     * ao mesmo tempo no executor informado, ver {@link ParallelCrossValidator}. O resultado é sempre o mesmo para os
+     * mesmos dados, independente do executor.
+     *
+     * @param architectures arquiteturas feedforward candidatas, e.g.: "?:B->TANH->20:B->TANH->?". Sem nenhuma
+     *                      arquitetura é utilizada a sugerida pelo Encog.
+     */
+    public void train(final File trainingData, ExecutorService executor, String... architectures) {
+        train(trainingData, FeatureSet.POINTS, executor, architectures);
+    }
+
+    /**
+     * Mesmo que {@link #train(File, ExecutorService, String...)}, com as colunas de entrada do conjunto informado
+     * calculadas a partir das coordenadas dos dados de treinamento. O conjunto é salvo junto com o modelo e aplicado
+     * da mesma forma na classificação.
+     */
+    public void train(final File trainingData, FeatureSet featureSet, ExecutorService executor, String... architectures) {
+        EncogModel model = prepare(trainingData, featureSet, architectures.length > 0 ? architectures[0] : null);
+        List<String> candidates = architectures.length > 0 ? Arrays.asList(architectures) : Collections.singletonList(methodArgs);
+
+        ParallelCrossValidator.Result result = new ParallelCrossValidator(model, data, methodType, executor,
+                CROSS_VALIDATION_FOLDS, SEED).crossvalidate(model.getTrainingDataset(), candidates);
+        bestMethod = (MLRegression) result.getBestMethod();
+        methodArgs = result.getMethodArgs();
+        System.out.println("Cross-validated score: " + result.getScore() + " (" + methodArgs + ")");
+
+        report(model);
+    }
+
+    /**
+     * Loads and normalizes the training data and selects the method and training type.
+     *
+     * @param architecture feedforward architecture used to choose the normalization, or null for Encog's suggestion
+     */
+    private EncogModel prepare(final File trainingData, FeatureSet featureSet, String architecture) {
+        this.featureSet = featureSet;
+        data = loadDataSet(trainingData, featureSet);
 
         // Create feedforward neural network as the model type. MLMethodFactory.TYPE_FEEDFORWARD.
         // You could also other model types, such as:
@@ -58,7 +104,16 @@ public class NeuralNetwork implements AutoCloseable {
         // MLMethodFactor.TYPE_NEAT: NEAT Neural Network
         // MLMethodFactor.TYPE_PNN: Probabilistic Neural Network
         EncogModel model = new EncogModel(data);
-        model.selectMethod(data, MLMethodFactory.TYPE_FEEDFORWARD);
+        methodType = MLMethodFactory.TYPE_FEEDFORWARD;
+        model.selectMethod(data, methodType);
+        if (architecture == null) {
+            // Same architecture chosen by selectMethod, kept so the normalization strategy can be rebuilt on load.
+            methodArgs = model.getMethodConfigurations().get(methodType).suggestModelArchitecture(data);
+        } else {
+            methodArgs = architecture;
+            data.getNormHelper().setStrategy(model.getMethodConfigurations().get(methodType)
+                    .suggestNormalizationStrategy(data, methodArgs));
+        }
 
         // Send any output to the console.
         model.setReport(new ConsoleStatusReportable());
@@ -70,27 +125,89 @@ public class NeuralNetwork implements AutoCloseable {
         // Hold back some data for a final validation.
         // Shuffle the data into a random ordering.
         // Use a seed of 1001 so that we always use the same holdback and will get more consistent results.
-        model.holdBackValidation(0.3, true, 1001);
+        model.holdBackValidation(0.3, true, SEED);
 
         // Choose whatever is the default training type for this model.
         model.selectTrainingType(data);
+        return model;
+    }
 
-        // Use a 5-fold cross-validated train.  Return the best method found.
-        bestMethod = (MLRegression) model.crossvalidate(5, true);
+    /**
+     * Reads the training CSV, analyzes it and maps the "type" column to the output and all other columns to the input.
+     * A {@link FeatureDataFile} is mapped instead, its header already holds the analysis results.
+     */
+    static VersatileMLDataSet loadDataSet(final File trainingData) {
+        return loadDataSet(trainingData, FeatureSet.POINTS);
+    }
+
+    /**
+     * Same as {@link #loadDataSet(File)}, but the input columns are the ones from the feature set, computed from the
+     * point coordinates while reading.
+     */
+    static VersatileMLDataSet loadDataSet(final File trainingData, FeatureSet featureSet) {
+        if (FeatureDataFile.isFeatureFile(trainingData)) {
+            return FeatureDataFile.open(trainingData).toDataSet(featureSet);
+        }
+        VersatileDataSource ds = featureSet.wrap(new CSVDataSource(trainingData, true, CSVFormat.DECIMAL_POINT));
+        // Define the format of the data file.
+        // This area will change, depending on the columns and
+        // format of the file that you are trying to model.
+        VersatileMLDataSet data = new VersatileMLDataSet(ds);
+        String[] columns = featureSet.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            data.defineSourceColumn(columns[i], i, ColumnType.continuous);
+        }
+
+        // Define the column that we are trying to predict.
+        ColumnDefinition outputColumn = data.defineSourceColumn("type", columns.length,
+                ColumnType.nominal);
+
+        // Analyze the data, determine the min/max/mean/sd of every column.
+        data.analyze();
 
+        // Map the prediction column to the output of the model, and all
+        // other columns to the input.
+        data.defineSingleOutputOthersInput(outputColumn);
+        return data;
+    }
+
+    private void report(EncogModel model) {
         // Display the training and validation errors.
         System.out.println("Training error: " + EncogUtility.calculateRegressionError(bestMethod, model.getTrainingDataset()));
         System.out.println("Validation error: " + EncogUtility.calculateRegressionError(bestMethod, model.getValidationDataset()));
 
         // Display our normalization parameters.
-        NormalizationHelper helper = data.getNormHelper();
+        helper = data.getNormHelper();
         System.out.println(helper.toString());
 
         // Display the final model.
         System.out.println("Final model: " + bestMethod);
+        kernel = exportKernel();
+    }
+
+    /**
+     * Copia a rede treinada para um {@link InferenceKernel}, utilizado por {@link #predictBatch(double[][])}.
+     *
+     * @return o kernel, ou null caso o modelo não seja uma {@link BasicNetwork} com a normalização suportada
+     */
+    public InferenceKernel exportKernel() {
+        if (!(bestMethod instanceof BasicNetwork)) {
+            return null;
+        }
+        try {
+            return InferenceKernel.export((BasicNetwork) bestMethod, helper, featureSet);
+        } catch (IllegalArgumentException e) {
+            //a classificação continua funcionando, porém através do Encog, bem mais lento
+            LOGGER.warn("Kernel de inferência indisponível, utilizando o modelo do Encog: " + e.getMessage(), e);
+            return null;
+        }
     }
 
     public void predict(File predictData) {
+        if (FeatureDataFile.isFeatureFile(predictData)) {
+            predict(FeatureDataFile.open(predictData));
+            return;
+        }
         // Loop over the entire, original, dataset and feed it through the model.
         // This also shows how you would process new data, that was not part of your
         // training set.  You do not need to retrain, simply use the NormalizationHelper
@@ -99,7 +216,8 @@ public class NeuralNetwork implements AutoCloseable {
 
         ReadCSV csv = new ReadCSV(predictData, false, CSVFormat.DECIMAL_POINT);
         String[] line = new String[7];
-        NormalizationHelper helper = data.getNormHelper();
+        double[] points = new double[FeatureSet.POINTS.size()];
+        String[] features = new String[featureSet.size()];
         MLData input = helper.allocateInputVector();
 
         while (csv.next()) {
@@ -112,7 +230,18 @@ public class NeuralNetwork implements AutoCloseable {
             line[5] = csv.get(5);
             line[6] = csv.get(6);
             String correct = csv.get(6);
-            helper.normalizeInputVector(line, input.getData(), false);
+            if (featureSet == FeatureSet.POINTS) {
+                helper.normalizeInputVector(line, input.getData(), false);
+            } else {
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = Double.parseDouble(line[i]);
+                }
+                double[] values = featureSet.extract(points);
+                for (int i = 0; i < values.length; i++) {
+                    features[i] = Double.toString(values[i]);
+                }
+                helper.normalizeInputVector(features, input.getData(), false);
+            }
 
             MLData output = bestMethod.compute(input);
             String triangleChoosen = helper.denormalizeOutputVectorToString(output)[0];
@@ -128,6 +257,227 @@ public class NeuralNetwork implements AutoCloseable {
         }
     }
 
+    /**
+     * Mesma saída de {@link #predict(File)} para o arquivo CSV equivalente, mas os exemplos são lidos do arquivo mapeado
+     * e classificados em lotes através de {@link #predictBatch(double[][])}.
+     */
+    public void predict(FeatureDataFile predictData) {
+        String[] line = new String[predictData.getInputCount() + 1];
+        for (int from = 0; from < predictData.size(); from += PREDICT_BATCH_SIZE) {
+            int to = Math.min(from + PREDICT_BATCH_SIZE, predictData.size());
+            TriangleTypes[] predicted = predictBatch(predictData.features(from, to));
+            for (int row = from; row < to; row++) {
+                for (int c = 0; c < predictData.getInputCount(); c++) {
+                    line[c] = String.valueOf(predictData.get(row, c));
+                }
+                String correct = predictData.getLabel(row);
+                line[line.length - 1] = correct;
+                System.out.println(Arrays.toString(line) + " -> predicted: " + predicted[row - from].getCharValue()
+                        + "(correct: " + correct + ")");
+            }
+        }
+    }
+
+    /**
+     * Classifica um lote de exemplos já convertidos para números, sem a conversão para texto feita por
+     * {@link #predict(File)}. Cada linha deve conter as coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y, convertidas
+     * para as colunas de entrada através do {@link FeatureSet} utilizado no treinamento. Os vetores de entrada e saída
+     * são alocados uma única vez e reaproveitados por todas as linhas do lote. Quando a rede pode ser exportada, o
+     * cálculo é feito pelo {@link InferenceKernel}, com o mesmo resultado.
+     * <p>
+     * Não é thread-safe, a rede guarda o estado das camadas durante o cálculo.
+     */
+    public TriangleTypes[] predictBatch(double[][] features) {
+        long start = Metrics.start();
+        TriangleTypes[] res = classify(features);
+        Metrics.record(PipelineStage.INFERENCE, start);
+        return res;
+    }
+
+    private TriangleTypes[] classify(double[][] features) {
+        if (kernel != null) {
+            return kernel.classify(features);
+        }
+        List<ColumnDefinition> inputColumns = helper.getInputColumns();
+        ColumnDefinition outputColumn = helper.getOutputColumns().get(0);
+        NormalizationStrategy strategy = helper.getNormStrategy();
+        Map<String, TriangleTypes> typesByClass = new HashMap<>();
+        for (TriangleTypes t : TriangleTypes.values()) {
+            typesByClass.put(String.valueOf(t.getCharValue()), t);
+        }
+
+        MLData input = helper.allocateInputVector();
+        MLData output = new BasicMLData(bestMethod.getOutputCount());
+        double[] in = input.getData();
+        double[] out = output.getData();
+        // A BasicNetwork can compute straight into our buffers, other methods allocate their own output.
+        BasicNetwork network = bestMethod instanceof BasicNetwork ? (BasicNetwork) bestMethod : null;
+
+        TriangleTypes[] res = new TriangleTypes[features.length];
+        for (int row = 0; row < features.length; row++) {
+            double[] values = featureSet.extract(features[row]);
+            int index = 0;
+            for (int col = 0; col < inputColumns.size(); col++) {
+                // Same isInput flag used by helper.normalizeInputVector in predict(File), so both paths agree.
+                index = strategy.normalizeColumn(inputColumns.get(col), false, values[col], in, index);
+            }
+            if (network != null) {
+                network.getFlat().compute(in, out);
+            } else {
+                System.arraycopy(bestMethod.compute(input).getData(), 0, out, 0, out.length);
+            }
+            res[row] = typesByClass.get(strategy.denormalizeColumn(outputColumn, false, output, 0));
+        }
+        return res;
+    }
+
+    /**
+     * Classifica os pontos principais extraídos das imagens, ver {@link #predictBatch(double[][])}.
+     */
+    public TriangleTypes[] predictBatch(List<TrianglePrincipalPoints> points) {
+        if (kernel != null) {
+            long start = Metrics.start();
+            TriangleTypes[] res = new TriangleTypes[points.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = kernel.classify(points.get(i));
+            }
+            Metrics.record(PipelineStage.INFERENCE, start);
+            return res;
+        }
+        double[][] features = new double[points.size()][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = points.get(i).features();
+        }
+        return predictBatch(features);
+    }
+
+    /**
+     * Salva o modelo treinado junto com os parametros de normalização em um arquivo binário, permitindo que a
+     * classificação seja feita posteriormente sem um novo treinamento (ver {@link #load(File)}).
+     */
+    public void save(File modelFile) {
+        if (bestMethod == null) {
+            throw new IllegalStateException("Não existe modelo treinado para ser salvo.");
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(modelFile)))) {
+            out.writeInt(MODEL_FILE_MAGIC);
+            out.writeInt(MODEL_FILE_VERSION);
+            out.writeUTF(methodType);
+            out.writeUTF(methodArgs);
+            out.writeUTF(featureSet.name());
+
+            List<ColumnDefinition> sourceColumns = helper.getSourceColumns();
+            out.writeInt(sourceColumns.size());
+            for (ColumnDefinition col : sourceColumns) {
+                out.writeUTF(col.getName());
+                out.writeInt(col.getIndex());
+                out.writeUTF(col.getDataType().name());
+                out.writeDouble(col.getLow());
+                out.writeDouble(col.getHigh());
+                out.writeDouble(col.getMean());
+                out.writeDouble(col.getSd());
+                out.writeInt(col.getCount());
+                out.writeInt(col.getClasses().size());
+                for (String c : col.getClasses()) {
+                    out.writeUTF(c);
+                }
+            }
+            writeColumnIndexes(out, sourceColumns, helper.getInputColumns());
+            writeColumnIndexes(out, sourceColumns, helper.getOutputColumns());
+
+            out.writeObject(bestMethod);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível salvar o modelo em " + modelFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Carrega um modelo salvo através de {@link #save(File)}, pronto para {@link #predict(File)}.
+     */
+    public static NeuralNetwork load(File modelFile) {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(modelFile)))) {
+            if (in.readInt() != MODEL_FILE_MAGIC) {
+                throw new IOException("Formato de arquivo de modelo desconhecido");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > MODEL_FILE_VERSION) {
+                throw new IOException("Versão de arquivo de modelo desconhecida: " + version);
+            }
+            NeuralNetwork nn = new NeuralNetwork();
+            nn.methodType = in.readUTF();
+            nn.methodArgs = in.readUTF();
+            // Version 1 models were always trained on the raw point coordinates.
+            nn.featureSet = version >= 2 ? FeatureSet.valueOf(in.readUTF()) : FeatureSet.POINTS;
+
+            NormalizationHelper helper = new NormalizationHelper();
+            int sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                String name = in.readUTF();
+                int index = in.readInt();
+                ColumnDefinition col = helper.defineSourceColumn(name, index, ColumnType.valueOf(in.readUTF()));
+                col.setLow(in.readDouble());
+                col.setHigh(in.readDouble());
+                col.setMean(in.readDouble());
+                col.setSd(in.readDouble());
+                col.setCount(in.readInt());
+                int classCount = in.readInt();
+                for (int c = 0; c < classCount; c++) {
+                    col.defineClass(in.readUTF());
+                }
+            }
+            readColumnIndexes(in, helper.getSourceColumns(), helper.getInputColumns());
+            readColumnIndexes(in, helper.getSourceColumns(), helper.getOutputColumns());
+
+            // The strategy holds no trained state, it is recreated exactly as EncogModel.selectMethod does.
+            VersatileMLDataSet ds = new VersatileMLDataSet(null);
+            ds.setNormHelper(helper);
+            NormalizationStrategy strategy = new EncogModel(ds).getMethodConfigurations().get(nn.methodType)
+                    .suggestNormalizationStrategy(ds, nn.methodArgs);
+            helper.setStrategy(strategy);
+            nn.helper = helper;
+
+            nn.bestMethod = (MLRegression) in.readObject();
+            nn.kernel = nn.exportKernel();
+            return nn;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Não foi possível carregar o modelo de " + modelFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static void writeColumnIndexes(DataOutput out, List<ColumnDefinition> sourceColumns, List<ColumnDefinition> columns) throws IOException {
+        out.writeInt(columns.size());
+        for (ColumnDefinition col : columns) {
+            out.writeInt(sourceColumns.indexOf(col));
+        }
+    }
+
+    private static void readColumnIndexes(DataInput in, List<ColumnDefinition> sourceColumns, List<ColumnDefinition> columns) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            columns.add(sourceColumns.get(in.readInt()));
+        }
+    }
+
+    /**
+     * Deve ser chamado após qualquer alteração nos pesos ou na normalização fora do {@link #train(File)}, e.g.: pelo
+     * {@link IncrementalTrainer}, para que {@link #predictBatch(double[][])} utilize o modelo alterado.
+     */
+    void modelUpdated() {
+        kernel = exportKernel();
+    }
+
+    MLRegression getBestMethod() {
+        return bestMethod;
+    }
+
+    NormalizationHelper getHelper() {
+        return helper;
+    }
+
+    public FeatureSet getFeatureSet() {
+        return featureSet;
+    }
+
     @Override
     public void close() throws Exception {
         Encog.getInstance().shutdown();
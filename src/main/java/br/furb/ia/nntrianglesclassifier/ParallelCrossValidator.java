@@ -0,0 +1,268 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.encog.engine.network.activation.ActivationElliott;
+import org.encog.engine.network.activation.ActivationElliottSymmetric;
+import org.encog.engine.network.activation.ActivationSigmoid;
+import org.encog.engine.network.activation.ActivationTANH;
+import org.encog.mathutil.randomize.BasicRandomizer;
+import org.encog.mathutil.randomize.NguyenWidrowRandomizer;
+import org.encog.mathutil.randomize.RangeRandomizer;
+import org.encog.mathutil.randomize.generate.MersenneTwisterGenerateRandom;
+import org.encog.ml.MLMethod;
+import org.encog.ml.MLResettable;
+import org.encog.ml.TrainingImplementationType;
+import org.encog.ml.data.cross.DataFold;
+import org.encog.ml.data.cross.KFoldCrossvalidation;
+import org.encog.ml.data.versatile.MatrixMLDataSet;
+import org.encog.ml.data.versatile.VersatileMLDataSet;
+import org.encog.ml.factory.MLMethodFactory;
+import org.encog.ml.factory.MLTrainFactory;
+import org.encog.ml.model.EncogModel;
+import org.encog.ml.model.config.MethodConfig;
+import org.encog.ml.train.MLTrain;
+import org.encog.ml.train.strategy.end.SimpleEarlyStoppingStrategy;
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.util.concurrency.MultiThreadable;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Validação cruzada k-fold equivalente a {@code EncogModel.crossvalidate(k, true)}, mas com os folds (e, opcionalmente,
+ * várias arquiteturas candidatas) treinados ao mesmo tempo em um {@link ExecutorService}. Escolhe a arquitetura com o
+ * menor erro de validação médio entre os folds e, dessa arquitetura, o método do fold com o menor erro de validação.
+ * <p>
+ * O resultado é reproduzível: a divisão dos folds e os pesos iniciais de cada método são gerados a partir da semente
+ * informada (e não do relógio, como no Encog) e cada treinamento utiliza uma única thread, de modo que a ordem das somas
+ * dos gradientes não depende da quantidade de cores nem da ordem de execução das tarefas.
+ */
+public class ParallelCrossValidator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final EncogModel model;
+    private final VersatileMLDataSet data;
+    private final String methodType;
+    private final MethodConfig config;
+    private final ExecutorService executor;
+    private final int k;
+    private final long seed;
+
+    /**
+     * @param model      modelo cujo dataset ({@code data}) já foi normalizado
+     * @param methodType tipo de método (ver {@link MLMethodFactory}), treinado com o tipo de treinamento sugerido pelo
+     *                   Encog para ele
+     */
+    public ParallelCrossValidator(EncogModel model, VersatileMLDataSet data, String methodType, ExecutorService executor, int k, long seed) {
+        this.model = model;
+        this.data = data;
+        this.methodType = methodType;
+        this.config = model.getMethodConfigurations().get(methodType);
+        this.executor = executor;
+        this.k = k;
+        this.seed = seed;
+    }
+
+    /**
+     * Resultado da validação cruzada da melhor arquitetura.
+     */
+    public static final class Result {
+        private final MLMethod bestMethod;
+        private final String methodArgs;
+        private final double score;
+        private final Map<String, Double> scores;
+
+        Result(MLMethod bestMethod, String methodArgs, double score, Map<String, Double> scores) {
+            this.bestMethod = bestMethod;
+            this.methodArgs = methodArgs;
+            this.score = score;
+            this.scores = scores;
+        }
+
+        public MLMethod getBestMethod() {
+            return bestMethod;
+        }
+
+        public String getMethodArgs() {
+            return methodArgs;
+        }
+
+        /**
+         * @return o erro de validação médio entre os folds da melhor arquitetura
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * @return o erro de validação médio de cada arquitetura, na ordem em que foram informadas
+         */
+        public Map<String, Double> getScores() {
+            return scores;
+        }
+    }
+
+    private static final class FoldResult {
+        final MLMethod method;
+        final double score;
+
+        FoldResult(MLMethod method, double score) {
+            this.method = method;
+            this.score = score;
+        }
+    }
+
+    /**
+     * @param trainingSet   exemplos divididos entre os folds, e.g.: {@code model.getTrainingDataset()}
+     * @param architectures arquiteturas candidatas (ver {@link MLMethodFactory}). Como o dataset é normalizado uma única
+     *                      vez, todas devem utilizar a mesma função de ativação na camada de saída.
+     */
+    public Result crossvalidate(MatrixMLDataSet trainingSet, List<String> architectures) {
+        checkSameNormalization(architectures);
+        KFoldCrossvalidation cross = new KFoldCrossvalidation(trainingSet, k);
+        cross.setRnd(new MersenneTwisterGenerateRandom(seed));
+        cross.process(true);
+        List<DataFold> folds = cross.getFolds();
+
+        List<List<Future<FoldResult>>> pending = new ArrayList<>();
+        for (int c = 0; c < architectures.size(); c++) {
+            List<Future<FoldResult>> candidateFolds = new ArrayList<>();
+            for (int f = 0; f < folds.size(); f++) {
+                String architecture = architectures.get(c);
+                DataFold fold = folds.get(f);
+                long taskSeed = seed + (long) c * k + f;
+                String label = "Fold #" + (f + 1) + "/" + k + " (" + architecture + ")";
+                candidateFolds.add(executor.submit(() -> fitFold(architecture, fold, taskSeed, label)));
+            }
+            pending.add(candidateFolds);
+        }
+
+        try {
+            Map<String, Double> scores = new LinkedHashMap<>();
+            Result best = null;
+            for (int c = 0; c < architectures.size(); c++) {
+                double sum = 0;
+                FoldResult bestFold = null;
+                for (Future<FoldResult> f : pending.get(c)) {
+                    FoldResult r = f.get();
+                    sum += r.score;
+                    if (bestFold == null || r.score < bestFold.score) {
+                        bestFold = r;
+                    }
+                }
+                double score = sum / folds.size();
+                scores.put(architectures.get(c), score);
+                LOGGER.info("Arquitetura " + architectures.get(c) + ": erro de validação médio " + score);
+                if (best == null || score < best.score) {
+                    best = new Result(bestFold.method, architectures.get(c), score, scores);
+                }
+            }
+            return best;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Validação cruzada interrompida", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Não foi possível treinar os folds da validação cruzada", e.getCause());
+        } finally {
+            for (List<Future<FoldResult>> candidateFolds : pending) {
+                for (Future<FoldResult> f : candidateFolds) {
+                    f.cancel(true);
+                }
+            }
+        }
+    }
+
+    private FoldResult fitFold(String architecture, DataFold fold, long taskSeed, String label) {
+        MLMethod method = createMethod(architecture, taskSeed);
+        MLTrain train = new MLTrainFactory().create(method, fold.getTraining(), config.suggestTrainingType(),
+                config.suggestTrainingArgs(config.suggestTrainingType()));
+        //uma thread por treinamento, o paralelismo fica entre os folds
+        if (train instanceof MultiThreadable) {
+            ((MultiThreadable) train).setThreadCount(1);
+        }
+
+        double score;
+        if (train.getImplementationType() == TrainingImplementationType.Iterative) {
+            SimpleEarlyStoppingStrategy earlyStop = new SimpleEarlyStoppingStrategy(fold.getValidation());
+            train.addStrategy(earlyStop);
+            while (!train.isTrainingDone()) {
+                iteration(train);
+            }
+            score = earlyStop.getValidationError();
+        } else {
+            iteration(train);
+            score = model.calculateError(method, fold.getValidation());
+        }
+        train.finishTraining();
+        LOGGER.info(label + ": " + train.getIteration() + " iterações, erro de treinamento " + train.getError()
+                + ", erro de validação " + score);
+        return new FoldResult(method, score);
+    }
+
+    /**
+     * Executa uma iteração (época) do treinamento, registrada em {@link PipelineStage#TRAINING_EPOCH}.
+     */
+    static void iteration(MLTrain train) {
+        long start = Metrics.start();
+        train.iteration();
+        Metrics.record(PipelineStage.TRAINING_EPOCH, start);
+    }
+
+    private MLMethod createMethod(String architecture, long taskSeed) {
+        MLMethod method = new MLMethodFactory().create(methodType, architecture,
+                data.getNormHelper().calculateNormalizedInputCount(), config.determineOutputCount(data));
+        initialize(method, taskSeed);
+        return method;
+    }
+
+    /**
+     * Inicializa os pesos do método de forma reproduzível a partir da semente informada.
+     */
+    static void initialize(MLMethod method, long seed) {
+        if (method instanceof BasicNetwork) {
+            BasicRandomizer randomizer = randomizerFor((BasicNetwork) method);
+            randomizer.setRandom(new MersenneTwisterGenerateRandom(seed));
+            randomizer.randomize(method);
+        } else if (method instanceof MLResettable) {
+            ((MLResettable) method).reset((int) seed);
+        }
+    }
+
+    /**
+     * Mesma escolha feita por {@code BasicNetwork.reset()}: Nguyen-Widrow quando todas as ativações são sigmoidais,
+     * caso contrário valores aleatórios entre -1 e 1.
+     */
+    private static BasicRandomizer randomizerFor(BasicNetwork network) {
+        boolean nguyenWidrow = network.getLayerCount() >= 3;
+        for (int i = 0; i < network.getLayerCount(); i++) {
+            Class<?> af = network.getActivation(i).getClass();
+            if (af != ActivationSigmoid.class && af != ActivationTANH.class && af != ActivationElliott.class
+                    && af != ActivationElliottSymmetric.class) {
+                nguyenWidrow = false;
+            }
+        }
+        return nguyenWidrow ? new NguyenWidrowRandomizer() : new RangeRandomizer(-1, 1);
+    }
+
+    private void checkSameNormalization(List<String> architectures) {
+        if (!MLMethodFactory.TYPE_FEEDFORWARD.equals(methodType)) {
+            if (architectures.size() > 1) {
+                throw new IllegalArgumentException("Somente arquiteturas feedforward podem ser comparadas em uma mesma validação cruzada");
+            }
+            return;
+        }
+        Class<?> outputActivation = null;
+        for (String architecture : architectures) {
+            BasicNetwork network = (BasicNetwork) new MLMethodFactory().create(methodType, architecture, 1, 1);
+            Class<?> activation = network.getActivation(network.getLayerCount() - 1).getClass();
+            if (outputActivation != null && outputActivation != activation) {
+                throw new IllegalArgumentException("Todas as arquiteturas devem utilizar a mesma ativação na camada de saída: " + architectures);
+            }
+            outputActivation = activation;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package br.furb.ia.nntrianglesclassifier;
+
+/**
+ * Etapas instrumentadas pelo {@link Metrics}.
+ */
+public enum PipelineStage {
+
+    /**
+     * Processamento completo de um arquivo de imagem em {@link ImageProcessor#processImage(java.io.File, java.io.File, boolean)}.
+     */
+    IMAGE,
+    /**
+     * Decodificação do arquivo, pelo ImageJ ou pelo {@link ImageSource}, incluindo a conversão para 8-bit deste.
+     */
+    DECODE,
+    /**
+     * Conversão para 8-bit em tons de cinza das etapas do ImageJ.
+     */
+    GRAY_8BIT,
+    BINARIZE,
+    /**
+     * {@code findEdges} do ImageJ ou {@link EdgePixels#scanEdges(byte[], int, int)}.
+     */
+    EDGES,
+    /**
+     * Recorte na bounding box. As falhas são as imagens sem pixels de contorno ({@link ImageIncompatibleException}).
+     */
+    CROP,
+    /**
+     * Extração dos pontos principais. As falhas são as imagens em que não foram encontrados exatamente 3 pontos.
+     */
+    PRINCIPAL_POINTS,
+    /**
+     * Uma iteração (época) de treinamento da rede neural.
+     */
+    TRAINING_EPOCH,
+    /**
+     * Classificação de um lote de exemplos pela rede neural ({@link NeuralNetwork#predictBatch(double[][])}).
+     */
+    INFERENCE
+}
@@ -0,0 +1,243 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.engine.network.activation.ActivationSigmoid;
+import org.encog.engine.network.activation.ActivationTANH;
+
+/**
+ * Cópia de um {@link InferenceKernel} com os pesos quantizados em 8 bits (int8), para reduzir a memória de cada réplica
+ * do modelo e calcular a rede com aritmética inteira. Além dos pesos quantizados, guarda somente os parâmetros de
+ * normalização das entradas, sem referenciar os pesos em double do {@link InferenceKernel}.
+ * <p>
+ * Os pesos de cada camada são divididos pela escala da camada (o maior peso em valor absoluto / 127) e arredondados.
+ * A entrada da rede é quantizada a cada exemplo com a escala do seu maior valor absoluto, e a saída das camadas
+ * ocultas, limitada a [-1, 1] pela função de ativação (TANH ou SIGMOID), com a escala fixa 1 / 127. A soma dos produtos
+ * de cada neurônio é acumulada em um int e a função de ativação é substituída por uma tabela, compartilhada por todas
+ * as instâncias, que já devolve a saída quantizada. Como as funções de ativação são crescentes, a classe é a da maior
+ * soma da camada de saída, sem aplicar a função.
+ * <p>
+ * O resultado é aproximado, ver {@link Application} (comando "quantize") para o relatório de acurácia. Assim como o
+ * {@link InferenceKernel}, não aloca memória por exemplo e não é thread-safe ({@link #copy()}).
+ */
+public class QuantizedKernel {
+
+    private static final int INT8_MAX = 127;
+    //as tabelas cobrem [-TABLE_LIMIT, TABLE_LIMIT] com TABLE_RESOLUTION posições por unidade, fora disso as funções já
+    //estão saturadas em 8 bits
+    private static final int TABLE_LIMIT = 8;
+    private static final int TABLE_RESOLUTION = 256;
+    private static final byte[] TANH_TABLE = table(new ActivationTANH());
+    private static final byte[] SIGMOID_TABLE = table(new ActivationSigmoid());
+
+    //normalização das entradas, ver InferenceKernel
+    private final FeatureSet featureSet;
+    private final double[] low;
+    private final double[] range;
+    private final double normalizedLow;
+    private final double normalizedRange;
+
+    private final int[] layerCounts;
+    private final int[] layerFeedCounts;
+    private final double inputBias;
+    private final byte[] bias;
+    private final int[] weightIndex;
+    private final byte[] weights;
+    private final double[] weightScales;
+    private final byte[][] tables;
+    private final TriangleTypes[] classes;
+
+    private final double[] features;
+    private final double[] values;
+    private byte[] layerIn;
+    private byte[] layerOut;
+
+    /**
+     * Os pesos são quantizados na construção, os vetores em double informados não são referenciados pela instância.
+     */
+    QuantizedKernel(FeatureSet featureSet, double[] low, double[] range, double normalizedLow, double normalizedRange,
+                    int[] layerCounts, int[] layerFeedCounts, double[] biasActivation, int[] weightIndex,
+                    double[] weights, ActivationFunction[] activations, TriangleTypes[] classes) {
+        this.featureSet = featureSet;
+        this.low = low.clone();
+        this.range = range.clone();
+        this.normalizedLow = normalizedLow;
+        this.normalizedRange = normalizedRange;
+        this.layerCounts = layerCounts;
+        this.layerFeedCounts = layerFeedCounts;
+        this.weightIndex = weightIndex;
+        this.classes = classes;
+
+        this.inputBias = layerCounts[0] > layerFeedCounts[0] ? biasActivation[0] : 0;
+        this.bias = new byte[layerCounts.length];
+        this.tables = new byte[layerCounts.length][];
+        for (int layer = 1; layer < layerCounts.length; layer++) {
+            if (activations[layer] instanceof ActivationTANH) {
+                tables[layer] = TANH_TABLE;
+            } else if (activations[layer] instanceof ActivationSigmoid) {
+                tables[layer] = SIGMOID_TABLE;
+            } else {
+                throw new IllegalArgumentException("Função de ativação não suportada: " + activations[layer]);
+            }
+            bias[layer] = quantize(biasActivation[layer]);
+        }
+
+        this.weights = new byte[weights.length];
+        this.weightScales = new double[layerCounts.length - 1];
+        for (int layer = 0; layer < weightScales.length; layer++) {
+            int from = weightIndex[layer];
+            int to = from + layerCounts[layer] * layerFeedCounts[layer + 1];
+            double max = 0;
+            for (int w = from; w < to; w++) {
+                max = Math.max(max, Math.abs(weights[w]));
+            }
+            //camada com todos os pesos zerados: os pesos quantizados ficam zerados e a escala é irrelevante
+            weightScales[layer] = max == 0 ? 1 : max / INT8_MAX;
+            for (int w = from; w < to; w++) {
+                this.weights[w] = max == 0 ? 0 : quantize(weights[w] / max);
+            }
+        }
+
+        int max = 0;
+        for (int count : layerCounts) {
+            max = Math.max(max, count);
+        }
+        this.features = new double[featureSet.size()];
+        this.values = new double[max];
+        this.layerIn = new byte[max];
+        this.layerOut = new byte[max];
+    }
+
+    private QuantizedKernel(QuantizedKernel other) {
+        this.featureSet = other.featureSet;
+        this.low = other.low;
+        this.range = other.range;
+        this.normalizedLow = other.normalizedLow;
+        this.normalizedRange = other.normalizedRange;
+        this.layerCounts = other.layerCounts;
+        this.layerFeedCounts = other.layerFeedCounts;
+        this.inputBias = other.inputBias;
+        this.bias = other.bias;
+        this.weightIndex = other.weightIndex;
+        this.weights = other.weights;
+        this.weightScales = other.weightScales;
+        this.tables = other.tables;
+        this.classes = other.classes;
+        this.features = new double[other.features.length];
+        this.values = new double[other.values.length];
+        this.layerIn = new byte[other.layerIn.length];
+        this.layerOut = new byte[other.layerOut.length];
+    }
+
+    /**
+     * @return a saída da função para cada posição da tabela, quantizada com a escala 1 / 127
+     */
+    private static byte[] table(ActivationFunction activation) {
+        double[] x = new double[2 * TABLE_LIMIT * TABLE_RESOLUTION + 1];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = (double) (i - TABLE_LIMIT * TABLE_RESOLUTION) / TABLE_RESOLUTION;
+        }
+        activation.activationFunction(x, 0, x.length);
+        byte[] res = new byte[x.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = quantize(x[i]);
+        }
+        return res;
+    }
+
+    /**
+     * @return o valor de [-1, 1] quantizado com a escala 1 / 127, arredondado para o inteiro mais próximo (bem mais
+     * rápido que Math.round)
+     */
+    private static byte quantize(double value) {
+        double v = Math.max(-1, Math.min(1, value)) * INT8_MAX;
+        return (byte) (v < 0 ? v - 0.5 : v + 0.5);
+    }
+
+    /**
+     * @return uma cópia com vetores de trabalho próprios, que pode ser usada em outra thread
+     */
+    public QuantizedKernel copy() {
+        return new QuantizedKernel(this);
+    }
+
+    /**
+     * @return o tamanho dos pesos quantizados e das escalas em bytes, sem as tabelas compartilhadas
+     */
+    public int getWeightBytes() {
+        return weights.length + weightScales.length * Double.BYTES + bias.length;
+    }
+
+    /**
+     * Classifica o triangulo sem alocar memória, ver {@link InferenceKernel#classify(double[])}.
+     *
+     * @param points coordenadas na ordem p1x, p1y, p2x, p2y, p3x, p3y
+     */
+    public TriangleTypes classify(double[] points) {
+        featureSet.extract(points, features);
+        for (int c = 0; c < features.length; c++) {
+            values[c] = InferenceKernel.normalize(features[c], low[c], range[c], normalizedLow, normalizedRange);
+        }
+        int inputFeed = layerFeedCounts[0];
+        //o bias da entrada também precisa ser representável na escala do exemplo
+        double max = Math.abs(inputBias);
+        for (int i = 0; i < inputFeed; i++) {
+            max = Math.max(max, Math.abs(values[i]));
+        }
+        double inputScale = max == 0 ? 1 : max;
+        for (int i = 0; i < inputFeed; i++) {
+            layerIn[i] = quantize(values[i] / inputScale);
+        }
+        if (layerCounts[0] > inputFeed) {
+            layerIn[inputFeed] = quantize(inputBias / inputScale);
+        }
+
+        int best = 0;
+        int last = layerCounts.length - 2;
+        for (int layer = 0; layer <= last; layer++) {
+            int inputCount = layerCounts[layer];
+            int outputCount = layerFeedCounts[layer + 1];
+            //índice da tabela correspondente à soma: soma * escala da entrada * escala dos pesos * resolução
+            double tableScale = inputScale / INT8_MAX * weightScales[layer] * TABLE_RESOLUTION;
+            byte[] table = tables[layer + 1];
+            int bestSum = Integer.MIN_VALUE;
+            int w = weightIndex[layer];
+            for (int o = 0; o < outputCount; o++) {
+                int sum = 0;
+                for (int i = 0; i < inputCount; i++) {
+                    sum += weights[w++] * layerIn[i];
+                }
+                if (layer == last) {
+                    if (sum > bestSum) {
+                        bestSum = sum;
+                        best = o;
+                    }
+                } else {
+                    double x = sum * tableScale;
+                    int index = (int) (x < 0 ? x - 0.5 : x + 0.5) + TABLE_LIMIT * TABLE_RESOLUTION;
+                    layerOut[o] = table[Math.max(0, Math.min(table.length - 1, index))];
+                }
+            }
+            if (layer < last) {
+                if (layerCounts[layer + 1] > outputCount) {
+                    layerOut[outputCount] = bias[layer + 1];
+                }
+                byte[] tmp = layerIn;
+                layerIn = layerOut;
+                layerOut = tmp;
+                inputScale = 1;
+            }
+        }
+        return classes[best];
+    }
+
+    /**
+     * @param points coordenadas de cada exemplo, ver {@link #classify(double[])}
+     */
+    public TriangleTypes[] classify(double[][] points) {
+        TriangleTypes[] res = new TriangleTypes[points.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = classify(points[i]);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,61 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.factory.MLMethodFactory;
+import org.encog.ml.factory.MLTrainFactory;
+
+import java.util.Objects;
+
+/**
+ * Configuração avaliada por {@link HyperparameterSearch}: tipo e arquitetura do método e tipo e argumentos do
+ * treinamento, no formato aceito por {@link MLMethodFactory} e {@link MLTrainFactory}.
+ */
+public final class SearchCandidate {
+
+    private final String methodType;
+    private final String methodArgs;
+    private final String trainingType;
+    private final String trainingArgs;
+
+    public SearchCandidate(String methodType, String methodArgs, String trainingType, String trainingArgs) {
+        this.methodType = methodType;
+        this.methodArgs = methodArgs;
+        this.trainingType = trainingType;
+        this.trainingArgs = trainingArgs;
+    }
+
+    public String getMethodType() {
+        return methodType;
+    }
+
+    public String getMethodArgs() {
+        return methodArgs;
+    }
+
+    public String getTrainingType() {
+        return trainingType;
+    }
+
+    public String getTrainingArgs() {
+        return trainingArgs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SearchCandidate that = (SearchCandidate) o;
+        return methodType.equals(that.methodType) && methodArgs.equals(that.methodArgs)
+                && trainingType.equals(that.trainingType) && trainingArgs.equals(that.trainingArgs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(methodType, methodArgs, trainingType, trainingArgs);
+    }
+
+    @Override
+    public String toString() {
+        return methodType + "[" + methodArgs + "] " + trainingType + (trainingArgs.isEmpty() ? "" : "[" + trainingArgs + "]");
+    }
+}
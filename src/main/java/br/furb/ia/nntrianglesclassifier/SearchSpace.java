@@ -0,0 +1,62 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.factory.MLMethodFactory;
+import org.encog.ml.factory.MLTrainFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Espaços de busca de {@link HyperparameterSearch}.
+ */
+public final class SearchSpace {
+
+    private static final int[][] HIDDEN_LAYERS = {{5}, {10}, {20}, {40}, {20, 10}};
+    private static final String[] ACTIVATIONS = {"TANH", "SIGMOID"};
+    private static final String[][] FEEDFORWARD_TRAININGS = {
+            {MLTrainFactory.TYPE_RPROP, ""},
+            {MLTrainFactory.TYPE_SCG, ""},
+            {MLTrainFactory.TYPE_BACKPROP, "LR=0.1,MOM=0.3"}};
+    private static final int[] RBF_CENTERS = {5, 10, 20, 40};
+    private static final double[] SVM_C = {1, 10, 100};
+
+    private SearchSpace() {
+    }
+
+    /**
+     * @return as combinações de camadas ocultas, ativações e algoritmos de treinamento de redes feedforward, além de
+     * SVM, rede RBF e PNN (os tipos citados em {@link NeuralNetwork#train(java.io.File)})
+     */
+    public static List<SearchCandidate> defaultCandidates() {
+        List<SearchCandidate> res = new ArrayList<>();
+        for (int[] hidden : HIDDEN_LAYERS) {
+            for (String activation : ACTIVATIONS) {
+                for (String[] training : FEEDFORWARD_TRAININGS) {
+                    res.add(feedforward(hidden, activation, training[0], training[1]));
+                }
+            }
+        }
+        for (double c : SVM_C) {
+            res.add(new SearchCandidate(MLMethodFactory.TYPE_SVM, "?->C->?", MLTrainFactory.TYPE_SVM, "C=" + c));
+        }
+        for (int centers : RBF_CENTERS) {
+            res.add(new SearchCandidate(MLMethodFactory.TYPE_RBFNETWORK, "?->gaussian(c=" + centers + ")->?",
+                    MLTrainFactory.TYPE_RPROP, ""));
+        }
+        res.add(new SearchCandidate(MLMethodFactory.TYPE_PNN, "?->C(kernel=gaussian)->?", MLTrainFactory.TYPE_PNN, ""));
+        return res;
+    }
+
+    /**
+     * @param hidden     quantidade de neurônios de cada camada oculta
+     * @param activation ativação das camadas ocultas e de saída, e.g.: "TANH"
+     */
+    public static SearchCandidate feedforward(int[] hidden, String activation, String trainingType, String trainingArgs) {
+        StringBuilder architecture = new StringBuilder("?:B");
+        for (int neurons : hidden) {
+            architecture.append("->").append(activation).append("->").append(neurons).append(":B");
+        }
+        architecture.append("->").append(activation).append("->?");
+        return new SearchCandidate(MLMethodFactory.TYPE_FEEDFORWARD, architecture.toString(), trainingType, trainingArgs);
+    }
+}
@@ -0,0 +1,395 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Extração dos pontos principais distribuída entre vários processos (JVMs) locais, que se comunicam somente através de
+ * um diretório compartilhado:
+ * <ul>
+ * <li>as imagens são divididas em shards pelo hash do caminho relativo ({@code tipo/arquivo}), e a lista de imagens de
+ * cada shard é gravada em {@code shard-N.list}, com o tamanho, a data de modificação e o caminho de cada imagem;</li>
+ * <li>cada shard é processado por um processo worker ({@link Application}, comando "worker"), que grava os pontos
+ * extraídos em um {@link FeatureCache} próprio ({@code shard-N.cache}) a cada {@link #SAVE_INTERVAL} imagens, informa o
+ * progresso na saída padrão e, ao terminar, cria o arquivo {@code shard-N.done} com o hash do conteúdo de cada imagem
+ * ({@link FeatureCache#hash(byte[])}), na ordem da lista. Cada imagem é lida uma única vez, pelo worker;</li>
+ * <li>os shards que falharem (código de saída diferente de 0) são executados novamente, até {@code maxAttempts} vezes.
+ * Como o cache do shard é gravado durante o processamento, a nova tentativa só processa as imagens restantes. Da mesma
+ * forma, uma nova execução do coordenador só executa os shards sem o arquivo {@code .done}, que é removido quando
+ * uma imagem do shard é adicionada, removida ou alterada (tamanho ou data de modificação);</li>
+ * <li>ao final os caches dos shards são unidos e os exemplos são montados a partir deles, através dos hashes gravados
+ * nos arquivos {@code .done} e sem ler as imagens novamente, na ordem das imagens de entrada. Por isso o resultado é
+ * idêntico ao do processamento em um único processo, independente da quantidade de shards, de workers e da ordem em
+ * que terminaram.</li>
+ * </ul>
+ */
+public class ShardCoordinator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * Prefixo das linhas de progresso escritas pelo worker na saída padrão: {@code progress processadas total}.
+     */
+    static final String PROGRESS_PREFIX = "progress ";
+    /**
+     * Separador entre o tamanho, a data de modificação e o caminho de cada imagem na lista do shard.
+     */
+    private static final String LIST_SEPARATOR = "\t";
+    static final int SAVE_INTERVAL = 100;
+    private static final long PROGRESS_LOG_INTERVAL_MILLIS = 5_000;
+
+    private final File workDir;
+    private final int workers;
+    private final int shards;
+    private final int maxAttempts;
+
+    /**
+     * @param workDir     diretório compartilhado com os workers, onde ficam as listas e os resultados dos shards
+     * @param workers     quantidade máxima de processos worker simultâneos
+     * @param shards      quantidade de shards em que as imagens são divididas
+     * @param maxAttempts quantidade máxima de execuções de cada shard
+     */
+    public ShardCoordinator(File workDir, int workers, int shards, int maxAttempts) {
+        if (workers < 1 || shards < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Quantidade de workers, shards e tentativas deve ser maior que 0");
+        }
+        this.workDir = workDir;
+        this.workers = workers;
+        this.shards = shards;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return o shard da imagem, que depende somente do nome do arquivo e do diretório onde está
+     */
+    int shardOf(File image) {
+        String key = image.getParentFile().getName() + "/" + image.getName();
+        return Math.floorMod(key.hashCode(), shards);
+    }
+
+    /**
+     * Distribui as imagens entre os workers e monta os exemplos a partir dos resultados dos shards, com o mesmo
+     * resultado de {@link TrainingDataProvider#processAndGetExamples(Map, boolean)}.
+     *
+     * @param cache cache onde os pontos extraídos pelos workers são adicionados, e.g.: para ser salvo em seguida
+     */
+    public Map<TriangleTypes, List<TrianglePrincipalPoints>> processAndGetExamples(Map<TriangleTypes, List<File>> e, FeatureCache cache) {
+        createWorkDir();
+        List<List<File>> shardFiles = new ArrayList<>();
+        for (int s = 0; s < shards; s++) {
+            shardFiles.add(new ArrayList<>());
+        }
+        //na mesma ordem de merge
+        for (TriangleTypes type : TriangleTypes.values()) {
+            for (File f : e.getOrDefault(type, Collections.emptyList())) {
+                shardFiles.get(shardOf(f)).add(f);
+            }
+        }
+
+        Deque<Integer> pending = new ArrayDeque<>();
+        int images = 0;
+        for (int s = 0; s < shards; s++) {
+            if (writeList(s, shardFiles.get(s)) || !doneFile(s).exists()) {
+                pending.add(s);
+                images += shardFiles.get(s).size();
+            }
+        }
+        LOGGER.info(pending.size() + " de " + shards + " shards (" + images + " imagens) a processar utilizando " + workers + " workers");
+        run(pending, shardFiles);
+
+        List<List<String>> shardHashes = new ArrayList<>();
+        for (int s = 0; s < shards; s++) {
+            cache.putAll(FeatureCache.load(cacheFile(s), cache.getConfiguration()));
+            shardHashes.add(readHashes(s, shardFiles.get(s).size()));
+        }
+        return merge(e, shardHashes, cache);
+    }
+
+    /**
+     * Monta os exemplos na ordem das imagens de entrada (e dos tipos, como o {@link TrainingDataProvider}). As imagens
+     * de cada shard foram listadas nessa mesma ordem, portanto o hash de cada imagem é o próximo hash do seu shard.
+     */
+    private Map<TriangleTypes, List<TrianglePrincipalPoints>> merge(Map<TriangleTypes, List<File>> e,
+                                                                     List<List<String>> shardHashes, FeatureCache cache) {
+        int[] next = new int[shards];
+        int total = 0;
+        int missing = 0;
+        ImageProcessor processor = new ImageProcessor();
+        Map<TriangleTypes, List<TrianglePrincipalPoints>> examples = new EnumMap<>(TriangleTypes.class);
+        for (TriangleTypes type : TriangleTypes.values()) {
+            if (!e.containsKey(type)) {
+                continue;
+            }
+            List<TrianglePrincipalPoints> points = new ArrayList<>();
+            for (File f : e.get(type)) {
+                int s = shardOf(f);
+                String hash = shardHashes.get(s).get(next[s]++);
+                TrianglePrincipalPoints p;
+                if (cache.contains(hash)) {
+                    p = cache.get(hash);
+                } else {
+                    //e.g.: o cache do shard foi removido após o shard ter sido concluído
+                    missing++;
+                    p = cache.getOrExtract(f, (name, data) -> processor.processImage(name, data, false));
+                }
+                if (p != null) {
+                    points.add(p);
+                }
+            }
+            examples.put(type, points);
+            total += points.size();
+        }
+        if (missing > 0) {
+            LOGGER.warn(missing + " imagens ausentes dos resultados dos shards foram processadas pelo coordenador");
+        }
+        LOGGER.info(total + " exemplos montados a partir dos resultados dos shards");
+        return examples;
+    }
+
+    /**
+     * @return o hash de cada imagem do shard, na ordem da lista, gravado pelo worker no arquivo {@code .done}
+     */
+    private List<String> readHashes(int shard, int images) {
+        File done = doneFile(shard);
+        List<String> hashes;
+        try {
+            hashes = Files.readAllLines(done.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new RuntimeException("Não foi possível ler o resultado do shard " + done.getAbsolutePath(), ex);
+        }
+        if (hashes.size() != images) {
+            throw new IllegalStateException("O resultado do shard " + done.getAbsolutePath() + " contém " + hashes.size()
+                    + " imagens, a lista contém " + images + ". Remova o arquivo e execute novamente.");
+        }
+        return hashes;
+    }
+
+    private void run(Deque<Integer> pending, List<List<File>> shardFiles) {
+        int[] attempts = new int[shards];
+        AtomicIntegerArray progress = new AtomicIntegerArray(shards);
+        List<Worker> running = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        long init = System.currentTimeMillis();
+        long lastLog = init;
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                while (running.size() < workers && !pending.isEmpty()) {
+                    int s = pending.poll();
+                    attempts[s]++;
+                    running.add(start(s, progress));
+                }
+                Worker w = running.get(0);
+                w.process.waitFor(100, TimeUnit.MILLISECONDS);
+                for (int i = running.size() - 1; i >= 0; i--) {
+                    w = running.get(i);
+                    if (w.process.isAlive()) {
+                        continue;
+                    }
+                    running.remove(i);
+                    w.output.join();
+                    int exit = w.process.exitValue();
+                    if (exit == 0 && doneFile(w.shard).exists()) {
+                        LOGGER.info("Shard " + w.shard + " concluído (" + shardFiles.get(w.shard).size() + " imagens)");
+                    } else if (attempts[w.shard] < maxAttempts) {
+                        LOGGER.warn("Shard " + w.shard + " falhou (código " + exit + "), tentativa " + attempts[w.shard]
+                                + " de " + maxAttempts + ", executando novamente...");
+                        pending.add(w.shard);
+                    } else {
+                        LOGGER.error("Shard " + w.shard + " falhou " + attempts[w.shard] + " vezes (código " + exit + ")");
+                        failed.add(w.shard);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastLog >= PROGRESS_LOG_INTERVAL_MILLIS) {
+                    logProgress(progress, shardFiles, running.size(), now - init);
+                    lastLog = now;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Processamento dos shards interrompido", ex);
+        } finally {
+            for (Worker w : running) {
+                w.process.destroyForcibly();
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Não foi possível processar os shards " + failed + ", execute novamente para"
+                    + " processar somente os shards que falharam");
+        }
+        LOGGER.info("Shards processados em " + (System.currentTimeMillis() - init) / 1000d + " segundos");
+    }
+
+    private void logProgress(AtomicIntegerArray progress, List<List<File>> shardFiles, int running, long elapsedMillis) {
+        int processed = 0;
+        int total = 0;
+        for (int s = 0; s < shards; s++) {
+            processed += progress.get(s);
+            total += shardFiles.get(s).size();
+        }
+        LOGGER.info(processed + " de " + total + " imagens processadas, " + running + " workers em execução ("
+                + (int) (processed / Math.max(0.001, elapsedMillis / 1000d)) + " imagens/s)");
+    }
+
+    private static final class Worker {
+        final int shard;
+        final Process process;
+        final Thread output;
+
+        Worker(int shard, Process process, Thread output) {
+            this.shard = shard;
+            this.process = process;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Inicia o worker do shard com a mesma JVM e o mesmo classpath do coordenador.
+     */
+    private Worker start(int shard, AtomicIntegerArray progress) {
+        List<String> cmd = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                "-cp", System.getProperty("java.class.path"),
+                "-Djava.awt.headless=true"));
+        String log4jConfig = System.getProperty("log4j.configurationFile");
+        if (log4jConfig != null) {
+            cmd.add("-Dlog4j.configurationFile=" + log4jConfig);
+        }
+        cmd.addAll(Arrays.asList(Application.class.getName(), "worker", listFile(shard).getAbsolutePath(),
+                cacheFile(shard).getAbsolutePath(), doneFile(shard).getAbsolutePath()));
+        Process process;
+        try {
+            process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível iniciar o worker do shard " + shard, e);
+        }
+        Thread output = new Thread(() -> readOutput(shard, process, progress), "shard-" + shard);
+        output.setDaemon(true);
+        output.start();
+        return new Worker(shard, process, output);
+    }
+
+    private static void readOutput(int shard, Process process, AtomicIntegerArray progress) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(PROGRESS_PREFIX)) {
+                    progress.set(shard, Integer.parseInt(line.substring(PROGRESS_PREFIX.length()).split(" ")[0]));
+                } else {
+                    LOGGER.debug("[shard {}] {}", shard, line);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Saída do worker do shard {} encerrada: {}", shard, e.getMessage());
+        }
+    }
+
+    /**
+     * Processa as imagens da lista e grava os pontos extraídos no cache informado. Executado por cada processo worker.
+     * Cada imagem é lida uma única vez: o mesmo conteúdo é utilizado no hash e, caso a imagem não esteja no cache, na
+     * extração dos pontos.
+     *
+     * @param listFile  lista das imagens do shard, uma por linha (tamanho, data de modificação e caminho)
+     * @param cacheFile cache com os pontos extraídos, as imagens já presentes não são processadas novamente
+     * @param doneFile  arquivo criado após todas as imagens terem sido processadas e o cache gravado, com o hash de cada
+     *                  imagem na ordem da lista
+     */
+    public static void runWorker(File listFile, File cacheFile, File doneFile) {
+        List<String> paths = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(listFile.toPath(), StandardCharsets.UTF_8)) {
+                paths.add(line.split(LIST_SEPARATOR, 3)[2]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível ler a lista de imagens " + listFile.getAbsolutePath(), e);
+        }
+        ImageProcessor processor = new ImageProcessor();
+        FeatureCache cache = FeatureCache.load(cacheFile, processor.getConfiguration());
+        List<String> hashes = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            File image = new File(paths.get(i));
+            byte[] data;
+            try {
+                data = Files.readAllBytes(image.toPath());
+            } catch (IOException e) {
+                throw new RuntimeException("Não foi possível ler a imagem " + image.getAbsolutePath(), e);
+            }
+            String hash = FeatureCache.hash(data);
+            hashes.add(hash);
+            cache.getOrExtract(hash, () -> processor.processImage(image.getName(), data, false));
+            if ((i + 1) % SAVE_INTERVAL == 0) {
+                cache.save();
+                System.out.println(PROGRESS_PREFIX + (i + 1) + " " + paths.size());
+            }
+        }
+        cache.save();
+        System.out.println(PROGRESS_PREFIX + paths.size() + " " + paths.size());
+        try {
+            Files.write(doneFile.toPath(), hashes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível gravar " + doneFile.getAbsolutePath(), e);
+        }
+    }
+
+    private void createWorkDir() {
+        try {
+            Files.createDirectories(workDir.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível criar o diretório " + workDir.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Grava a lista de imagens do shard, com o tamanho e a data de modificação de cada imagem, que são lidos sem ler o
+     * conteúdo. Caso a lista tenha mudado desde a última execução (inclusive o tamanho ou a data de alguma imagem) o
+     * shard deixa de estar concluído, mas o seu cache continua válido (indexado pelo conteúdo das imagens) e é
+     * reaproveitado, somente as imagens alteradas são processadas novamente.
+     *
+     * @return true caso a lista tenha mudado
+     */
+    private boolean writeList(int shard, List<File> files) {
+        List<String> lines = new ArrayList<>();
+        for (File f : files) {
+            lines.add(f.length() + LIST_SEPARATOR + f.lastModified() + LIST_SEPARATOR + f.getAbsolutePath());
+        }
+        File list = listFile(shard);
+        try {
+            if (list.exists() && Files.readAllLines(list.toPath(), StandardCharsets.UTF_8).equals(lines)) {
+                return false;
+            }
+            Files.deleteIfExists(doneFile(shard).toPath());
+            Files.write(list.toPath(), lines, StandardCharsets.UTF_8);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível gravar a lista de imagens " + list.getAbsolutePath(), e);
+        }
+    }
+
+    private File listFile(int shard) {
+        return new File(workDir, "shard-" + shard + ".list");
+    }
+
+    private File cacheFile(int shard) {
+        return new File(workDir, "shard-" + shard + ".cache");
+    }
+
+    private File doneFile(int shard) {
+        return new File(workDir, "shard-" + shard + ".done");
+    }
+}
@@ -0,0 +1,115 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores e histograma de latências de uma {@link PipelineStage}, ou das requisições do
+ * {@link ClassificationServer}. O histograma segue a ideia do HdrHistogram: cada potência de 2 (em nanosegundos) é
+ * dividida em {@link #SUB_BUCKETS} faixas de mesmo tamanho, portanto os percentis têm erro relativo de no máximo
+ * 1 / {@link #SUB_BUCKETS} (~3%) em qualquer ordem de grandeza, com uma quantidade fixa de contadores. O registro não
+ * aloca memória nem bloqueia, pode ser feito por várias threads ao mesmo tempo.
+ */
+public class StageMetrics implements StageMetricsMXBean {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //valores menores que SUB_BUCKETS têm uma faixa cada, depois SUB_BUCKETS faixas por potência de 2 até 2^63
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+        buckets.incrementAndGet(bucket(value));
+    }
+
+    public void failure() {
+        failures.increment();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return o maior valor contido na faixa
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile percentil desejado, de 0 a 100
+     * @return a latência do percentil em milissegundos, limitada à maior latência registrada, ou 0 caso nenhuma latência
+     * tenha sido registrada
+     */
+    public double percentileMillis(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && total > 0; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), maxNanos.get()) / 1_000_000d;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1_000_000d / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(50);
+    }
+
+    @Override
+    public double getP90Millis() {
+        return percentileMillis(90);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1_000_000d;
+    }
+}
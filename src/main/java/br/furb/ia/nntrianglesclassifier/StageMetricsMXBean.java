@@ -0,0 +1,22 @@
+package br.furb.ia.nntrianglesclassifier;
+
+/**
+ * Métricas de uma {@link PipelineStage} expostas via JMX, ver {@link Metrics#enable(java.io.File, long)}. As latências
+ * são em milissegundos e consideram todos os registros desde que as métricas foram habilitadas.
+ */
+public interface StageMetricsMXBean {
+
+    long getCount();
+
+    long getFailures();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
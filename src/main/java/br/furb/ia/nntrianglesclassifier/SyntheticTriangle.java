@@ -0,0 +1,88 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+ * Imagem de triangulo gerada por {@link SyntheticTriangleGenerator}, junto com o tipo e os vértices utilizados para
+ * desenhá-la.
+ */
+public class SyntheticTriangle {
+
+    private final long index;
+    private final TriangleTypes type;
+    private final Point2D.Double[] vertices;
+    private final BufferedImage image;
+    private final byte[] jpeg;
+
+    SyntheticTriangle(long index, TriangleTypes type, Point2D.Double[] vertices, BufferedImage image, byte[] jpeg) {
+        this.index = index;
+        this.type = type;
+        this.vertices = vertices;
+        this.image = image;
+        this.jpeg = jpeg;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public TriangleTypes getType() {
+        return type;
+    }
+
+    public Point2D.Double[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return a imagem desenhada, antes da compressão jpeg
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return a imagem codificada em jpeg, ou null caso a compressão esteja desabilitada
+     */
+    public byte[] getJpeg() {
+        return jpeg;
+    }
+
+    public String getName() {
+        return index + (jpeg != null ? ".jpg" : ".png");
+    }
+
+    /**
+     * Carrega a imagem para o {@link ImageProcessor}. Com a compressão habilitada a imagem jpeg é decodificada da mesma
+     * forma que um arquivo ({@link ImageProcessor#openImage(String, byte[])}), com os artefatos de compressão.
+     *
+     * @return a imagem ou null caso não seja possível decodificá-la
+     */
+    public ImagePlus toImagePlus(ImageProcessor ip) {
+        if (jpeg != null) {
+            return ip.openImage(getName(), jpeg);
+        }
+        //a imagem é desenhada em tons de cinza (canais iguais), um canal já é a imagem 8-bit que seria obtida na conversão
+        byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        byte[] gray = new byte[image.getWidth() * image.getHeight()];
+        for (int i = 0; i < gray.length; i++) {
+            gray[i] = bgr[i * 3];
+        }
+        return new ImagePlus(getName(), new ByteProcessor(image.getWidth(), image.getHeight(), gray));
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticTriangle{" +
+                "index=" + index +
+                ", type=" + type +
+                ", vertices=" + Arrays.toString(vertices) +
+                '}';
+    }
+}
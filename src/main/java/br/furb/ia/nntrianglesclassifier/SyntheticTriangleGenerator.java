@@ -0,0 +1,315 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Gera imagens de triangulos equiláteros, isósceles e escalenos semelhantes às imagens de exemplo (triangulo preenchido
+ * escuro sobre fundo branco), com tamanho, rotação, espessura do traço, ruído e qualidade jpeg configuráveis.
+ * <p>
+ * Cada imagem depende somente da semente e do seu índice, e o tipo do triangulo alterna entre os tipos de
+ * {@link TriangleTypes} conforme o índice. Por isso as imagens podem ser geradas em qualquer ordem e em várias threads
+ * com o mesmo resultado, ver {@link TrainingDataProvider#processAndGetExamples(SyntheticTriangleGenerator, long, boolean)}
+ * e {@link #writeImages(File, long, int)}.
+ * <p>
+ * Para que os tipos sejam distinguíveis, o ângulo do vértice dos triangulos isósceles e cada ângulo dos escalenos diferem
+ * dos demais ângulos do triangulo em pelo menos {@link #MIN_ANGLE_DIFFERENCE} graus, e nenhum ângulo é menor que
+ * {@link #MIN_ANGLE} graus.
+ */
+public class SyntheticTriangleGenerator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    public static final double MIN_ANGLE = 15;
+    public static final double MIN_ANGLE_DIFFERENCE = 10;
+    private static final int CHUNK_SIZE = 256;
+    private static final TriangleTypes[] TYPES = TriangleTypes.values();
+
+    private final long seed;
+    private int imageSize = 1000;
+    private double minSize = 0.1;
+    private double maxSize = 0.5;
+    private double maxRotation = 360;
+    private float strokeWidth = 0;
+    private double noise = 0;
+    private float jpegQuality = 0.75f;
+
+    public SyntheticTriangleGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param imageSize largura e altura das imagens em pixels, 1000 por padrão (mesmo tamanho das imagens de exemplo)
+     */
+    public void setImageSize(int imageSize) {
+        this.imageSize = imageSize;
+    }
+
+    /**
+     * Tamanho do maior lado do triangulo, em fração do tamanho da imagem, sorteado entre os valores informados (entre
+     * 0.1 e 0.5 por padrão).
+     */
+    public void setSize(double minSize, double maxSize) {
+        if (minSize <= 0 || maxSize > 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Tamanho inválido: " + minSize + " - " + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxRotation rotação máxima do triangulo em graus, sorteada entre 0 e o valor informado (360 por padrão)
+     */
+    public void setMaxRotation(double maxRotation) {
+        this.maxRotation = maxRotation;
+    }
+
+    /**
+     * @param strokeWidth espessura em pixels do contorno desenhado, ou 0 (padrão) para desenhar o triangulo preenchido
+     */
+    public void setStrokeWidth(float strokeWidth) {
+        this.strokeWidth = strokeWidth;
+    }
+
+    /**
+     * @param noise desvio padrão do ruído gaussiano somado a cada pixel, em fração da escala de cinza (0 por padrão)
+     */
+    public void setNoise(double noise) {
+        this.noise = noise;
+    }
+
+    /**
+     * @param jpegQuality qualidade da compressão jpeg entre 0 e 1 (0.75 por padrão, o padrão do ImageIO), ou um valor
+     *                    negativo para não comprimir as imagens
+     */
+    public void setJpegQuality(float jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public TriangleTypes typeOf(long index) {
+        return TYPES[(int) (index % TYPES.length)];
+    }
+
+    /**
+     * Gera a imagem de índice informado. Pode ser chamado concorrentemente por várias threads.
+     */
+    public SyntheticTriangle generate(long index) {
+        Random rnd = new Random(seed + index * 0x9E3779B97F4A7C15L);
+        TriangleTypes type = typeOf(index);
+        Point2D.Double[] vertices = place(shape(angles(type, rnd)), rnd);
+        BufferedImage image = draw(vertices, rnd);
+        return new SyntheticTriangle(index, type, vertices, image, jpegQuality < 0 ? null : encode(image));
+    }
+
+    /**
+     * @return os ângulos internos do triangulo, em graus
+     */
+    private static double[] angles(TriangleTypes type, Random rnd) {
+        switch (type) {
+            case EQUILATERAL:
+                return new double[]{60, 60, 60};
+            case ISOSCELES:
+                while (true) {
+                    double apex = MIN_ANGLE + rnd.nextDouble() * (180 - 3 * MIN_ANGLE);
+                    double base = (180 - apex) / 2;
+                    if (Math.abs(apex - base) >= MIN_ANGLE_DIFFERENCE && base >= MIN_ANGLE) {
+                        return new double[]{apex, base, base};
+                    }
+                }
+            case SCALENE:
+                while (true) {
+                    double a = MIN_ANGLE + rnd.nextDouble() * (180 - 3 * MIN_ANGLE);
+                    double b = MIN_ANGLE + rnd.nextDouble() * (180 - 3 * MIN_ANGLE);
+                    double c = 180 - a - b;
+                    if (c >= MIN_ANGLE && Math.abs(a - b) >= MIN_ANGLE_DIFFERENCE
+                            && Math.abs(a - c) >= MIN_ANGLE_DIFFERENCE && Math.abs(b - c) >= MIN_ANGLE_DIFFERENCE) {
+                        return new double[]{a, b, c};
+                    }
+                }
+            default:
+                throw new IllegalArgumentException("Tipo de triangulo desconhecido: " + type);
+        }
+    }
+
+    /**
+     * @return os vértices de um triangulo com os ângulos informados, maior lado de tamanho 1 e centróide na origem
+     */
+    private static Point2D.Double[] shape(double[] angles) {
+        double a = Math.toRadians(angles[0]);
+        //lei dos senos: cada lado é proporcional ao seno do ângulo oposto
+        double b = Math.sin(Math.toRadians(angles[1]));
+        double c = Math.sin(Math.toRadians(angles[2]));
+        double longest = Math.max(Math.sin(a), Math.max(b, c));
+        double[] xs = {0, c / longest, b / longest * Math.cos(a)};
+        double[] ys = {0, 0, b / longest * Math.sin(a)};
+        double cx = (xs[0] + xs[1] + xs[2]) / 3;
+        double cy = (ys[0] + ys[1] + ys[2]) / 3;
+        Point2D.Double[] res = new Point2D.Double[3];
+        for (int i = 0; i < 3; i++) {
+            res[i] = new Point2D.Double(xs[i] - cx, ys[i] - cy);
+        }
+        return res;
+    }
+
+    /**
+     * Escala, rotaciona e posiciona o triangulo em uma posição aleatória dentro da imagem.
+     */
+    private Point2D.Double[] place(Point2D.Double[] shape, Random rnd) {
+        double size = imageSize * (minSize + rnd.nextDouble() * (maxSize - minSize));
+        double rotation = Math.toRadians(rnd.nextDouble() * maxRotation);
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        Point2D.Double[] res = new Point2D.Double[3];
+        for (int i = 0; i < 3; i++) {
+            double x = (shape[i].x * cos - shape[i].y * sin) * size;
+            double y = (shape[i].x * sin + shape[i].y * cos) * size;
+            res[i] = new Point2D.Double(x, y);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        double margin = strokeWidth + 2;
+        double dx = margin - minX + rnd.nextDouble() * Math.max(0, imageSize - 2 * margin - (maxX - minX));
+        double dy = margin - minY + rnd.nextDouble() * Math.max(0, imageSize - 2 * margin - (maxY - minY));
+        for (Point2D.Double p : res) {
+            p.x += dx;
+            p.y += dy;
+        }
+        return res;
+    }
+
+    private BufferedImage draw(Point2D.Double[] vertices, Random rnd) {
+        BufferedImage image = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, imageSize, imageSize);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.BLACK);
+            Path2D.Double path = new Path2D.Double();
+            path.moveTo(vertices[0].x, vertices[0].y);
+            path.lineTo(vertices[1].x, vertices[1].y);
+            path.lineTo(vertices[2].x, vertices[2].y);
+            path.closePath();
+            if (strokeWidth > 0) {
+                g.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_MITER));
+                g.draw(path);
+            } else {
+                g.fill(path);
+            }
+        } finally {
+            g.dispose();
+        }
+        if (noise > 0) {
+            addNoise(image, rnd);
+        }
+        return image;
+    }
+
+    /**
+     * Soma o mesmo valor aos 3 canais de cada pixel, para que a imagem continue em tons de cinza.
+     */
+    private void addNoise(BufferedImage image, Random rnd) {
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        double sigma = noise * 255;
+        for (int i = 0; i < pixels.length; i += 3) {
+            int value = (int) Math.round((pixels[i] & 0xFF) + rnd.nextGaussian() * sigma);
+            byte b = (byte) Math.max(0, Math.min(255, value));
+            pixels[i] = b;
+            pixels[i + 1] = b;
+            pixels[i + 2] = b;
+        }
+    }
+
+    private byte[] encode(BufferedImage image) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível comprimir a imagem sintética", e);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Grava as imagens de índice 0 até {@code count - 1} em um subdiretório por tipo (equilateral, isosceles e
+     * scalene), na mesma estrutura das imagens de exemplo. Sem compressão as imagens são gravadas em png.
+     *
+     * @param parallelism quantidade de threads utilizadas para gerar e gravar as imagens
+     */
+    public void writeImages(File dir, long count, int parallelism) {
+        for (TriangleTypes t : TYPES) {
+            try {
+                Files.createDirectories(new File(dir, t.name().toLowerCase()).toPath());
+            } catch (IOException e) {
+                throw new RuntimeException("Não foi possível criar o diretório " + dir.getAbsolutePath(), e);
+            }
+        }
+        long init = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (long from = 0; from < count; from += CHUNK_SIZE) {
+                long to = Math.min(count, from + CHUNK_SIZE);
+                long chunk = from;
+                pending.add(executor.submit(() -> {
+                    for (long i = chunk; i < to; i++) {
+                        write(generate(i), dir);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : pending) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Geração das imagens sintéticas interrompida", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Não foi possível gerar as imagens sintéticas", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        double elapsed = (System.currentTimeMillis() - init) / 1000d;
+        LOGGER.info(count + " imagens sintéticas gravadas em " + dir + " em " + elapsed + " segundos");
+    }
+
+    private void write(SyntheticTriangle t, File dir) throws IOException {
+        File typeDir = new File(dir, t.getType().name().toLowerCase());
+        if (t.getJpeg() != null) {
+            Files.write(new File(typeDir, t.getName()).toPath(), t.getJpeg());
+        } else {
+            ImageIO.write(t.getImage(), "png", new File(typeDir, t.getName()));
+        }
+    }
+}
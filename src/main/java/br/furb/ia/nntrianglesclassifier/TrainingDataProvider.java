@@ -1,12 +1,23 @@
 package br.furb.ia.nntrianglesclassifier;
 
+import ij.ImagePlus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 /**
  * Fornece os exemplos de treinamento para a rede neural.
@@ -15,26 +26,50 @@ import java.util.Map;
 public class TrainingDataProvider {
 
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final int SYNTHETIC_CHUNK_SIZE = 256;
+    private static final int SYNTHETIC_CHUNKS_PER_THREAD = 2;
     private final ImageProcessor imgProcessor;
+    private final int parallelism;
+    private final FeatureCache cache;
 
     public TrainingDataProvider(ImageProcessor ip) {
+        this(ip, 1);
+    }
+
+    /**
+     * @param parallelism quantidade de threads utilizadas para processar as imagens. Com valor maior que 1 cada imagem
+     *                    passa por todas as etapas do {@link ImageProcessor} de forma independente (modo pipeline).
+     */
+    public TrainingDataProvider(ImageProcessor ip, int parallelism) {
+        this(ip, parallelism, null);
+    }
+
+    /**
+     * @param cache cache dos pontos principais já extraídos, somente as imagens ausentes do cache são processadas (e
+     *              por isso somente elas são salvas no diretório de saída e logadas em modo debug). Pode ser null.
+     */
+    public TrainingDataProvider(ImageProcessor ip, int parallelism, FeatureCache cache) {
         this.imgProcessor = ip;
+        this.parallelism = parallelism;
+        this.cache = cache;
     }
 
     public Map<TriangleTypes, List<TrianglePrincipalPoints>> processAndGetExamples(Map<TriangleTypes, List<File>> e, boolean debug) {
+        if (parallelism > 1) {
+            return processAndGetExamplesPipelined(e, debug);
+        }
         LOGGER.info("Iniciando carregamento e preparação dos exemplos para treinamento");
         int totalTrainingExamples = 0;
 
-        Map<TriangleTypes, List<TrianglePrincipalPoints>> examples = new HashMap<>();
+        Map<TriangleTypes, List<TrianglePrincipalPoints>> examples = new EnumMap<>(TriangleTypes.class);
         for (Map.Entry<TriangleTypes, List<File>> entry : e.entrySet()) {
             LOGGER.info("Carregando e processando exemplos do tipo " + entry.getKey().toString());
-            imgProcessor.loadImages(entry.getValue().toArray(new File[0]));
-            imgProcessor.convertAllTo8BitGrayScale();
-            imgProcessor.binarizeImage();
-            imgProcessor.convertToEdges();
-            imgProcessor.cropImagesToBBox();
-            imgProcessor.saveImages(Application.getTriangleImageOutputDirByType(entry.getKey())); //salva as imagens processadas pelo ImageProcessor, interessante para depuração..
-            examples.put(entry.getKey(), imgProcessor.getPrincipalPoints(debug));
+            //as imagens são processadas uma a uma, somente os pontos extraídos permanecem em memória
+            File outputDir = Application.getTriangleImageOutputDirByType(entry.getKey());
+            examples.put(entry.getKey(), entry.getValue().stream()
+                    .map(f -> extract(f, outputDir, debug))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
             totalTrainingExamples += examples.get(entry.getKey()).size();
         }
 
@@ -42,5 +77,114 @@ public class TrainingDataProvider {
         return examples;
     }
 
+    /**
+     * Processa cada imagem de forma independente através de {@link ImageProcessor#processImage(File, File, boolean)},
+     * distribuindo as imagens de todos os tipos em um pool limitado de threads. Os resultados são coletados na mesma
+     * ordem das imagens de entrada, portanto o resultado é idêntico ao do processamento sequencial.
+     */
+    private Map<TriangleTypes, List<TrianglePrincipalPoints>> processAndGetExamplesPipelined(Map<TriangleTypes, List<File>> e, boolean debug) {
+        LOGGER.info("Iniciando carregamento e preparação dos exemplos para treinamento utilizando " + parallelism + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            Map<TriangleTypes, List<Future<TrianglePrincipalPoints>>> pending = new EnumMap<>(TriangleTypes.class);
+            for (Map.Entry<TriangleTypes, List<File>> entry : e.entrySet()) {
+                File outputDir = Application.getTriangleImageOutputDirByType(entry.getKey());
+                List<Future<TrianglePrincipalPoints>> futures = new ArrayList<>();
+                for (File f : entry.getValue()) {
+                    futures.add(executor.submit(() -> extract(f, outputDir, debug)));
+                }
+                pending.put(entry.getKey(), futures);
+            }
+
+            int totalTrainingExamples = 0;
+            Map<TriangleTypes, List<TrianglePrincipalPoints>> examples = new EnumMap<>(TriangleTypes.class);
+            for (Map.Entry<TriangleTypes, List<Future<TrianglePrincipalPoints>>> entry : pending.entrySet()) {
+                List<TrianglePrincipalPoints> points = new ArrayList<>();
+                for (Future<TrianglePrincipalPoints> f : entry.getValue()) {
+                    TrianglePrincipalPoints p = f.get();
+                    if (p != null) {
+                        points.add(p);
+                    }
+                }
+                examples.put(entry.getKey(), points);
+                totalTrainingExamples += points.size();
+                LOGGER.info(points.size() + " exemplos do tipo " + entry.getKey() + " processados");
+            }
 
+            LOGGER.info(totalTrainingExamples + " exemplos de treinamento carregados.");
+            return examples;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Processamento das imagens interrompido", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Não foi possível processar as imagens", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gera as imagens de índice 0 até {@code count - 1} através do gerador informado e as processa em memória, sem
+     * gravá-las em disco, utilizando a quantidade de threads desta instância. Os pontos extraídos são entregues ao
+     * consumidor na ordem dos índices, portanto o resultado não depende da quantidade de threads. No máximo
+     * {@link #SYNTHETIC_CHUNKS_PER_THREAD} lotes de {@link #SYNTHETIC_CHUNK_SIZE} imagens por thread ficam em
+     * processamento ou aguardando o consumidor, de modo que a memória utilizada não depende de {@code count}.
+     *
+     * @param consumer recebe, na thread atual, o tipo e os pontos de cada imagem da qual foi possível extrair os pontos
+     * @return quantidade de imagens entregues ao consumidor
+     */
+    public long processExamples(SyntheticTriangleGenerator generator, long count, boolean debug,
+                                BiConsumer<TriangleTypes, TrianglePrincipalPoints> consumer) {
+        LOGGER.info("Gerando e processando " + count + " imagens sintéticas utilizando " + parallelism + " threads");
+        long init = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Deque<Future<TrianglePrincipalPoints[]>> pending = new ArrayDeque<>();
+        try {
+            long next = 0;
+            long index = 0;
+            long examples = 0;
+            while (index < count) {
+                while (next < count && pending.size() < parallelism * SYNTHETIC_CHUNKS_PER_THREAD) {
+                    long from = next;
+                    long to = Math.min(count, from + SYNTHETIC_CHUNK_SIZE);
+                    pending.add(executor.submit(() -> {
+                        TrianglePrincipalPoints[] points = new TrianglePrincipalPoints[(int) (to - from)];
+                        for (long i = from; i < to; i++) {
+                            SyntheticTriangle t = generator.generate(i);
+                            ImagePlus img = t.toImagePlus(imgProcessor);
+                            points[(int) (i - from)] = img == null ? null : imgProcessor.processImage(img, t.getName(), null, debug);
+                        }
+                        return points;
+                    }));
+                    next = to;
+                }
+                for (TrianglePrincipalPoints p : pending.poll().get()) {
+                    if (p != null) {
+                        consumer.accept(generator.typeOf(index), p);
+                        examples++;
+                    }
+                    index++;
+                }
+            }
+
+            double elapsed = (System.currentTimeMillis() - init) / 1000d;
+            LOGGER.info(count + " imagens sintéticas processadas em " + elapsed + " segundos (" + (int) (count / elapsed)
+                    + " imagens/s), " + (count - examples) + " sem os 3 pontos principais");
+            return examples;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Processamento das imagens sintéticas interrompido", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Não foi possível processar as imagens sintéticas", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private TrianglePrincipalPoints extract(File f, File outputDir, boolean debug) {
+        if (cache == null) {
+            return imgProcessor.processImage(f, outputDir, debug);
+        }
+        return cache.getOrExtract(f, (name, data) -> imgProcessor.processImage(name, data, outputDir, debug));
+    }
 }
@@ -0,0 +1,74 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import java.util.Locale;
+
+/**
+ * Resultado do treinamento de um {@link SearchCandidate}, medido no conjunto de validação (holdback).
+ */
+public final class TrialResult {
+
+    private final SearchCandidate candidate;
+    private final int iterations;
+    private final double accuracy;
+    private final double validationError;
+    private final double latencyMicros;
+    private final int modelBytes;
+    private final long trainingMillis;
+
+    public TrialResult(SearchCandidate candidate, int iterations, double accuracy, double validationError,
+                       double latencyMicros, int modelBytes, long trainingMillis) {
+        this.candidate = candidate;
+        this.iterations = iterations;
+        this.accuracy = accuracy;
+        this.validationError = validationError;
+        this.latencyMicros = latencyMicros;
+        this.modelBytes = modelBytes;
+        this.trainingMillis = trainingMillis;
+    }
+
+    public SearchCandidate getCandidate() {
+        return candidate;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return fração dos exemplos de validação classificados corretamente, de 0 a 1
+     */
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return o erro de validação do método, ou NaN caso o método não o calcule
+     */
+    public double getValidationError() {
+        return validationError;
+    }
+
+    /**
+     * @return tempo médio de inferência de um exemplo, em microssegundos
+     */
+    public double getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    /**
+     * @return tamanho do modelo serializado, em bytes
+     */
+    public int getModelBytes() {
+        return modelBytes;
+    }
+
+    public long getTrainingMillis() {
+        return trainingMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: acurácia %.4f, %.2f µs/exemplo, %d bytes, %d iterações",
+                candidate, accuracy, latencyMicros, modelBytes, iterations);
+    }
+}
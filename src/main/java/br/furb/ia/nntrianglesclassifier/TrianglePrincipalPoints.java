@@ -22,6 +22,13 @@ public class TrianglePrincipalPoints {
         return Arrays.asList(one, two, three);
     }
 
+    /**
+     * @return as coordenadas dos pontos na mesma ordem das colunas do CSV (p1x, p1y, p2x, p2y, p3x, p3y)
+     */
+    public double[] features() {
+        return new double[]{one.x, one.y, two.x, two.y, three.x, three.y};
+    }
+
     public TrianglePrincipalPoints() {
     }
 
@@ -16,4 +16,16 @@ public enum TriangleTypes {
     public char getCharValue() {
         return charValue;
     }
+
+    /**
+     * @return o tipo representado pelo caractere, e.g.: a coluna "type" dos arquivos CSV
+     */
+    public static TriangleTypes fromCharValue(char c) {
+        for (TriangleTypes t : values()) {
+            if (t.charValue == c) {
+                return t;
+            }
+        }
+        throw new IllegalArgumentException("Tipo de triangulo desconhecido: " + c);
+    }
 }
@@ -0,0 +1,80 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Confere quais triangulos o {@link CascadeClassifier} envia para a rede neural e os contadores de cada caminho, com
+ * os triangulos construídos de {@link GeometricClassifierTest}. A rede neural é substituída por uma que registra os
+ * triangulos recebidos e classifica todos como {@link TriangleTypes#SCALENE}.
+ */
+public class CascadeClassifierTest {
+
+    private static final class RecordingNetwork extends NeuralNetwork {
+        private final List<TrianglePrincipalPoints> received = new ArrayList<>();
+        private int batches;
+
+        @Override
+        public TriangleTypes[] predictBatch(List<TrianglePrincipalPoints> points) {
+            received.addAll(points);
+            batches++;
+            TriangleTypes[] res = new TriangleTypes[points.size()];
+            Arrays.fill(res, TriangleTypes.SCALENE);
+            return res;
+        }
+    }
+
+    @Test
+    public void sendsAmbiguousToNetwork() {
+        //a confiança do escaleno construído é ≈ 0,17
+        CascadeClassifier cascade = new CascadeClassifier(new GeometricClassifier(), 0.5);
+        RecordingNetwork nn = new RecordingNetwork();
+        List<TrianglePrincipalPoints> points = Arrays.asList(GeometricClassifierTest.EQUILATERAL,
+                GeometricClassifierTest.AMBIGUOUS, GeometricClassifierTest.ISOSCELES, GeometricClassifierTest.SCALENE);
+
+        TriangleTypes[] res = cascade.classify(points, nn);
+
+        assertArrayEquals(new TriangleTypes[]{TriangleTypes.EQUILATERAL, TriangleTypes.SCALENE,
+                TriangleTypes.ISOSCELES, TriangleTypes.SCALENE}, res);
+        assertEquals(1, nn.batches);
+        assertEquals(Arrays.asList(GeometricClassifierTest.AMBIGUOUS, GeometricClassifierTest.SCALENE), nn.received);
+        assertEquals(2, cascade.getGeometricCount());
+        assertEquals(2, cascade.getNetworkCount());
+    }
+
+    @Test
+    public void skipsNetworkWhenAllAreGeometric() {
+        CascadeClassifier cascade = new CascadeClassifier(new GeometricClassifier(), 0);
+        RecordingNetwork nn = new RecordingNetwork();
+
+        TriangleTypes[] res = cascade.classify(Arrays.asList(GeometricClassifierTest.ISOSCELES,
+                GeometricClassifierTest.SCALENE), nn);
+
+        assertArrayEquals(new TriangleTypes[]{TriangleTypes.ISOSCELES, TriangleTypes.SCALENE}, res);
+        assertEquals(0, nn.batches);
+        assertEquals(2, cascade.getGeometricCount());
+        assertEquals(0, cascade.getNetworkCount());
+        assertEquals(0, cascade.getNetworkNanosPerExample(), 0);
+    }
+
+    @Test
+    public void countsExternalNetworkClassifications() {
+        CascadeClassifier cascade = new CascadeClassifier(new GeometricClassifier(), 0);
+        assertNull(cascade.classifyGeometric(GeometricClassifierTest.AMBIGUOUS));
+        assertEquals(0, cascade.getNetworkCount());
+
+        cascade.recordNetwork(4, 4000);
+        assertEquals(4, cascade.getNetworkCount());
+        assertEquals(0, cascade.getGeometricCount());
+        //inclui o tempo da tentativa geométrica do triangulo ambíguo
+        assertTrue(cascade.getNetworkNanosPerExample() >= 1000);
+    }
+}
@@ -0,0 +1,205 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageConverter;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compara os pontos extraídos pelo {@link ImageProcessor} (varredura do {@link FusedImageKernel} e
+ * {@link CornerExtractor}) com os do pipeline original, em todas as imagens de treinamento e classificação. O pipeline
+ * original é mantido aqui como oráculo, sem nenhuma das classes novas: etapas do ImageJ, crop pela bounding box e a
+ * varredura de candidatos de ImageProcessor.getPrincipalPoints, que refazia a remoção dos pares próximos a cada 1% de
+ * tolerância.
+ */
+public class CornerExtractorTest {
+
+    private static final int WHITE_PIXEL_VAL = 255;
+    private static final int BASE_WIDTH = 50;
+
+    @Test
+    public void extractMatchesOriginalPipeline() {
+        ImageProcessor processor = new ImageProcessor();
+        int count = 0;
+        for (String path : new String[]{Application.TRAINING_IMAGES_PATH, Application.CLASSIFICATION_IMAGES_PATH}) {
+            for (File dir : ResourceLoader.getResources(path)) {
+                File[] files = dir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File f : files) {
+                    ImagePlus image = IJ.openImage(f.getAbsolutePath());
+                    assertNotNull("Formato não suportado: " + f, image);
+                    List<Pixel> expected = originalPrincipalPoints(image.duplicate());
+                    TrianglePrincipalPoints actual = processor.processImage(image, f.getName(), null, false);
+                    if (expected == null) {
+                        assertEquals(f.getAbsolutePath(), null, actual);
+                    } else {
+                        assertNotNull(f.getAbsolutePath(), actual);
+                        assertEquals(f.getAbsolutePath(), expected,
+                                Arrays.asList(actual.getOne(), actual.getTwo(), actual.getThree()));
+                        count++;
+                    }
+                }
+            }
+        }
+        assertTrue("Nenhuma imagem encontrada", count > 0);
+    }
+
+    /**
+     * Pipeline original: conversão para 8-bit, binarização, edges e crop do ImageJ, seguidos da extração de
+     * ImageProcessor.getPrincipalPoints sobre os pixels da imagem recortada.
+     *
+     * @return os pontos normalizados, na ordem em que são adicionados ao {@link TrianglePrincipalPoints}, ou null caso
+     * a imagem seja ignorada
+     */
+    private static List<Pixel> originalPrincipalPoints(ImagePlus image) {
+        new ImageConverter(image).convertToGray8();
+        ij.process.ImageProcessor p = image.getProcessor();
+        p.setBinaryThreshold();
+        p.findEdges();
+        BBox box = getBoundingBox(getEdgesPixels(p));
+        if (box == null) {
+            return null;
+        }
+        p.setRoi(box.getMinX(), box.getMinY(), box.getMaxX() - box.getMinX(), box.getMaxY() - box.getMinY());
+        ij.process.ImageProcessor imgProc = p.crop();
+
+        List<Pixel> contourCoordinates = getEdgesPixels(imgProc);
+        BBox bbox = getBoundingBox(contourCoordinates);
+        if (bbox == null) {
+            return null;
+        }
+        List<Pixel> maxXPixels = contourCoordinates.stream().filter(px -> px.x >= bbox.getMaxX()).collect(Collectors.toList());
+        List<Pixel> maxYPixels = contourCoordinates.stream().filter(px -> px.y >= bbox.getMaxY()).collect(Collectors.toList());
+        List<Pixel> minXPixels = contourCoordinates.stream().filter(px -> px.x <= bbox.getMinX()).collect(Collectors.toList());
+        List<Pixel> minYPixels = contourCoordinates.stream().filter(px -> px.y <= bbox.getMinY()).collect(Collectors.toList());
+
+        Set<Pixel> extractedPoints = new HashSet<>();
+        double tolerancePercentage = 0.03;
+        int tolerance = getDistanceTolerance(imgProc.getWidth(), imgProc.getHeight(), tolerancePercentage);
+
+        Pixel maxXmaxYPixel = maxXPixels.stream().sorted((p1, p2) -> p2.y - p1.y).findFirst().orElse(null);
+        extractedPoints.add(maxXmaxYPixel);
+        Pixel maxXminYPixel = maxXPixels.stream().sorted((p1, p2) -> p1.y - p2.y).findFirst().orElse(null);
+        if (getDistance(maxXmaxYPixel, maxXminYPixel) > tolerance) {
+            extractedPoints.add(maxXminYPixel);
+        }
+
+        Pixel minXmaxYPixel = minXPixels.stream().sorted((p1, p2) -> p2.y - p1.y).findFirst().orElse(null);
+        extractedPoints.add(minXmaxYPixel);
+        Pixel minXminYPixel = minXPixels.stream().sorted((p1, p2) -> p1.y - p2.y).findFirst().orElse(null);
+        if (getDistance(minXmaxYPixel, minXminYPixel) > tolerance) {
+            extractedPoints.add(minXminYPixel);
+        }
+
+        Pixel maxYmaxXPixel = maxYPixels.stream().sorted((p1, p2) -> p2.x - p1.x).findFirst().orElse(null);
+        if (getDistance(maxYmaxXPixel, maxXmaxYPixel) > tolerance) {
+            extractedPoints.add(maxYmaxXPixel);
+        }
+        Pixel maxYminXPixel = maxYPixels.stream().sorted((p1, p2) -> p1.x - p2.x).findFirst().orElse(null);
+        if (getDistance(maxYmaxXPixel, maxYminXPixel) > tolerance && getDistance(minXmaxYPixel, maxYminXPixel) > tolerance) {
+            extractedPoints.add(maxYminXPixel);
+        }
+
+        Pixel minYmaxXPixel = minYPixels.stream().sorted((p1, p2) -> p2.x - p1.x).findFirst().orElse(null);
+        if (getDistance(minYmaxXPixel, maxXminYPixel) > tolerance) {
+            extractedPoints.add(minYmaxXPixel);
+        }
+        Pixel minYminXPixel = minYPixels.stream().sorted((p1, p2) -> p1.x - p2.x).findFirst().orElse(null);
+        if (getDistance(minYmaxXPixel, minYminXPixel) > tolerance && getDistance(minYminXPixel, minXminYPixel) > tolerance) {
+            extractedPoints.add(minYminXPixel);
+        }
+
+        //remove os pares proximos de pontos restantes
+        List<Pixel> finalPixels = new ArrayList<>(extractedPoints);
+        List<Pixel> extractedPointsList = new ArrayList<>(extractedPoints);
+        while (finalPixels.size() > 3) {
+            tolerance = getDistanceTolerance(imgProc.getWidth(), imgProc.getHeight(), tolerancePercentage);
+            for (int u = 0; u < extractedPoints.size() && finalPixels.size() > 3; u++) {
+                Pixel p1 = extractedPointsList.get(u);
+                for (int q = 0; q < extractedPoints.size() && finalPixels.size() > 3; q++) {
+                    Pixel p2 = extractedPointsList.get(q);
+                    if (p1 == p2) {
+                        continue;
+                    }
+                    if (getDistance(p1, p2) <= tolerance) {
+                        finalPixels.remove(p2);
+                    }
+                }
+            }
+
+            tolerancePercentage += 0.01;
+        }
+        if (finalPixels.size() != 3) {
+            return null;
+        }
+
+        List<Pixel> res = new ArrayList<>();
+        for (Pixel pixel : finalPixels) {
+            res.add(normalizePixels(imgProc.getWidth(), imgProc.getHeight(), pixel));
+        }
+        return res;
+    }
+
+    /**
+     * @return a bounding box dos pixels de contorno, ou null caso a imagem não tenha nenhum
+     */
+    private static BBox getBoundingBox(List<Pixel> edgesPixels) {
+        if (edgesPixels.isEmpty()) {
+            return null;
+        }
+        int minX = edgesPixels.stream().mapToInt(px -> px.x).min().getAsInt();
+        int maxX = edgesPixels.stream().mapToInt(px -> px.x).max().getAsInt();
+        int minY = edgesPixels.stream().mapToInt(px -> px.y).min().getAsInt();
+        int maxY = edgesPixels.stream().mapToInt(px -> px.y).max().getAsInt();
+        return new BBox(maxX, minX, maxY, minY);
+    }
+
+    private static List<Pixel> getEdgesPixels(ij.process.ImageProcessor p) {
+        List<Pixel> res = new ArrayList<>();
+        for (int x = 0; x < p.getWidth(); x++) {
+            for (int y = 0; y < p.getHeight(); y++) {
+                if (p.get(x, y) == WHITE_PIXEL_VAL) {
+                    res.add(new Pixel(x, y, WHITE_PIXEL_VAL));
+                }
+            }
+        }
+        return res;
+    }
+
+    private static Pixel normalizePixels(int originalWidth, int originalHeight, Pixel originalPixel) {
+        if (originalWidth == BASE_WIDTH) {
+            return originalPixel;
+        }
+        double aspect = (double) originalHeight / (double) originalWidth;
+        int normalizedHeight = (int) (aspect * BASE_WIDTH);
+        double x = originalPixel.x * ((double) BASE_WIDTH / (double) originalWidth);
+        double y = originalPixel.y * ((double) normalizedHeight / (double) originalHeight);
+        return new Pixel((int) x, (int) y, originalPixel.val);
+    }
+
+    private static int getDistanceTolerance(int width, int height, double tolerancePercentage) {
+        int toleranceX = (int) (width * tolerancePercentage);
+        int toleranceY = (int) (height * tolerancePercentage);
+        return toleranceX + toleranceY;
+    }
+
+    private static int getDistance(Pixel p1, Pixel p2) {
+        int dx = p1.x - p2.x;
+        int dy = p1.y - p2.y;
+        return Math.abs(dx + dy);
+    }
+}
@@ -0,0 +1,163 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Confere os acertos e as falhas do {@link FeatureCache} e o descarte do cache salvo por outra versão do
+ * pré-processamento ou com outra configuração. O extrator não processa as imagens, somente conta as chamadas.
+ */
+public class FeatureCacheTest {
+
+    private static final String CONFIGURATION = "teste";
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicInteger extractions = new AtomicInteger();
+
+    private BiFunction<String, byte[], TrianglePrincipalPoints> extractor(TrianglePrincipalPoints points) {
+        return (name, data) -> {
+            extractions.incrementAndGet();
+            return points;
+        };
+    }
+
+    private static TrianglePrincipalPoints points(int offset) {
+        TrianglePrincipalPoints points = new TrianglePrincipalPoints();
+        points.addPixel(new Pixel(offset, 1, 255));
+        points.addPixel(new Pixel(2, offset, 255));
+        points.addPixel(new Pixel(offset, offset, 255));
+        return points;
+    }
+
+    private File image(String name, String content) throws IOException {
+        File f = new File(tmp.getRoot(), name);
+        Files.write(f.toPath(), content.getBytes("UTF-8"));
+        return f;
+    }
+
+    @Test
+    public void extractsOnlyOnMiss() throws IOException {
+        FeatureCache cache = FeatureCache.load(tmp.newFile("features.cache"), CONFIGURATION);
+        File image = image("1.jpg", "imagem 1");
+        TrianglePrincipalPoints expected = points(10);
+
+        assertEquals(expected.toString(), cache.getOrExtract(image, extractor(expected)).toString());
+        assertEquals(expected.toString(), cache.getOrExtract(image, extractor(points(20))).toString());
+        assertEquals(1, extractions.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void passesTheHashedContentToTheExtractor() throws IOException {
+        FeatureCache cache = FeatureCache.load(tmp.newFile("features.cache"), CONFIGURATION);
+        File image = image("1.jpg", "imagem 1");
+        byte[][] received = new byte[1][];
+        cache.getOrExtract(image, (name, data) -> {
+            assertEquals(image.getName(), name);
+            received[0] = data;
+            return null;
+        });
+        assertArrayEquals(Files.readAllBytes(image.toPath()), received[0]);
+        assertEquals(true, cache.contains(FeatureCache.hash(received[0])));
+    }
+
+    @Test
+    public void changedContentIsAMiss() throws IOException {
+        FeatureCache cache = FeatureCache.load(tmp.newFile("features.cache"), CONFIGURATION);
+        File image = image("1.jpg", "imagem 1");
+        cache.getOrExtract(image, extractor(points(10)));
+        image("1.jpg", "imagem 1 alterada");
+        TrianglePrincipalPoints changed = points(20);
+
+        assertEquals(changed.toString(), cache.getOrExtract(image, extractor(changed)).toString());
+        assertEquals(2, extractions.get());
+        assertEquals(0, cache.getHits());
+        //o mesmo conteúdo em outro arquivo é um acerto
+        File copy = image("2.jpg", "imagem 1 alterada");
+        assertEquals(changed.toString(), cache.getOrExtract(copy, extractor(null)).toString());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void remembersImagesWithoutPoints() throws IOException {
+        FeatureCache cache = FeatureCache.load(tmp.newFile("features.cache"), CONFIGURATION);
+        File image = image("1.jpg", "imagem sem triangulo");
+        assertNull(cache.getOrExtract(image, extractor(null)));
+        assertNull(cache.getOrExtract(image, extractor(points(10))));
+        assertEquals(1, extractions.get());
+    }
+
+    @Test
+    public void reloadsSavedEntries() throws IOException {
+        File file = new File(tmp.getRoot(), "features.cache");
+        FeatureCache cache = FeatureCache.load(file, CONFIGURATION);
+        File image = image("1.jpg", "imagem 1");
+        File empty = image("2.jpg", "imagem sem triangulo");
+        TrianglePrincipalPoints expected = points(10);
+        cache.getOrExtract(image, extractor(expected));
+        cache.getOrExtract(empty, extractor(null));
+        cache.save();
+
+        FeatureCache loaded = FeatureCache.load(file, CONFIGURATION);
+        assertEquals(2, loaded.size());
+        assertEquals(expected.toString(), loaded.getOrExtract(image, extractor(points(20))).toString());
+        assertNull(loaded.getOrExtract(empty, extractor(points(20))));
+        assertEquals(2, extractions.get());
+    }
+
+    @Test
+    public void discardsCacheWithOtherConfiguration() throws IOException {
+        File file = new File(tmp.getRoot(), "features.cache");
+        FeatureCache cache = FeatureCache.load(file, CONFIGURATION);
+        cache.getOrExtract(image("1.jpg", "imagem 1"), extractor(points(10)));
+        cache.save();
+
+        assertEquals(0, FeatureCache.load(file, "outra configuração").size());
+        assertEquals(1, FeatureCache.load(file, CONFIGURATION).size());
+    }
+
+    @Test
+    public void discardsCacheFromOtherVersion() throws IOException {
+        File file = new File(tmp.getRoot(), "features.cache");
+        FeatureCache cache = FeatureCache.load(file, CONFIGURATION);
+        cache.getOrExtract(image("1.jpg", "imagem 1"), extractor(points(10)));
+        cache.save();
+        //a versão do pré-processamento é gravada logo após o magic
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(Integer.BYTES);
+            raf.writeInt(ImageProcessor.FEATURES_VERSION + 1);
+        }
+
+        assertEquals(0, FeatureCache.load(file, CONFIGURATION).size());
+    }
+
+    @Test
+    public void discardsFeatureDataFile() throws IOException {
+        File features = tmp.newFile("training" + FeatureDataFile.EXTENSION);
+        try (FeatureDataFile.Writer writer = FeatureDataFile.writer(features)) {
+            writer.add(TriangleTypes.EQUILATERAL, points(10));
+        }
+        assertEquals(0, FeatureCache.load(features, CONFIGURATION).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMergingOtherConfiguration() throws IOException {
+        FeatureCache cache = FeatureCache.load(tmp.newFile("features.cache"), CONFIGURATION);
+        cache.putAll(FeatureCache.load(tmp.newFile("other.cache"), "outra configuração"));
+    }
+}
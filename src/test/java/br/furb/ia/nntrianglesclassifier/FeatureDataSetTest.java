@@ -0,0 +1,90 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.data.versatile.VersatileMLDataSet;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.factory.MLMethodFactory;
+import org.encog.ml.model.EncogModel;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Confere se o {@link FeatureDataSet} lido do {@link Application#TRAINING_CSV} convertido tem as mesmas estatísticas
+ * das colunas e os mesmos dados normalizados que o dataset lido do próprio CSV por
+ * {@link NeuralNetwork#loadDataSet(File, FeatureSet)}.
+ */
+public class FeatureDataSetTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @ClassRule
+    public static final TemporaryFolder TMP = new TemporaryFolder();
+
+    private static File features;
+
+    @BeforeClass
+    public static void convert() throws IOException {
+        features = TMP.newFile("training" + FeatureDataFile.EXTENSION);
+        FeatureDataFile.fromCSV(Application.TRAINING_CSV, true, features);
+    }
+
+    @Test
+    public void normalizesPointsAsCSV() {
+        assertSameDataSet(FeatureSet.POINTS);
+    }
+
+    @Test
+    public void normalizesInvariantFeaturesAsCSV() {
+        assertSameDataSet(FeatureSet.INVARIANT);
+    }
+
+    private static void assertSameDataSet(FeatureSet featureSet) {
+        VersatileMLDataSet expected = normalize(NeuralNetwork.loadDataSet(Application.TRAINING_CSV, featureSet));
+        VersatileMLDataSet actual = normalize(NeuralNetwork.loadDataSet(features, featureSet));
+        assertEquals(FeatureDataSet.class, actual.getClass());
+
+        List<ColumnDefinition> expectedColumns = expected.getNormHelper().getInputColumns();
+        List<ColumnDefinition> actualColumns = actual.getNormHelper().getInputColumns();
+        assertEquals(expectedColumns.size(), actualColumns.size());
+        for (int c = 0; c < expectedColumns.size(); c++) {
+            ColumnDefinition e = expectedColumns.get(c);
+            ColumnDefinition a = actualColumns.get(c);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getName(), e.getLow(), a.getLow(), TOLERANCE);
+            assertEquals(e.getName(), e.getHigh(), a.getHigh(), TOLERANCE);
+            assertEquals(e.getName(), e.getMean(), a.getMean(), TOLERANCE);
+            assertEquals(e.getName(), e.getSd(), a.getSd(), TOLERANCE);
+            assertEquals(e.getName(), e.getCount(), a.getCount());
+        }
+        assertEquals(expected.getNormHelper().getOutputColumns().get(0).getClasses(),
+                actual.getNormHelper().getOutputColumns().get(0).getClasses());
+
+        double[][] expectedData = expected.getData();
+        double[][] actualData = actual.getData();
+        assertEquals(expectedData.length, actualData.length);
+        for (int row = 0; row < expectedData.length; row++) {
+            assertArrayEquals("linha " + row, expectedData[row], actualData[row], TOLERANCE);
+        }
+    }
+
+    /**
+     * Normaliza o dataset com a estratégia escolhida para a arquitetura do treinamento, como em
+     * {@code NeuralNetwork.prepare}.
+     */
+    private static VersatileMLDataSet normalize(VersatileMLDataSet data) {
+        EncogModel model = new EncogModel(data);
+        model.selectMethod(data, MLMethodFactory.TYPE_FEEDFORWARD);
+        data.getNormHelper().setStrategy(model.getMethodConfigurations().get(MLMethodFactory.TYPE_FEEDFORWARD)
+                .suggestNormalizationStrategy(data, Application.TRAINING_ARCHITECTURE));
+        data.normalize();
+        return data;
+    }
+}
@@ -0,0 +1,101 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Confere o {@link GeometricClassifier} com triangulos construídos, cujas diferenças relativas entre os lados são
+ * conhecidas, em cada uma das faixas das tolerâncias padrão.
+ */
+public class GeometricClassifierTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * Lados 40, √1625 e √1625: diferenças (√1625 - 40) / √1625 ≈ 0,008 e 0.
+     */
+    static final TrianglePrincipalPoints EQUILATERAL = triangle(0, 0, 40, 0, 20, 35);
+    /**
+     * Lados 40, √500 e √500: diferenças 0 e (40 - √500) / 40 ≈ 0,44.
+     */
+    static final TrianglePrincipalPoints ISOSCELES = triangle(0, 0, 40, 0, 20, 10);
+    /**
+     * Lados √200, √1700 e 50: diferenças (√1700 - √200) / 50 ≈ 0,54 e (50 - √1700) / 50 ≈ 0,175, pouco acima da
+     * tolerância de lados diferentes.
+     */
+    static final TrianglePrincipalPoints SCALENE = triangle(0, 0, 50, 0, 10, 10);
+    /**
+     * Lados √500, √1300 e 40: diferenças (√1300 - √500) / 40 ≈ 0,34 e (40 - √1300) / 40 ≈ 0,099, entre as duas
+     * tolerâncias.
+     */
+    static final TrianglePrincipalPoints AMBIGUOUS = triangle(0, 0, 40, 0, 10, 20);
+
+    static TrianglePrincipalPoints triangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+        TrianglePrincipalPoints points = new TrianglePrincipalPoints();
+        points.addPixel(new Pixel(x1, y1, 255));
+        points.addPixel(new Pixel(x2, y2, 255));
+        points.addPixel(new Pixel(x3, y3, 255));
+        return points;
+    }
+
+    private final GeometricClassifier classifier = new GeometricClassifier();
+
+    @Test
+    public void classifiesEquilateral() {
+        GeometricClassifier.Result result = classifier.classify(EQUILATERAL);
+        assertEquals(TriangleTypes.EQUILATERAL, result.getType());
+        double side = Math.sqrt(1625);
+        //a maior diferença está mais perto do limite de lados iguais
+        double expected = 1 - ((side - 40) / side) / GeometricClassifier.DEFAULT_EQUAL_TOLERANCE;
+        assertEquals(expected, result.getConfidence(), TOLERANCE);
+    }
+
+    @Test
+    public void classifiesIsosceles() {
+        GeometricClassifier.Result result = classifier.classify(ISOSCELES);
+        assertEquals(TriangleTypes.ISOSCELES, result.getType());
+        //lados iguais e uma diferença maior que o dobro da tolerância de lados diferentes
+        assertEquals(1, result.getConfidence(), TOLERANCE);
+    }
+
+    @Test
+    public void classifiesScalene() {
+        GeometricClassifier.Result result = classifier.classify(SCALENE);
+        assertEquals(TriangleTypes.SCALENE, result.getType());
+        double large = (50 - Math.sqrt(1700)) / 50;
+        double expected = (large - GeometricClassifier.DEFAULT_DISTINCT_TOLERANCE)
+                / GeometricClassifier.DEFAULT_DISTINCT_TOLERANCE;
+        assertEquals(expected, result.getConfidence(), TOLERANCE);
+    }
+
+    @Test
+    public void rejectsAmbiguous() {
+        GeometricClassifier.Result result = classifier.classify(AMBIGUOUS);
+        assertNull(result.getType());
+        assertEquals(0, result.getConfidence(), 0);
+    }
+
+    @Test
+    public void rejectsDegenerate() {
+        assertNull(classifier.classify(triangle(10, 10, 10, 10, 10, 10)).getType());
+    }
+
+    @Test
+    public void tolerancesMoveTheBands() {
+        //com tolerância de lados iguais 0,10 a diferença de ≈ 0,099 passa a ser de lados iguais
+        assertEquals(TriangleTypes.ISOSCELES, new GeometricClassifier(0.10, 0.20).classify(AMBIGUOUS).getType());
+        //com tolerância de lados diferentes 0,09 ela passa a ser de lados diferentes
+        assertEquals(TriangleTypes.SCALENE, new GeometricClassifier(0.05, 0.09).classify(AMBIGUOUS).getType());
+        //com tolerância de lados diferentes 0,18 a diferença de ≈ 0,175 passa a ser ambígua
+        assertNull(new GeometricClassifier(0.05, 0.18).classify(SCALENE).getType());
+        //com tolerância de lados iguais 0,007 a diferença de ≈ 0,008 passa a ser ambígua
+        assertNull(new GeometricClassifier(0.007, 0.15).classify(EQUILATERAL).getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOverlappingTolerances() {
+        new GeometricClassifier(0.15, 0.05);
+    }
+}
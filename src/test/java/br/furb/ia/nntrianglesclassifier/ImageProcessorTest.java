@@ -0,0 +1,47 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compara os pontos principais extraídos pelo {@link FusedImageKernel} com os extraídos pelas etapas do ImageJ
+ * (implementação de referência) em todas as imagens de treinamento e classificação.
+ */
+public class ImageProcessorTest {
+
+    @Test
+    public void fusedKernelMatchesReferenceImplementation() {
+        ImageProcessor fused = new ImageProcessor();
+        ImageProcessor reference = new ImageProcessor();
+        reference.setReferenceImplementation(true);
+
+        int count = 0;
+        List<String> mismatches = new ArrayList<>();
+        for (String path : new String[]{Application.TRAINING_IMAGES_PATH, Application.CLASSIFICATION_IMAGES_PATH}) {
+            for (File dir : ResourceLoader.getResources(path)) {
+                File[] files = dir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File f : files) {
+                    count++;
+                    TrianglePrincipalPoints expected = reference.processImage(f, null, false);
+                    TrianglePrincipalPoints actual = fused.processImage(f, null, false);
+                    if (expected == null || actual == null ? expected != actual
+                            : !Arrays.equals(expected.features(), actual.features())) {
+                        mismatches.add(f.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        assertTrue("Nenhuma imagem encontrada", count > 0);
+        assertEquals("Imagens cujos pontos divergem da implementação de referência", new ArrayList<String>(), mismatches);
+    }
+}
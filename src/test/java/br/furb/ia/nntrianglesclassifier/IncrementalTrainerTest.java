@@ -0,0 +1,123 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Confere a atualização das estatísticas das colunas de entrada pelo {@link IncrementalTrainer} e se a ampliação da
+ * faixa da normalização mantém a função calculada pela rede. Os lotes são maiores que a quantidade de exemplos
+ * adicionados, portanto a rede não é treinada.
+ */
+public class IncrementalTrainerTest {
+
+    private static final double TOLERANCE = 1e-9;
+    private static final int NO_TRAINING_BATCH_SIZE = 1000;
+
+    @ClassRule
+    public static final TemporaryFolder TMP = new TemporaryFolder();
+
+    private static File model;
+    private static double[][] examples;
+
+    @BeforeClass
+    public static void train() throws IOException {
+        File features = TMP.newFile("classification.features");
+        FeatureDataFile.fromCSV(Application.CLASSIFICATION_CSV, false, features);
+        FeatureDataFile data = FeatureDataFile.open(features);
+        examples = data.features(0, data.size());
+
+        NeuralNetwork nn = new NeuralNetwork();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            nn.train(features, FeatureSet.POINTS, executor, Application.TRAINING_ARCHITECTURE);
+        } finally {
+            executor.shutdown();
+        }
+        model = TMP.newFile("model.bin");
+        nn.save(model);
+    }
+
+    @Test
+    public void widenRangeKeepsOutputs() {
+        NeuralNetwork nn = NeuralNetwork.load(model);
+        IncrementalTrainer trainer = new IncrementalTrainer(nn, null);
+        trainer.setBatchSize(NO_TRAINING_BATCH_SIZE);
+        TriangleTypes[] classes = nn.predictBatch(examples);
+        double[][] outputs = outputs(nn);
+
+        //todas as coordenadas fora da faixa dos exemplos de classificação
+        trainer.add(new double[]{-120, -80, 400, -60, 150, 700}, TriangleTypes.SCALENE);
+
+        assertEquals(0, trainer.getBatches());
+        assertEquals(FeatureSet.POINTS.size(), trainer.getRangeUpdates());
+        assertArrayEquals(classes, nn.predictBatch(examples));
+        double[][] widened = outputs(nn);
+        for (int i = 0; i < examples.length; i++) {
+            assertArrayEquals(Arrays.toString(examples[i]), outputs[i], widened[i], TOLERANCE);
+        }
+    }
+
+    @Test
+    public void updatesMeanAndStandardDeviation() {
+        NeuralNetwork nn = NeuralNetwork.load(model);
+        List<ColumnDefinition> columns = nn.getHelper().getInputColumns();
+        int columnCount = columns.size();
+        int[] count = new int[columnCount];
+        double[] mean = new double[columnCount];
+        double[] sd = new double[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            count[c] = columns.get(c).getCount();
+            mean[c] = columns.get(c).getMean();
+            sd[c] = columns.get(c).getSd();
+        }
+        assertTrue("O modelo deve guardar a quantidade de exemplos de cada coluna", count[0] > 0);
+
+        IncrementalTrainer trainer = new IncrementalTrainer(nn, null);
+        trainer.setBatchSize(NO_TRAINING_BATCH_SIZE);
+        double[][] added = {examples[0], examples[1], examples[2], {-120, -80, 400, -60, 150, 700}, {0, 0, 0, 0, 0, 0}};
+        for (double[] points : added) {
+            trainer.add(points, TriangleTypes.SCALENE);
+        }
+
+        for (int c = 0; c < columnCount; c++) {
+            int n = count[c] + added.length;
+            double sum = mean[c] * count[c];
+            for (double[] points : added) {
+                sum += points[c];
+            }
+            double expectedMean = sum / n;
+            //soma dos quadrados dos desvios: a dos exemplos originais em relação à nova média, mais a dos adicionados
+            double m2 = count[c] * (sd[c] * sd[c] + (mean[c] - expectedMean) * (mean[c] - expectedMean));
+            for (double[] points : added) {
+                m2 += (points[c] - expectedMean) * (points[c] - expectedMean);
+            }
+            ColumnDefinition col = columns.get(c);
+            assertEquals(n, col.getCount());
+            assertEquals(col.getName(), expectedMean, col.getMean(), TOLERANCE);
+            assertEquals(col.getName(), Math.sqrt(m2 / n), col.getSd(), TOLERANCE);
+        }
+    }
+
+    private static double[][] outputs(NeuralNetwork nn) {
+        InferenceKernel kernel = nn.exportKernel();
+        double[][] res = new double[examples.length][kernel.getOutputCount()];
+        for (int i = 0; i < examples.length; i++) {
+            kernel.compute(examples[i], res[i]);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,111 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.basic.BasicMLData;
+import org.encog.ml.data.versatile.NormalizationHelper;
+import org.encog.ml.data.versatile.columns.ColumnDefinition;
+import org.encog.ml.data.versatile.normalizers.strategies.NormalizationStrategy;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Confere se a saída do {@link InferenceKernel} é idêntica bit a bit à do Encog ({@code MLRegression.compute}) para
+ * modelos treinados com as imagens de classificação, com cada um dos {@link FeatureSet}.
+ */
+public class InferenceKernelTest {
+
+    @ClassRule
+    public static final TemporaryFolder TMP = new TemporaryFolder();
+
+    private static File features;
+    private static List<double[]> examples;
+
+    @BeforeClass
+    public static void extractFeatures() throws IOException {
+        ImageProcessor processor = new ImageProcessor();
+        Map<TriangleTypes, List<TrianglePrincipalPoints>> data = new EnumMap<>(TriangleTypes.class);
+        examples = new ArrayList<>();
+        for (File dir : ResourceLoader.getResources(Application.CLASSIFICATION_IMAGES_PATH)) {
+            List<TrianglePrincipalPoints> points = new ArrayList<>();
+            File[] files = dir.listFiles();
+            Arrays.sort(files);
+            for (File f : files) {
+                TrianglePrincipalPoints p = processor.processImage(f, null, false);
+                if (p != null) {
+                    points.add(p);
+                    examples.add(p.features());
+                }
+            }
+            data.put(TriangleTypes.valueOf(dir.getName().toUpperCase(Locale.ROOT)), points);
+        }
+        features = TMP.newFile("classification.features");
+        FeatureDataFile.write(data, features);
+    }
+
+    @Test
+    public void computeMatchesEncogWithPoints() {
+        assertComputeMatchesEncog(train(FeatureSet.POINTS));
+    }
+
+    @Test
+    public void computeMatchesEncogWithInvariant() {
+        assertComputeMatchesEncog(train(FeatureSet.INVARIANT));
+    }
+
+    private static NeuralNetwork train(FeatureSet featureSet) {
+        NeuralNetwork nn = new NeuralNetwork();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            nn.train(features, featureSet, executor, Application.TRAINING_ARCHITECTURE);
+        } finally {
+            executor.shutdown();
+        }
+        return nn;
+    }
+
+    private static void assertComputeMatchesEncog(NeuralNetwork nn) {
+        InferenceKernel kernel = nn.exportKernel();
+        assertNotNull("O modelo não pode ser exportado para o kernel de inferência", kernel);
+        double[] output = new double[kernel.getOutputCount()];
+        for (double[] points : examples) {
+            double[] expected = encog(nn, points).getData();
+            kernel.compute(points, output);
+            assertEquals(Arrays.toString(points), expected.length, output.length);
+            for (int i = 0; i < output.length; i++) {
+                assertEquals(Arrays.toString(points), Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(output[i]));
+            }
+        }
+    }
+
+    /**
+     * Mesma normalização de {@link NeuralNetwork#predict(File)}, seguida de {@code MLRegression.compute}.
+     */
+    private static MLData encog(NeuralNetwork nn, double[] points) {
+        NormalizationHelper helper = nn.getHelper();
+        List<ColumnDefinition> inputColumns = helper.getInputColumns();
+        NormalizationStrategy strategy = helper.getNormStrategy();
+        double[] values = nn.getFeatureSet().extract(points);
+        MLData input = new BasicMLData(helper.calculateNormalizedInputCount());
+        int index = 0;
+        for (int col = 0; col < inputColumns.size(); col++) {
+            index = strategy.normalizeColumn(inputColumns.get(col), false, values[col], input.getData(), index);
+        }
+        return nn.getBestMethod().compute(input);
+    }
+}
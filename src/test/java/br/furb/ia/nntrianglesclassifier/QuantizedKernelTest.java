@@ -0,0 +1,114 @@
+package br.furb.ia.nntrianglesclassifier;
+
+import org.encog.neural.flat.FlatNetwork;
+import org.encog.neural.networks.BasicNetwork;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Confere a classificação do {@link QuantizedKernel} contra a do {@link InferenceKernel} de origem, para um modelo
+ * treinado com as imagens de classificação e para o mesmo modelo com camadas de pesos zerados.
+ */
+public class QuantizedKernelTest {
+
+    /**
+     * Fração mínima dos exemplos classificados na mesma classe pelos dois kernels, o resultado do int8 é aproximado.
+     */
+    private static final double MIN_AGREEMENT = 0.95;
+
+    @ClassRule
+    public static final TemporaryFolder TMP = new TemporaryFolder();
+
+    private static NeuralNetwork nn;
+    private static double[][] examples;
+
+    @BeforeClass
+    public static void train() throws IOException {
+        ImageProcessor processor = new ImageProcessor();
+        Map<TriangleTypes, List<TrianglePrincipalPoints>> data = new EnumMap<>(TriangleTypes.class);
+        List<double[]> all = new ArrayList<>();
+        for (File dir : ResourceLoader.getResources(Application.CLASSIFICATION_IMAGES_PATH)) {
+            List<TrianglePrincipalPoints> points = new ArrayList<>();
+            File[] files = dir.listFiles();
+            Arrays.sort(files);
+            for (File f : files) {
+                TrianglePrincipalPoints p = processor.processImage(f, null, false);
+                if (p != null) {
+                    points.add(p);
+                    all.add(p.features());
+                }
+            }
+            data.put(TriangleTypes.valueOf(dir.getName().toUpperCase(Locale.ROOT)), points);
+        }
+        examples = all.toArray(new double[all.size()][]);
+        File features = TMP.newFile("classification.features");
+        FeatureDataFile.write(data, features);
+
+        nn = new NeuralNetwork();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            nn.train(features, FeatureSet.POINTS, executor, Application.TRAINING_ARCHITECTURE);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void agreesWithDoubleKernel() {
+        InferenceKernel kernel = nn.exportKernel();
+        assertNotNull("O modelo não pode ser exportado para o kernel de inferência", kernel);
+        QuantizedKernel quantized = kernel.quantize();
+        TriangleTypes[] expected = kernel.classify(examples);
+        TriangleTypes[] actual = quantized.classify(examples);
+        int agree = 0;
+        for (int i = 0; i < expected.length; i++) {
+            agree += expected[i] == actual[i] ? 1 : 0;
+        }
+        double agreement = (double) agree / expected.length;
+        assertTrue("Mesma classe em somente " + agreement + " dos exemplos", agreement >= MIN_AGREEMENT);
+        //a cópia compartilha os pesos e tem o mesmo resultado
+        assertArrayEquals(actual, quantized.copy().classify(examples));
+        assertTrue(quantized.getWeightBytes() < kernel.getWeightBytes());
+    }
+
+    @Test
+    public void handlesZeroFirstLayer() {
+        BasicNetwork network = (BasicNetwork) ((BasicNetwork) nn.getBestMethod()).clone();
+        FlatNetwork flat = network.getFlat();
+        //o FlatNetwork guarda as camadas da saída para a entrada, a última faixa de pesos é a da camada de entrada
+        int layers = flat.getLayerCounts().length;
+        Arrays.fill(flat.getWeights(), flat.getWeightIndex()[layers - 2], flat.getWeightIndex()[layers - 1], 0);
+        assertSameClasses(InferenceKernel.export(network, nn.getHelper(), nn.getFeatureSet()));
+    }
+
+    @Test
+    public void handlesAllZeroWeights() {
+        BasicNetwork network = (BasicNetwork) ((BasicNetwork) nn.getBestMethod()).clone();
+        Arrays.fill(network.getFlat().getWeights(), 0);
+        assertSameClasses(InferenceKernel.export(network, nn.getHelper(), nn.getFeatureSet()));
+    }
+
+    /**
+     * Com os pesos zerados a saída não depende da entrada, portanto os dois kernels devem concordar em todos os exemplos.
+     */
+    private static void assertSameClasses(InferenceKernel kernel) {
+        assertArrayEquals(kernel.classify(examples), kernel.quantize().classify(examples));
+    }
+}